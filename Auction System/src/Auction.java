@@ -1,21 +1,71 @@
-import java.io.Serializable;
+import org.jgroups.util.Streamable;
 
-public class Auction implements Serializable {
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @Description: An auction item. Auctions are written with a compact hand-written format,
+ * both when Java serialization is used (sealing and state transfer) and when JGroups
+ * marshals them for the replicas, instead of the default Java serialization.
+ * Bids and closes lock only the auction they change, so bids on different auctions
+ * can be applied in parallel.
+ *
+ * A bidder may also leave a proxy bid: a maximum which the auction bids up to for them,
+ * raising their bid by their increment whenever they are outbid. Proxy bids are resolved
+ * inside bid and proxyBid, so a bidding war between proxies is settled by the one
+ * replicated operation which started it.
+ *
+ * An auction may have an end time, after which it takes no more bids and is closed by the
+ * replicas with expire, see AuctionExpiry.
+ */
+public class Auction implements Externalizable, Streamable {
+
+    private final static long serialVersionUID = 1L;
+
+    // The longest string read back, in bytes
+    private final static int MAX_STRING_BYTES = 1 << 20;
+
+    // Version of the format written by writeTo, and the flags used in it
+    private final static byte FORMAT_VERSION = 6;
+    private final static byte FORMAT_VERSION_5 = 5;
+    private final static byte FORMAT_VERSION_4 = 4;
+    private final static byte FORMAT_VERSION_3 = 3;
+    private final static int FLAG_ID_SET = 1;
+    private final static int FLAG_WON = 2;
+    private final static int FLAG_CLOSED = 4;
 
    // Private variables used to create and describe an auction item
     private Integer auctionID;
 
-    private String currentWinner;
+    private volatile String currentWinner;
     private String itemDescription;
     private String ownerID;
-    private String history = "";
+    private BidHistory history = new BidHistory();
 
     private double price;
     private double reserve;
-    private double currentBid;
+    private volatile double currentBid;
+
+    private volatile boolean won;
+    private volatile boolean auctionClosed =  false;
+
+    // The wall clock time the auction ends at, or 0 if it only ends when the owner closes it
+    private long endTime;
 
-    private boolean won;
-    private boolean auctionClosed =  false;
+    // The proxy bid of each bidder who has one, in the order they were first left
+    private Map<String, ProxyBid> proxies = new LinkedHashMap<>();
+
+    // The number of operations applied to the auction, and the store version it was last changed at
+    private long version;
+    private long changedAt;
 
     /**
      *
@@ -35,6 +85,11 @@ public class Auction implements Serializable {
         this.itemDescription = itemDescription;
     }
 
+    /**
+     * Creates an empty auction, which is only used to read an auction back with readFrom
+     */
+    public Auction() { }
+
     /**
      * @return currentWinner
      */
@@ -67,32 +122,255 @@ public class Auction implements Serializable {
      */
     public void setAuctionID(int auctionID) { this.auctionID = auctionID; }
 
+    /**
+     * @return the time the auction ends at, or 0 if it has no end time
+     */
+    public long getEndTime() { return endTime; }
+
+    /**
+     * Set method for endTime
+     * @param endTime the wall clock time in milliseconds, or 0 for no end time
+     */
+    public void setEndTime(long endTime) { this.endTime = endTime; }
+
+    /**
+     * @param fromSequence
+     * @param maxRecords
+     * @return a page of the bid history, oldest first
+     */
+    public synchronized List<BidRecord> getBidHistory(long fromSequence, int maxRecords) { return history.page(fromSequence, maxRecords); }
+
+    /**
+     * @return the time of the most recent bid, or 0 if there have been no bids
+     */
+    public synchronized long getLastBidTime() { return history.getLastTimestamp(); }
+
+    /**
+     * Method used by the front end to keep only the fields a seller chooses from an auction
+     * sent by a client. The bids, winner, bid history, proxy bids, closed flag and versions
+     * are set by the replicas, so none of them are copied.
+     *
+     * @param ownerID the authenticated user creating the auction
+     * @return a new auction with the same description, prices and end time
+     */
+    public Auction toNewListing(String ownerID) {
+
+        Auction listing = new Auction(itemDescription, price, reserve, ownerID);
+        listing.endTime = endTime;
+
+        return listing;
+    }
+
+    /**
+     * Method used to tell whether an auction added under an ID which is already held is the
+     * same listing, as when an addAuction is applied twice, rather than another auction
+     * given the same ID. Only the fields the seller set are compared.
+     *
+     * @param other
+     * @return true if both were created with the same owner, description, prices and end time
+     */
+    public boolean isSameListing(Auction other) {
+
+        return String.valueOf(ownerID).equals(other.ownerID)
+                && String.valueOf(itemDescription).equals(other.itemDescription)
+                && price == other.price && reserve == other.reserve && endTime == other.endTime;
+    }
+
+    /**
+     * Method used when two sides of a partition have both changed an auction, to decide
+     * which copy to keep. The copy with the higher bid is newer, as bids only go up, so a
+     * bid accepted on either side is never thrown away. With the same bid a closed copy is
+     * newer than an open one, then the copy with the later last bid. Only the copy's own
+     * state is used, as store versions on the two sides are not comparable.
+     *
+     * @param other
+     * @return true if this copy is newer than the other
+     */
+    public boolean isNewerThan(Auction other) {
+
+        double bid = getCurrentBid();
+        double otherBid = other.getCurrentBid();
+
+        if (bid != otherBid) {
+            return bid > otherBid;
+        }
+
+        if (isAuctionClosed() != other.isAuctionClosed()) {
+            return isAuctionClosed();
+        }
+
+        return getLastBidTime() > other.getLastBidTime();
+    }
+
     /**
      * @param value
      * @param bidderID
+     * @param timestamp
      *
      * Method used to a place a bid on an an item and performs various
-     * checks on the bis.
+     * checks on the bis. The timestamp is recorded in the bid history. The
+     * checks and the update are made under the auction's lock so that two
+     * bids on the same auction cannot both pass the checks.
      */
-    public String bid(double value, String bidderID) {
+    public synchronized String bid(double value, String bidderID, long timestamp) {
 
         // Performs a check to see if the auction is closed or open
         if (auctionClosed) {
-            System.out.println("The auction is closed");
+            return "The auction is closed";
+        }
+
+        // Performs a check to see if the auction ended before the bid was made
+        if (hasEnded(timestamp)) {
+            return "The auction has ended";
         }
 
         // Performs a check to see if the attempted bid is higher than the current highest bid
         if (value <= currentBid) {
-            System.out.println("Your bid must be higher than the current bid");
+            return "Your bid must be higher than the current bid";
+        }
+
+        place(bidderID, value, timestamp);
+        resolveProxies(timestamp);
+
+        // A proxy bid may have answered the bid straight away
+        if (!bidderID.equals(currentWinner)) {
+            return "Your bid of " + value + " on " + itemDescription + " was outbid by a proxy bid, the current bid is " + currentBid;
+        }
+
+        return "Successful bid of " + value + " on " + itemDescription + " you are currently the highest bidder";
+    }
+
+    /**
+     * @param maximum
+     * @param increment
+     * @param bidderID
+     * @param timestamp
+     *
+     * Method used to leave a proxy bid on an item, which bids for the bidder up to the maximum.
+     * A bidder who already has a proxy bid has it replaced. The proxy bids are resolved at once,
+     * so the response says whether the bidder is the highest bidder once they have.
+     */
+    public synchronized String proxyBid(double maximum, double increment, String bidderID, long timestamp) {
+
+        // Performs a check to see if the auction is closed or open
+        if (auctionClosed) {
+            return "The auction is closed";
+        }
+
+        // Performs a check to see if the auction ended before the bid was made
+        if (hasEnded(timestamp)) {
+            return "The auction has ended";
+        }
+
+        if (increment <= 0) {
+            return "The increment must be more than 0";
+        }
+
+        // Performs a check to see if the maximum is higher than the current highest bid
+        if (maximum <= currentBid) {
+            return "Your maximum must be higher than the current bid";
         }
 
+        proxies.put(bidderID, new ProxyBid(maximum, increment));
+        resolveProxies(timestamp);
+
+        if (!bidderID.equals(currentWinner)) {
+            return "Proxy bid of up to " + maximum + " on " + itemDescription + " left, but you have been outbid, the current bid is " + currentBid;
+        }
+
+        return "Proxy bid of up to " + maximum + " on " + itemDescription + " left, you are currently the highest bidder at " + currentBid;
+    }
+
+    /**
+     * Places the proxy bids which can still beat the current bid until none can. Each
+     * round the highest proxy bid which is not winning, the earliest left on a tie, takes
+     * on the current winner: it wins by its increment over the winner's maximum if it is
+     * higher, otherwise the winner's proxy bid answers it by the winner's increment. Either
+     * way one of the two can bid no higher, so there are never more rounds than proxy bids.
+     *
+     * @param timestamp
+     */
+    private void resolveProxies(long timestamp) {
+
+        while (true) {
+
+            String challengerID = null;
+            ProxyBid challenger = null;
+
+            for (Map.Entry<String, ProxyBid> proxy : proxies.entrySet()) {
+                if (!proxy.getKey().equals(currentWinner) && proxy.getValue().maximum > currentBid
+                        && (challenger == null || proxy.getValue().maximum > challenger.maximum)) {
+                    challengerID = proxy.getKey();
+                    challenger = proxy.getValue();
+                }
+            }
+
+            if (challenger == null) {
+                return;
+            }
+
+            String winnerID = currentWinner;
+            ProxyBid winner = winnerID == null ? null : proxies.get(winnerID);
+            // A winner who has since bid above their own proxy by hand is held to that bid
+            double winnerMaximum = winner == null ? currentBid : Math.max(currentBid, winner.maximum);
+
+            if (challenger.maximum > winnerMaximum) {
+                place(challengerID, Math.min(challenger.maximum, winnerMaximum + challenger.increment), timestamp);
+            } else {
+                // The winner keeps the item on a tie, and the challenger's last bid is only
+                // recorded if the winner had to go above it
+                double answer = Math.min(winner.maximum, challenger.maximum + winner.increment);
+
+                if (challenger.maximum < answer) {
+                    place(challengerID, challenger.maximum, timestamp);
+                }
+
+                place(winnerID, answer, timestamp);
+            }
+        }
+    }
+
+    /**
+     * Records a bid as the highest bid
+     *
+     * @param bidderID
+     * @param value
+     * @param timestamp
+     */
+    private void place(String bidderID, double value, long timestamp) {
         currentBid = value;
         currentWinner = bidderID;
-        history = bidderID + " bid " + value + " on " + itemDescription + "\n" + history;
+        history.append(bidderID, value, timestamp);
+    }
 
-        return "Successful bid of " + value + " on " + itemDescription + " you are currently the highest bidder";
+    /**
+     * @return a summary of the auction for use in auction listings
+     */
+    public synchronized AuctionSummary toSummary() {
+        return new AuctionSummary(auctionID, itemDescription, ownerID, auctionClosed, won, currentBid, currentWinner);
+    }
+
+    /**
+     * Method used by the AuctionStore to record that an operation has been applied
+     * to the auction
+     *
+     * @param storeVersion
+     */
+    public synchronized void markChanged(long storeVersion) {
+        version++;
+        changedAt = storeVersion;
     }
 
+    /**
+     * @return the number of operations applied to the auction
+     */
+    public synchronized long getVersion() { return version; }
+
+    /**
+     * @return the store version the auction was last changed at
+     */
+    public synchronized long getChangedAt() { return changedAt; }
+
     // Checks if an auctionID is taken
     public boolean isIdSet() { return auctionID != null; }
 
@@ -109,23 +387,58 @@ public class Auction implements Serializable {
      * Method used to close an item and check weather the client attempting to close
      * the auction is the owner of the auction
      */
-    public String closeAuction (String ownerID) {
-
-        String winnerName;
+    public synchronized String closeAuction (String ownerID) {
 
         System.err.println(ownerID + " @ " + this.ownerID + "  = " + ownerID.equals(this.ownerID));
 
         // Checks to see if the client is not the owner of the auction
         if(!ownerID.equals(this.ownerID)) {
-            System.out.println("You are not the owner of this auction");
+            return "You are not the owner of this auction";
         }
 
         // Checks to see if the auction is already closed
         if(auctionClosed) {
-            System.out.println("The auction is already closed");
+            return "The auction is already closed";
+        }
+        return close();
+    }
+
+    /**
+     * @param now
+     *
+     * Method used by the replicas to close an auction once its end time has passed. The
+     * time is chosen by the replica which proposed the expiry, so every replica agrees.
+     */
+    public synchronized String expire(long now) {
+
+        if (auctionClosed) {
+            return "The auction is already closed";
         }
+
+        if (!hasEnded(now)) {
+            return "The auction has not ended";
+        }
+
+        return close();
+    }
+
+    /**
+     * @param now
+     * @return true if the auction has an end time and it is not after now
+     */
+    private boolean hasEnded(long now) { return endTime > 0 && now >= endTime; }
+
+    /**
+     * Closes the auction, which is won if the highest bid is above the reserve
+     */
+    private String close() {
+
+        String winnerName;
         auctionClosed = true;
 
+        // Proxy bids can no longer bid, so they are not kept
+        proxies.clear();
+
         // Checks to see if the highest bid is greater than the reserve price, if so
         // sets the winnerName to the highest bidder
         if (currentBid > reserve) {
@@ -140,5 +453,144 @@ public class Auction implements Serializable {
             return "Auction closed with no winner ";
         }
     }
-}
 
+    /**
+     * Method used to write the auction in the compact format
+     *
+     * @param out
+     * @throws IOException
+     */
+    @Override
+    public synchronized void writeTo(DataOutput out) throws IOException {
+
+        int flags = (auctionID != null ? FLAG_ID_SET : 0) | (won ? FLAG_WON : 0) | (auctionClosed ? FLAG_CLOSED : 0);
+        out.writeByte(FORMAT_VERSION);
+        out.writeByte(flags);
+
+        if (auctionID != null) {
+            out.writeInt(auctionID);
+        }
+
+        writeString(itemDescription, out);
+        writeString(ownerID, out);
+        writeString(currentWinner, out);
+        out.writeDouble(price);
+        out.writeDouble(reserve);
+        out.writeDouble(currentBid);
+        out.writeLong(version);
+        out.writeLong(changedAt);
+        out.writeLong(endTime);
+        history.writeTo(out);
+        out.writeInt(proxies.size());
+
+        for (Map.Entry<String, ProxyBid> proxy : proxies.entrySet()) {
+            writeString(proxy.getKey(), out);
+            out.writeDouble(proxy.getValue().maximum);
+            out.writeDouble(proxy.getValue().increment);
+        }
+    }
+
+    /**
+     * Method used to read an auction written in the compact format
+     *
+     * @param in
+     * @throws IOException
+     */
+    @Override
+    public synchronized void readFrom(DataInput in) throws IOException {
+
+        byte format = in.readByte();
+
+        // Auctions written before end times have none, those written before proxy bids have no proxy
+        // bids, and those written before format 6 have bid histories with short bidder IDs
+        if (format < FORMAT_VERSION_3 || format > FORMAT_VERSION) {
+            throw new IOException("Unknown auction format version " + format);
+        }
+
+        int flags = in.readByte();
+        auctionID = (flags & FLAG_ID_SET) != 0 ? in.readInt() : null;
+        won = (flags & FLAG_WON) != 0;
+        auctionClosed = (flags & FLAG_CLOSED) != 0;
+        itemDescription = readString(in);
+        ownerID = readString(in);
+        currentWinner = readString(in);
+        price = in.readDouble();
+        reserve = in.readDouble();
+        currentBid = in.readDouble();
+        version = in.readLong();
+        changedAt = in.readLong();
+        endTime = format >= FORMAT_VERSION_5 ? in.readLong() : 0;
+        history = new BidHistory();
+        history.readFrom(in, format < FORMAT_VERSION);
+        proxies = new LinkedHashMap<>();
+
+        if (format != FORMAT_VERSION_3) {
+            int count = in.readInt();
+
+            for (int i = 0; i < count; i++) {
+                String bidderID = readString(in);
+                proxies.put(bidderID, new ProxyBid(in.readDouble(), in.readDouble()));
+            }
+        }
+    }
+
+    // Java serialization uses the same compact format
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException { writeTo(out); }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException { readFrom(in); }
+
+    /**
+     * The highest a bidder will go to, and how much they raise their bid by when outbid
+     */
+    private static class ProxyBid {
+
+        private final double maximum;
+        private final double increment;
+
+        ProxyBid(double maximum, double increment) {
+            this.maximum = maximum;
+            this.increment = increment;
+        }
+    }
+
+    /**
+     * Writes a string as its UTF-8 length and bytes, with a length of -1 for null.
+     * writeUTF is not used as it cannot write strings longer than 64KB.
+     */
+    static void writeString(String s, DataOutput out) throws IOException {
+
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by writeString
+     *
+     * @throws IOException if the string is longer than MAX_STRING_BYTES
+     */
+    static String readString(DataInput in) throws IOException {
+
+        int length = in.readInt();
+
+        if (length < 0) {
+            return null;
+        }
+
+        if (length > MAX_STRING_BYTES) {
+            throw new IOException("String of " + length + " bytes is longer than " + MAX_STRING_BYTES);
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,362 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @Author Lewis Linaker
+ * @Description AuctionArchive class which keeps closed auctions on disk once they have been
+ * moved out of a replica's AuctionStore, so that they no longer take up the heap, the auction
+ * list or state transfers, but can still be read.
+ *
+ * The archive is two append only files in the replica's directory: the auctions, written in
+ * their compact format one after another, and an index of (auction ID, offset, length) for
+ * each of them. The auctions are forced to disk before their index entries are written, so an
+ * index entry never points at an auction which is not there. The index is read into a compact
+ * hash table of primitives when the archive is opened; entries torn by a crash are dropped.
+ */
+public class AuctionArchive {
+
+    // The names of the files, the size of an index entry, and the ID marking an empty slot
+    private final static String DATA_FILE = "archive.dat";
+    private final static String INDEX_FILE = "archive.idx";
+    private final static int INDEX_ENTRY = 4 + 8 + 4;
+    private final static int EMPTY = Integer.MIN_VALUE;
+
+    // Private variables used to hold the files and the index
+    private final FileChannel data;
+    private final FileChannel index;
+    private long dataEnd;
+    private int[] ids = new int[1024];
+    private long[] offsets = new long[1024];
+    private int[] lengths = new int[1024];
+    private int count;
+
+    /**
+     * Opens the archive in a directory, creating it if there is none
+     *
+     * @param directory
+     * @throws IOException
+     */
+    public AuctionArchive(File directory) throws IOException {
+
+        data = FileChannel.open(new File(directory, DATA_FILE).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = FileChannel.open(new File(directory, INDEX_FILE).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Arrays.fill(ids, EMPTY);
+        loadIndex();
+    }
+
+    /**
+     * Reads the index into the hash table, dropping any entry torn by a crash or pointing past
+     * the end of the auctions, and any auctions written after the last good entry
+     */
+    private void loadIndex() throws IOException {
+
+        long dataSize = data.size();
+        long entries = index.size() / INDEX_ENTRY;
+        ByteBuffer buffer = ByteBuffer.allocate(INDEX_ENTRY * 4096);
+        long position = 0;
+        long good = 0;
+
+        while (good < entries) {
+
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), (entries - good) * INDEX_ENTRY));
+
+            while (buffer.hasRemaining()) {
+                if (index.read(buffer, position + buffer.position()) < 0) {
+                    break;
+                }
+            }
+
+            buffer.flip();
+            position += buffer.limit();
+
+            while (buffer.remaining() >= INDEX_ENTRY) {
+
+                int auctionID = buffer.getInt();
+                long offset = buffer.getLong();
+                int length = buffer.getInt();
+
+                if (offset < 0 || length < 0 || offset + length > dataSize) {
+                    entries = good;
+                    break;
+                }
+
+                put(auctionID, offset, length);
+                dataEnd = Math.max(dataEnd, offset + length);
+                good++;
+            }
+        }
+
+        index.truncate(good * INDEX_ENTRY);
+        data.truncate(dataEnd);
+    }
+
+    /**
+     * Writes auctions to the archive. Auctions already in it are skipped.
+     *
+     * @param auctions
+     * @throws IOException
+     */
+    public void append(List<Auction> auctions) throws IOException {
+
+        int[] auctionIDs = new int[auctions.size()];
+        byte[][] records = new byte[auctions.size()][];
+
+        for (int i = 0; i < auctionIDs.length; i++) {
+
+            Auction auction = auctions.get(i);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+            synchronized (auction) {
+                auction.writeTo(new DataOutputStream(bytes));
+            }
+
+            auctionIDs[i] = auction.getAuctionID();
+            records[i] = bytes.toByteArray();
+        }
+
+        append(auctionIDs, records);
+    }
+
+    /**
+     * Writes auctions already in their compact format to the archive, as sent in a state
+     * transfer. Auctions already in it are skipped.
+     *
+     * @param auctionIDs
+     * @param records
+     * @throws IOException
+     */
+    public synchronized void append(int[] auctionIDs, byte[][] records) throws IOException {
+
+        ByteBuffer entries = ByteBuffer.allocate(auctionIDs.length * INDEX_ENTRY);
+        long[] written = new long[auctionIDs.length];
+        long end = dataEnd;
+
+        for (int i = 0; i < auctionIDs.length; i++) {
+
+            written[i] = -1;
+
+            if (slot(auctionIDs[i]) >= 0) {
+                continue;
+            }
+
+            ByteBuffer record = ByteBuffer.wrap(records[i]);
+
+            while (record.hasRemaining()) {
+                end += data.write(record, end);
+            }
+
+            written[i] = end - records[i].length;
+            entries.putInt(auctionIDs[i]).putLong(written[i]).putInt(records[i].length);
+        }
+
+        if (entries.position() == 0) {
+            return;
+        }
+
+        // The auctions must be on disk before the entries which point at them
+        data.force(false);
+        entries.flip();
+        long indexEnd = index.size();
+
+        while (entries.hasRemaining()) {
+            indexEnd += index.write(entries, indexEnd);
+        }
+
+        index.force(false);
+        dataEnd = end;
+
+        for (int i = 0; i < auctionIDs.length; i++) {
+            if (written[i] >= 0) {
+                put(auctionIDs[i], written[i], records[i].length);
+            }
+        }
+    }
+
+    /**
+     * @param auctionID
+     * @return true if the auction is in the archive
+     */
+    public synchronized boolean contains(int auctionID) { return slot(auctionID) >= 0; }
+
+    /**
+     * @return the number of auctions in the archive
+     */
+    public synchronized int size() { return count; }
+
+    /**
+     * @return the IDs of the auctions in the archive, in order
+     */
+    public synchronized int[] getAuctionIDs() {
+
+        int[] archived = new int[count];
+        int n = 0;
+
+        for (int auctionID : ids) {
+            if (auctionID != EMPTY) {
+                archived[n++] = auctionID;
+            }
+        }
+
+        Arrays.sort(archived);
+
+        return archived;
+    }
+
+    /**
+     * @param auctionID
+     * @return the auction in its compact format, or null if it is not in the archive
+     * @throws IOException
+     */
+    public byte[] read(int auctionID) throws IOException {
+
+        long offset;
+        int length;
+
+        synchronized (this) {
+            int slot = slot(auctionID);
+
+            if (slot < 0) {
+                return null;
+            }
+
+            offset = offsets[slot];
+            length = lengths[slot];
+        }
+
+        // Positional reads do not move the channel, so reads can run at the same time
+        ByteBuffer record = ByteBuffer.allocate(length);
+
+        while (record.hasRemaining()) {
+            if (data.read(record, offset + record.position()) < 0) {
+                throw new IOException("Archive ends inside auction " + auctionID);
+            }
+        }
+
+        return record.array();
+    }
+
+    /**
+     * Reads an auction back from the archive. Each call returns a new Auction, which is not
+     * kept in the store.
+     *
+     * @param auctionID
+     * @return auction, or null if it is not in the archive
+     */
+    public Auction load(int auctionID) {
+
+        try {
+            byte[] record = read(auctionID);
+
+            if (record == null) {
+                return null;
+            }
+
+            Auction auction = new Auction();
+            auction.readFrom(new DataInputStream(new ByteArrayInputStream(record)));
+
+            return auction;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read auction " + auctionID + " from the archive", e);
+        }
+    }
+
+    /**
+     * Closes the files
+     *
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        data.close();
+        index.close();
+    }
+
+    /**
+     * @return a summary of the archive
+     */
+    public synchronized String getStats() { return "archive auctions=" + count + " bytes=" + dataEnd; }
+
+    /**
+     * Finds the slot of an auction in the hash table, by linear probing
+     *
+     * @param auctionID
+     * @return the slot, or -1 if the auction is not in the table
+     */
+    private int slot(int auctionID) {
+
+        int mask = ids.length - 1;
+
+        for (int i = mix(auctionID) & mask; ; i = (i + 1) & mask) {
+            if (ids[i] == auctionID) {
+                return i;
+            }
+
+            if (ids[i] == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Adds an auction to the hash table, doubling it once it is half full
+     */
+    private void put(int auctionID, long offset, int length) {
+
+        if ((count + 1) * 2 > ids.length) {
+            resize();
+        }
+
+        int mask = ids.length - 1;
+        int i = mix(auctionID) & mask;
+
+        while (ids[i] != EMPTY && ids[i] != auctionID) {
+            i = (i + 1) & mask;
+        }
+
+        if (ids[i] == EMPTY) {
+            count++;
+        }
+
+        ids[i] = auctionID;
+        offsets[i] = offset;
+        lengths[i] = length;
+    }
+
+    private void resize() {
+
+        int[] oldIDs = ids;
+        long[] oldOffsets = offsets;
+        int[] oldLengths = lengths;
+
+        ids = new int[oldIDs.length * 2];
+        offsets = new long[oldIDs.length * 2];
+        lengths = new int[oldIDs.length * 2];
+        Arrays.fill(ids, EMPTY);
+        count = 0;
+
+        for (int i = 0; i < oldIDs.length; i++) {
+            if (oldIDs[i] != EMPTY) {
+                put(oldIDs[i], oldOffsets[i], oldLengths[i]);
+            }
+        }
+    }
+
+    /**
+     * Mixes the bits of an ID so that neighbouring IDs are spread over the table
+     */
+    private static int mix(int auctionID) {
+
+        int h = auctionID * 0x9E3779B9;
+
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,147 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @Author Lewis Linaker
+ * @Description AuctionArchiver class which moves a replica's closed auctions to its archive once
+ * they have been closed for a grace period, keeping the live auctions held on the heap, listed,
+ * and sent in state transfers small. Like AuctionExpiry, every replica keeps the time each
+ * auction is due to be archived in a HashedTimingWheel and the coordinator multicasts an
+ * archiveAuctions operation through the ordered channel, so every replica and front end moves
+ * the same auctions at the same point in the order.
+ *
+ * A replica which is not the coordinator waits RETRY_MILLIS longer, and proposes an auction
+ * itself if it still holds it then, so a replica which missed an archiving while it was away
+ * catches up. Archiving an auction twice does nothing.
+ *
+ * The grace period is set with -Dauction.archive.graceMs; 0, the default, turns archiving off.
+ */
+public class AuctionArchiver implements AuctionStore.ChangeListener {
+
+    // How long an auction stays in the store after it closes, and how long a replica which is
+    // not the coordinator waits before proposing an auction itself
+    public final static long GRACE_MILLIS = Long.getLong("auction.archive.graceMs", 0L);
+    public final static long RETRY_MILLIS = Long.getLong("auction.archive.retryMs", 5000L);
+
+    /**
+     * @Description Proposer interface which sends an archiveAuctions operation to the shard
+     */
+    public interface Proposer {
+
+        void propose(int[] auctionIDs) throws Exception;
+    }
+
+    // Private variables used to hold the due times and to propose archiving
+    private final AuctionStore store;
+    private final Proposer proposer;
+    private final HashedTimingWheel<Integer> wheel;
+    private final Set<Integer> deferred = ConcurrentHashMap.newKeySet();
+    private volatile boolean coordinator;
+
+    /**
+     * @param name the name of the replica
+     * @param store the replica's auctions
+     * @param proposer sends an archiveAuctions operation to the shard
+     */
+    public AuctionArchiver(String name, AuctionStore store, Proposer proposer) {
+
+        this.store = store;
+        this.proposer = proposer;
+        this.wheel = new HashedTimingWheel<>("AuctionArchiver-" + name, AuctionExpiry.TICK_MILLIS, AuctionExpiry.TICKS_PER_WHEEL, this::due);
+    }
+
+    /**
+     * @return true if archiving is turned on
+     */
+    public static boolean isEnabled() { return GRACE_MILLIS > 0; }
+
+    /**
+     * Starts the wheel
+     */
+    public void start() { wheel.start(); }
+
+    /**
+     * Schedules every closed auction in the store to be archived after the grace period. As
+     * the time they closed at is not kept, the grace period is counted from now.
+     */
+    public void scheduleAll() {
+
+        long due = System.currentTimeMillis() + GRACE_MILLIS;
+
+        store.forEachEndTime((auctionID, endTime, closed) -> {
+            if (closed) {
+                wheel.schedule(auctionID, due);
+            }
+        });
+    }
+
+    /**
+     * Called by the store, under the auction's lock, when an auction changes. A closed
+     * auction is scheduled to be archived after the grace period.
+     *
+     * @param version
+     * @param auction
+     */
+    @Override
+    public void changed(long version, Auction auction) {
+
+        if (auction.isAuctionClosed()) {
+            wheel.schedule(auction.getAuctionID(), System.currentTimeMillis() + GRACE_MILLIS);
+        }
+    }
+
+    /**
+     * @param isCoordinator whether this replica is now the first replica in the view
+     */
+    public void setCoordinator(boolean isCoordinator) { coordinator = isCoordinator; }
+
+    /**
+     * Called by the wheel with the auctions whose grace period has passed. Auctions which are
+     * already archived are left out.
+     *
+     * @param auctionIDs
+     */
+    private void due(List<Integer> auctionIDs) {
+
+        long retry = System.currentTimeMillis() + RETRY_MILLIS;
+        List<Integer> archive = new ArrayList<>();
+
+        for (int auctionID : auctionIDs) {
+
+            if (store.isArchived(auctionID)) {
+                deferred.remove(auctionID);
+                continue;
+            }
+
+            // A replica which is not the coordinator gives the coordinator one more chance
+            if (coordinator || !deferred.add(auctionID)) {
+                deferred.remove(auctionID);
+                archive.add(auctionID);
+            }
+
+            wheel.schedule(auctionID, retry);
+        }
+
+        for (int from = 0; from < archive.size(); from += AuctionExpiry.MAX_BATCH) {
+
+            int[] batch = new int[Math.min(AuctionExpiry.MAX_BATCH, archive.size() - from)];
+
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = archive.get(from + i);
+            }
+
+            try {
+                proposer.propose(batch);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return a summary of the wheel
+     */
+    public String getStats() { return wheel.getStats() + " coordinator=" + coordinator; }
+}
@@ -0,0 +1,169 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @Author Lewis Linaker
+ * @Description AuctionCodecBenchmark class which compares the size and the encode and decode
+ * rates of an auction written with Auction.writeTo against ObjectOutputStream. Auction is now
+ * Externalizable, so ObjectOutputStream is measured twice: writing the Auction itself, which
+ * adds the stream header and class description around the compact format, and writing the
+ * same fields with default serialization, as Auction was written before it had its own codec.
+ * The auction is given a full bid history so that it is the size of a busy auction.
+ *
+ * Usage: java AuctionCodecBenchmark [iterations] [bids]
+ */
+public class AuctionCodecBenchmark {
+
+    /**
+     * Encodes and decodes one auction
+     */
+    private interface Codec {
+        byte[] encode(Auction auction) throws Exception;
+        Object decode(byte[] bytes) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int bids = args.length > 1 ? Integer.parseInt(args[1]) : BidHistory.DEFAULT_RETENTION;
+
+        Auction auction = new Auction("A well used bicycle with new tyres", 10, 50, "seller");
+        auction.setAuctionID(1);
+
+        for (int i = 1; i <= bids; i++) {
+            auction.bid(10 + i, "bidder" + (i % 7), System.currentTimeMillis());
+        }
+
+        Codec compact = new Codec() {
+            public byte[] encode(Auction auction) throws Exception {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                auction.writeTo(new DataOutputStream(bytes));
+                return bytes.toByteArray();
+            }
+
+            public Object decode(byte[] bytes) throws Exception {
+                Auction auction = new Auction();
+                auction.readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+                return auction;
+            }
+        };
+
+        Codec externalizable = new Codec() {
+            public byte[] encode(Auction auction) throws Exception { return serialize(auction); }
+            public Object decode(byte[] bytes) throws Exception { return deserialize(bytes); }
+        };
+
+        Codec defaultSerialization = new Codec() {
+            public byte[] encode(Auction auction) throws Exception { return serialize(new DefaultAuction(auction)); }
+            public Object decode(byte[] bytes) throws Exception { return deserialize(bytes); }
+        };
+
+        System.out.println(iterations + " encodes and decodes of an auction with " + bids + " bids");
+        System.out.println(String.format("%-36s %-10s %-15s %s", "Codec", "Bytes", "Encodes/s", "Decodes/s"));
+
+        run("Auction.writeTo", compact, auction, iterations);
+        run("ObjectOutputStream (Externalizable)", externalizable, auction, iterations);
+        run("ObjectOutputStream (default)", defaultSerialization, auction, iterations);
+    }
+
+    /**
+     * Times a codec after a warm up which is not timed
+     */
+    private static void run(String name, Codec codec, Auction auction, int iterations) throws Exception {
+
+        time(codec, auction, Math.max(1, iterations / 10));
+        double[] seconds = time(codec, auction, iterations);
+
+        System.out.println(String.format("%-36s %-10d %-15.0f %.0f", name, codec.encode(auction).length,
+                iterations / seconds[0], iterations / seconds[1]));
+    }
+
+    /**
+     * @return the seconds taken to encode the auction iterations times, and to decode it as many times
+     */
+    private static double[] time(Codec codec, Auction auction, int iterations) throws Exception {
+
+        byte[] bytes = null;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < iterations; i++) {
+            bytes = codec.encode(auction);
+        }
+
+        long encoding = System.nanoTime() - start;
+        start = System.nanoTime();
+
+        for (int i = 0; i < iterations; i++) {
+            if (codec.decode(bytes) == null) {
+                throw new IllegalStateException("The auction did not decode");
+            }
+        }
+
+        long decoding = System.nanoTime() - start;
+
+        return new double[]{encoding / 1e9, decoding / 1e9};
+    }
+
+    private static byte[] serialize(Object object) throws Exception {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws Exception {
+
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+
+    /**
+     * The fields of an auction which can be read through its getters, written with default
+     * serialization, with its bid history as a list of BidRecords
+     */
+    private static class DefaultAuction implements Serializable {
+
+        private final static long serialVersionUID = 1L;
+
+        private final Integer auctionID;
+        private final String itemDescription;
+        private final String ownerID;
+        private final String currentWinner;
+        private final double currentBid;
+        private final boolean won;
+        private final boolean auctionClosed;
+        private final long version;
+        private final long changedAt;
+        private final long endTime;
+        private final ArrayList<BidRecord> history;
+
+        DefaultAuction(Auction auction) {
+
+            List<BidRecord> records = auction.getBidHistory(0, Integer.MAX_VALUE);
+
+            this.auctionID = auction.getAuctionID();
+            this.itemDescription = auction.getItemDescription();
+            this.ownerID = auction.getOwnerID();
+            this.currentWinner = auction.getCurrentWinner();
+            this.currentBid = auction.getCurrentBid();
+            this.won = auction.isWon();
+            this.auctionClosed = auction.isAuctionClosed();
+            this.version = auction.getVersion();
+            this.changedAt = auction.getChangedAt();
+            this.endTime = auction.getEndTime();
+            this.history = new ArrayList<>(records);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * @Author Lewis Linaker
+ * @Description AuctionEvent class which describes a change to an auction sent to the clients
+ * which subscribed to it: a new highest bid, or the auction closing along with its winner.
+ * Events are written in a compact format, without the auction's description or history.
+ */
+public class AuctionEvent implements Externalizable {
+
+    private final static long serialVersionUID = 1L;
+
+    // The kinds of change an event can describe
+    public final static byte NEW_HIGH_BID = 1;
+    public final static byte CLOSED = 2;
+
+    // Private variables used to describe the change
+    private byte type;
+    private int auctionID;
+    private long version;
+    private double currentBid;
+    private String currentWinner;
+    private boolean won;
+
+    /**
+     * Creates an empty event, which is only used to read an event back with readExternal
+     */
+    public AuctionEvent() { }
+
+    /**
+     * @param type
+     * @param auctionID
+     * @param version the version of the shard's store the change was made at
+     * @param currentBid
+     * @param currentWinner
+     * @param won
+     */
+    public AuctionEvent(byte type, int auctionID, long version, double currentBid, String currentWinner, boolean won) {
+
+        this.type = type;
+        this.auctionID = auctionID;
+        this.version = version;
+        this.currentBid = currentBid;
+        this.currentWinner = currentWinner;
+        this.won = won;
+    }
+
+    /**
+     * @param version
+     * @param auction
+     * @return an event for the state the auction has just been changed to
+     */
+    public static AuctionEvent of(long version, Auction auction) {
+        return new AuctionEvent(auction.isAuctionClosed() ? CLOSED : NEW_HIGH_BID, auction.getAuctionID(), version,
+                auction.getCurrentBid(), auction.getCurrentWinner(), auction.isWon());
+    }
+
+    // get methods for the private variables
+    public byte getType() { return type; }
+    public int getAuctionID() { return auctionID; }
+    public long getVersion() { return version; }
+    public double getCurrentBid() { return currentBid; }
+    public String getCurrentWinner() { return currentWinner; }
+    public boolean isWon() { return won; }
+
+    @Override
+    public String toString() {
+
+        if (type == CLOSED) {
+            return "Auction " + auctionID + " closed, " + (won ? "won by " + currentWinner + " with " + currentBid : "with no winner");
+        }
+
+        return "Auction " + auctionID + " has a new highest bid of " + currentBid + " by " + currentWinner;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+
+        out.writeByte(type);
+        out.writeInt(auctionID);
+        out.writeLong(version);
+        out.writeDouble(currentBid);
+        out.writeBoolean(won);
+        out.writeBoolean(currentWinner != null);
+
+        if (currentWinner != null) {
+            out.writeUTF(currentWinner);
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+
+        type = in.readByte();
+        auctionID = in.readInt();
+        version = in.readLong();
+        currentBid = in.readDouble();
+        won = in.readBoolean();
+        currentWinner = in.readBoolean() ? in.readUTF() : null;
+    }
+}
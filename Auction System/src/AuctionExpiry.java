@@ -0,0 +1,180 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @Author Lewis Linaker
+ * @Description AuctionExpiry class which closes a replica's auctions once their end time has
+ * passed. Every replica keeps the end time of each of its open auctions in a HashedTimingWheel,
+ * but only the coordinator, the first replica in the view, acts on them: it multicasts an
+ * expireAuctions operation through the same ordered channel as every other operation, so every
+ * replica and front end closes the auction at the same point in the order. The replicas check
+ * the end time against the time in the operation, so they all agree on whether it has passed.
+ *
+ * An expiry which is not seen to be applied is tried again after RETRY_MILLIS, and a replica
+ * which becomes the coordinator looks for any auction which should already have been closed.
+ *
+ * The wheel is set with -Dauction.expiry.tickMs and -Dauction.expiry.ticksPerWheel.
+ */
+public class AuctionExpiry {
+
+    // The length of a tick of the wheel, the number of ticks in a turn of it, the most auctions
+    // closed in one operation, and how long to wait before trying to close an auction again
+    public final static long TICK_MILLIS = Long.getLong("auction.expiry.tickMs", 100L);
+    public final static int TICKS_PER_WHEEL = Integer.getInteger("auction.expiry.ticksPerWheel", 4096);
+    public final static int MAX_BATCH = Integer.getInteger("auction.expiry.maxBatch", 1000);
+    public final static long RETRY_MILLIS = Long.getLong("auction.expiry.retryMs", 5000L);
+
+    /**
+     * @Description Proposer interface which sends an expireAuctions operation to the shard
+     */
+    public interface Proposer {
+
+        void propose(int[] auctionIDs, long now) throws Exception;
+    }
+
+    // Private variables used to hold the deadlines and to propose expiries
+    private final AuctionStore store;
+    private final Proposer proposer;
+    private final HashedTimingWheel<Integer> wheel;
+    private volatile boolean coordinator;
+
+    /**
+     * @param name the name of the replica
+     * @param store the replica's auctions
+     * @param proposer sends an expireAuctions operation to the shard
+     */
+    public AuctionExpiry(String name, AuctionStore store, Proposer proposer) {
+
+        this.store = store;
+        this.proposer = proposer;
+        this.wheel = new HashedTimingWheel<>("AuctionExpiry-" + name, TICK_MILLIS, TICKS_PER_WHEEL, this::expired);
+    }
+
+    /**
+     * Starts the wheel
+     */
+    public void start() { wheel.start(); }
+
+    /**
+     * Adds the end time of an auction to the wheel, if it has one and is open
+     *
+     * @param auction
+     */
+    public void schedule(Auction auction) {
+
+        if (auction.getEndTime() > 0 && !auction.isAuctionClosed()) {
+            wheel.schedule(auction.getAuctionID(), auction.getEndTime());
+        }
+    }
+
+    /**
+     * Adds the end time of every open auction in the store to the wheel. Used once the
+     * store has been loaded from disk or from another replica. Auctions which are only in the
+     * snapshot are not read.
+     */
+    public void scheduleAll() {
+
+        store.forEachEndTime((auctionID, endTime, closed) -> {
+            if (endTime > 0 && !closed) {
+                wheel.schedule(auctionID, endTime);
+            }
+        });
+    }
+
+    /**
+     * Called when the view changes. A replica which has just become the coordinator
+     * closes any auctions which should already have been closed by the last one.
+     *
+     * @param isCoordinator
+     */
+    public void setCoordinator(boolean isCoordinator) {
+
+        boolean was = coordinator;
+        coordinator = isCoordinator;
+
+        if (isCoordinator && !was) {
+            new Thread(this::closeOverdue, "AuctionExpiry-takeover").start();
+        }
+    }
+
+    /**
+     * Proposes an expiry for every open auction whose end time has passed
+     */
+    private void closeOverdue() {
+
+        long now = System.currentTimeMillis();
+        List<Integer> overdue = new ArrayList<>();
+
+        store.forEachEndTime((auctionID, endTime, closed) -> {
+            if (endTime > 0 && endTime <= now && !closed) {
+                overdue.add(auctionID);
+            }
+        });
+
+        if (!overdue.isEmpty()) {
+            System.out.println("Closing " + overdue.size() + " overdue auctions");
+            propose(overdue, now);
+        }
+    }
+
+    /**
+     * Called by the wheel with the auctions whose end time has passed. Auctions which have
+     * since been closed are left out. The coordinator proposes the rest and checks them again
+     * after RETRY_MILLIS in case the operation was lost.
+     *
+     * @param auctionIDs
+     */
+    private void expired(List<Integer> auctionIDs) {
+
+        if (!coordinator) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        List<Integer> due = new ArrayList<>();
+
+        for (int auctionID : auctionIDs) {
+
+            Auction auction = store.getAuction(auctionID);
+
+            if (auction != null && !auction.isAuctionClosed() && auction.getEndTime() > 0) {
+                if (auction.getEndTime() <= now) {
+                    due.add(auctionID);
+                }
+
+                wheel.schedule(auctionID, Math.max(auction.getEndTime(), now + RETRY_MILLIS));
+            }
+        }
+
+        propose(due, now);
+    }
+
+    /**
+     * Sends the expiries in batches of at most MAX_BATCH
+     *
+     * @param auctionIDs
+     * @param now
+     */
+    private void propose(List<Integer> auctionIDs, long now) {
+
+        for (int from = 0; from < auctionIDs.size(); from += MAX_BATCH) {
+
+            int[] batch = new int[Math.min(MAX_BATCH, auctionIDs.size() - from)];
+
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = auctionIDs.get(from + i);
+            }
+
+            try {
+                proposer.propose(batch, now);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return a summary of the wheel
+     */
+    public String getStats() { return wheel.getStats() + " coordinator=" + coordinator; }
+}
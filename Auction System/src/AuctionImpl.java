@@ -1,34 +1,58 @@
 import org.jgroups.*;
-import org.jgroups.blocks.RequestOptions;
-import org.jgroups.blocks.ResponseMode;
-import org.jgroups.blocks.mux.MuxRpcDispatcher;
 import org.jgroups.util.RspList;
 
 import javax.crypto.*;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 
 import java.rmi.RemoteException;
 
 import java.security.*;
 
-import java.util.HashMap;
-import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
-public class AuctionImpl extends java.rmi.server.UnicastRemoteObject implements AuctionInterface, Receiver {
+public class AuctionImpl extends java.rmi.server.UnicastRemoteObject implements AuctionInterface {
+
+    private final static long serialVersionUID = 1L;
+
+    // The largest page of bid history and of the auction list returned by a single call
+    public final static int MAX_HISTORY_PAGE = 1000;
+    public final static int MAX_AUCTION_PAGE = 500;
+
+    // Whether reads are served from the front end's read replica (-Dauction.localReads), and how
+    // long the read replica may go without being known to be up to date (-Dauction.read.maxStaleness)
+    public final static boolean LOCAL_READS = Boolean.parseBoolean(System.getProperty("auction.localReads", "true"));
+    public final static long MAX_STALENESS_MILLIS = Long.getLong("auction.read.maxStaleness", 1000L);
+
+    // The most requests which may be waiting on the replicas at once (-Dauction.maxConcurrentRequests,
+    // 0 = no limit), and how long a request waits to be let in before it is turned away
+    public final static int MAX_CONCURRENT_REQUESTS = Integer.getInteger("auction.maxConcurrentRequests", 1000);
+    public final static long ADMISSION_WAIT_MILLIS = Long.getLong("auction.admissionWaitMs", 1000L);
+
+    // How long an auction created without an end time runs for (-Dauction.defaultDurationMs, 0 = until
+    // the owner closes it), so that abandoned auctions are closed
+    public final static long DEFAULT_DURATION_MILLIS = Long.getLong("auction.defaultDurationMs", 0L);
+
+    // How much a proxy bid raises the bidder's bid by each time they are outbid (-Dauction.proxy.increment)
+    public final static double PROXY_INCREMENT = Double.parseDouble(System.getProperty("auction.proxy.increment", "1"));
 
     /**
-     * Private variables used to implement the AuctionInterface
+     * Private variables used to implement the AuctionInterface. Each auction is owned by
+     * one shard, see ShardMap, and the front end keeps a connection to every shard.
      */
-    private JChannel channel;
-    private MuxRpcDispatcher dispatcher;
-    private HashMap<String, SecretKey> sessionKeys;
-    private HashMap<String, ServerChallenge> waitingToSolve;
-    private HashMap<String,Boolean> challengesCompleted;
-    private AtomicInteger auctionIDCounter;
+    private FrontEndShard[] shards;
+    private SessionRegistry sessions;
+    private IdAllocator idAllocator;
+    private PublicKeyStore publicKeyStore;
+    private BidPipeline bidPipeline;
+    private ConcurrencyGuard requestGuard;
+    private AuctionNotifier notifier;
 
     /**
      * @Name: AuctionImpl
@@ -36,34 +60,27 @@ public class AuctionImpl extends java.rmi.server.UnicastRemoteObject implements
      */
     public AuctionImpl() throws RemoteException {
 
-        // Variables used to keep track of sessionKeys, keys waiting to be solved, keys solved
-        // and an auctionID counter.
-        sessionKeys = new HashMap<>();
-        waitingToSolve = new HashMap<>();
-        challengesCompleted = new HashMap<>();
-        auctionIDCounter = new AtomicInteger(1);
+        // Variables used to keep track of the sessions and handshakes of the users
+        sessions = new SessionRegistry();
+        publicKeyStore = new PublicKeyStore();
+        shards = new FrontEndShard[ShardMap.SHARDS];
+        requestGuard = new ConcurrencyGuard("FrontEnd requests", MAX_CONCURRENT_REQUESTS, ADMISSION_WAIT_MILLIS);
+        bidPipeline = new BidPipeline(shards, this::verifyBid, requestGuard);
+        notifier = new AuctionNotifier();
 
-        // Try block used to setup a JChannel for the auction server
+        // Try block used to connect to every shard, then to lease auction IDs above the
+        // highest counter any shard has seen, so IDs from before leasing are not handed out again
         try {
 
-            channel = new JChannel("toa.xml");
-            channel.setReceiver(this);
-            channel.setDiscardOwnMessages(true);
-            channel.setName("FrontEnd");
-            channel.connect("AuctionServer");
-            dispatcher = new MuxRpcDispatcher((short) 1, channel, this, this, this);
-            RspList rspList = dispatcher.callRemoteMethods(null, "getIdCounter", new Object[]{}, new Class[]{}, new RequestOptions(ResponseMode.GET_FIRST, 5000));
-
-            // Checks the rsp list for the first counter available
-            if (rspList.getFirst() != null) {
-                int counter = (int) rspList.getFirst();
-
-                // if the counter is greater than 1 then it increments the counter
-                if (counter > 1) {
-                    auctionIDCounter.set(counter + 1);
-                    System.out.println("Got the counter from a replica " + (counter + 1));
-                }
+            int counter = 0;
+
+            for (int shard = 0; shard < shards.length; shard++) {
+                shards[shard] = new FrontEndShard(shard, requestGuard);
+                shards[shard].getReadReplica().setChangeListener(notifier);
+                counter = Math.max(counter, shards[shard].getIdCounter());
             }
+
+            idAllocator = new IdAllocator(shards[IdAllocator.LEASE_SHARD], counter);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -86,68 +103,85 @@ public class AuctionImpl extends java.rmi.server.UnicastRemoteObject implements
 
         // Checks to see if the user is not authenticated, if not the server will
         // ignore the request and tell the user they are not authenticated.
-        if (!sessionKeys.containsKey(userID)) {
+        SessionRegistry.Session session = sessions.getSession(userID);
+
+        if (session == null) {
             System.out.println(userID + " is not authenticated");
-            System.out.println("You are not authenticated");
+            return "You are not authenticated";
         }
 
         // Creates a session key for the auction using the user's userID
-        SecretKey sessionKey = sessionKeys.get(userID);
+        SecretKey sessionKey = session.getSessionKey();
         Auction auction = null;
 
         // try block to attempt to decrypt the session key
         try {
-            Cipher cipher = Cipher.getInstance(sessionKey.getAlgorithm());
-            cipher.init(Cipher.DECRYPT_MODE, sessionKey);
-            auction = (Auction) sealedAuction.getObject(cipher);
+            Auction sent = (Auction) SessionCipher.unseal(sealedAuction, sessionKey);
 
             // Checks to see if the auction ID is available
-            if (auction.isIdSet()) {
+            if (sent.isIdSet()) {
                 System.out.println("The auction has been tempered with, discarded");
-            } else {
-                auction.setAuctionID(auctionIDCounter.getAndAdd(1));
+                return "The auction has been tampered with and was discarded";
             }
 
-        } catch (NoSuchAlgorithmException nsa) {
-            nsa.printStackTrace();
-        } catch (NoSuchPaddingException nsp) {
-            nsp.printStackTrace();
-        } catch (InvalidKeyException ik) {
-            ik.printStackTrace();
+            // Only the fields the seller chooses are kept, owned by the authenticated user
+            auction = sent.toNewListing(userID);
+            auction.setAuctionID(idAllocator.nextId());
+
+        } catch (BadPaddingException | InvalidKeyException wrongKey) {
+            // An AES-GCM sealed object reports a failed tag check as an InvalidKeyException
+            System.out.println("Encrypted with a different key");
         } catch (ClassNotFoundException cnf) {
             cnf.printStackTrace();
-        } catch (BadPaddingException bp) {
-            System.out.println("Encrypted with a different key");
-        } catch (IllegalBlockSizeException ibs) {
-            ibs.printStackTrace();
+        } catch (GeneralSecurityException gse) {
+            gse.printStackTrace();
         } catch (IOException io) {
             io.printStackTrace();
+        } catch (IllegalStateException noIds) {
+            noIds.printStackTrace();
+            return "An error has occurred";
+        } catch (RuntimeException badAuction) {
+            // A sealed object which is not a valid auction must not reach the replicas
+            badAuction.printStackTrace();
+            return "An error has occurred";
         }
 
-        // Try block statement to generate responses from all the members
-        try {
-            RspList rspList = dispatcher.callRemoteMethods(null, "addAuction", new Object[]{auction}, new Class[]{Auction.class}, new RequestOptions(ResponseMode.GET_ALL, 5000));
-            Set<Address> addresses = rspList.keySet();
-            Boolean[] answers = new Boolean[rspList.size()];
+        if (auction == null) {
+            return "An error has occurred";
+        }
 
-            for (Address address : addresses) {
-                Boolean response = (Boolean) rspList.get(address).getValue();
-            }
+        // Checks the end time, or gives the auction the default one
+        long now = System.currentTimeMillis();
+
+        if (auction.getEndTime() == 0 && DEFAULT_DURATION_MILLIS > 0) {
+            auction.setEndTime(now + DEFAULT_DURATION_MILLIS);
+        } else if (auction.getEndTime() != 0 && auction.getEndTime() <= now) {
+            return "The end time of the auction must be in the future";
+        }
+
+        // Try block statement to generate responses from the members of the owning shard
+        try {
+            FrontEndShard shard = shardOf(auction.getAuctionID());
+            RspList<Object> rspList = shard.write("addAuction", new Object[]{auction}, new Class<?>[]{Auction.class});
 
             // Prints out log crash if the server has crashed
-            if (rspList.size() == 0) {
+            if (shard.replicaResponses(rspList) == 0) {
                 return logCrash();
             }
+
+            // The replicas turn down an auction whose ID is already held by another one
+            if (shard.replicasAnswering(rspList, Boolean.TRUE) <= shard.replicasAnswering(rspList, Boolean.FALSE)) {
+                System.out.println("Auction ID " + auction.getAuctionID() + " is already in use, the auction was not added");
+                return "An error has occurred, the auction was not added";
+            }
+        } catch (ConcurrencyGuard.BusyException busy) {
+            return ConcurrencyGuard.BUSY;
         } catch (Exception e) {
             e.printStackTrace();
+            return "An error has occurred, the auction was not added";
         }
 
-        // Checks to make sure the auction does have an id and then prints out the
-        // auction ID
-        if (auction != null) {
-            return "Successfully added an auction with ID " + auction.getAuctionID();
-        } else
-            return "An error has occurred";
+        return "Successfully added an auction with ID " + auction.getAuctionID();
     }
 
     /**
@@ -166,64 +200,30 @@ public class AuctionImpl extends java.rmi.server.UnicastRemoteObject implements
 
             // Variables used to get a list of the auctions and the owners of the current
             // corresponding auction items
-            RspList rspList = dispatcher.callRemoteMethods(null, "getAuction", new Object[]{auctionID}, new Class[]{int.class}, new RequestOptions(ResponseMode.GET_FIRST, 5000));
-            Auction a = (Auction) rspList.getFirst();
+            Auction a = (Auction) shardOf(auctionID).readAuction(auctionID, store -> store.getAuction(auctionID), "getAuction", new Object[]{auctionID}, new Class<?>[]{int.class});
             String trueOwner = a.getOwnerID();
 
             // Prints out who the owner of the auction is
             System.out.println("Trying to close " + auctionID + " , the true owner is " + trueOwner);
-            System.out.println("Trying to get the session key of the user with ID " + trueOwner + " \n " + sessionKeys.keySet());
+            System.out.println("Trying to get the session key of the user with ID " + trueOwner + " \n " + sessions.getSessionIDs());
 
             // Checks the public key of the owner and checks it against the person
             // trying to close the auction
-            PublicKey trueOwnerPublicKey = GenerateKeys.getPublicKey(trueOwner);
-            Signature signature = Signature.getInstance("SHA1withRSA");
+            PublicKey trueOwnerPublicKey = publicKeyStore.getPublicKey(trueOwner);
+            Signature signature = CryptoPool.signature(CryptoPool.SIGNATURE_ALGORITHM);
             signature.initVerify(trueOwnerPublicKey);
             boolean isTheRequesterTheOwner = signedID.verify(trueOwnerPublicKey, signature);
             String requesterID = (String)signedID.getObject();
 
             // Checks to see if the current user is not authenticated on the server
-            if (!challengesCompleted.containsKey(requesterID)) {
+            if (!sessions.isAuthenticated(requesterID)) {
                 System.out.println("handshake uncompleted, not authenticated");
-            } else {
-                // Checks to see if the user has not completed the required challenges
-                if(!challengesCompleted.get(requesterID)){
-                    System.out.println("You have not completed the required challenge");
-                }
             }
 
             // Allows the auction to be closed if the user is the owner of the auction
             if (isTheRequesterTheOwner) {
                 System.out.println("You are the true owner, auction closed " + a.getItemDescription());
-                RspList responseList = dispatcher.callRemoteMethods(null, "closeAuction", new Object[]{requesterID, auctionID}, new Class[]{String.class, int.class}, new RequestOptions(ResponseMode.GET_ALL, 5000));
-
-                // Checks to see if the server has crashed
-                if (rspList.size() == 0) {
-                    return logCrash();
-                }
-
-                HashMap<String, Integer> majority = new HashMap<>();
-                Set<Address> addresses = responseList.keySet();
-
-                for (Address address : addresses) {
-                    String response = (String) responseList.get(address).getValue();
-
-                    if (majority.containsKey(response))
-                        majority.put(response, majority.get(response) + 1);
-                    else
-                        majority.put(response, 1);
-                }
-
-                String majorityResponse = "";
-                int maxShowUps = 0;
-
-                for (String s : majority.keySet()) {
-                    if (majority.get(s) > maxShowUps) {
-                        maxShowUps = majority.get(s);
-                        majorityResponse = s;
-                    }
-                }
-                return majorityResponse;
+                return forwardCloseAuction(requesterID, auctionID);
 
             } else {
                 System.out.println("The user is not the owner");
@@ -232,6 +232,8 @@ public class AuctionImpl extends java.rmi.server.UnicastRemoteObject implements
 
         } catch (BadPaddingException bp) {
             return "You are not authenticated";
+        } catch (ConcurrencyGuard.BusyException busy) {
+            return ConcurrencyGuard.BUSY;
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -240,85 +242,349 @@ public class AuctionImpl extends java.rmi.server.UnicastRemoteObject implements
     }
 
     /**
-     * Method used to allow the Buyer Client to bid on active items
+     * Method used to allow the Buyer Client to bid on active items. A single bid
+     * is sent as a batch of one.
      *
      * @param auctionDetails
      */
     @Override
     public String bid(SignedObject auctionDetails) throws RemoteException {
+        return bidBatch(new SignedObject[]{auctionDetails})[0];
+    }
+
+    /**
+     * Method used to allow the Buyer Client to place a batch of bids at once. The bids go
+     * through the BidPipeline: each is verified on the pipeline's workers and the verified
+     * bids are multicast to the replicas with the bids of other clients, with a majority
+     * response worked out for each bid. The RMI thread only waits for the responses.
+     *
+     * @param bids
+     * @return a response for each bid, in the same order as the bids
+     * @throws RemoteException
+     */
+    @Override
+    public String[] bidBatch(SignedObject[] bids) throws RemoteException { return await(bidPipeline.submit(bids), bids.length); }
+
+    /**
+     * Method used to verify a signed bid, run on the BidPipeline's workers
+     *
+     * @param signedBid
+     * @return the bid, or a rejected bid if it failed verification
+     */
+    private BidPipeline.Bid verifyBid(SignedObject signedBid) {
 
         try {
 
             // variables used to get the details about a given auction object
-            Object[] details = (Object[]) auctionDetails.getObject();
+            Object[] details = (Object[]) signedBid.getObject();
             String userID = (String) details[0];
             int auctionID = (int) details[1];
             double amount = (double) details[2];
 
             // Checks weather or not the user has completed the authentication handshake
-            if (!challengesCompleted.containsKey(userID)) {
+            if (!sessions.isAuthenticated(userID)) {
                 System.out.println("handshake not completed, user is not authenticated");
-            } else {
-
-                if(!challengesCompleted.get(userID)){
-                    System.out.println("You have not yet completed the associated handshake");
-                }
             }
 
             System.out.println("Trying to bid " + amount + " on " + auctionID + " by " + userID);
 
             // Checks weather or not the user is authenticated using the users public key
-            PublicKey requesterPublicKey = GenerateKeys.getPublicKey(userID);
-            Signature signature = Signature.getInstance("SHA1withRSA");
+            PublicKey requesterPublicKey = publicKeyStore.getPublicKey(userID);
+            Signature signature = CryptoPool.signature(CryptoPool.SIGNATURE_ALGORITHM);
             signature.initVerify(requesterPublicKey);
-            boolean isTheRequesterVerified = auctionDetails.verify(requesterPublicKey, signature);
+            boolean isTheRequesterVerified = signedBid.verify(requesterPublicKey, signature);
 
-            // Checks to see if the request is not verified with the correct public key
+            // Bids which are not verified with the correct public key are not sent to the replicas
             if (!isTheRequesterVerified) {
                 System.out.println("Bid unsuccessful, wrong public key");
+                return BidPipeline.Bid.rejected("Bid unsuccessful, wrong public key");
             }
 
-            RspList responseList = dispatcher.callRemoteMethods(null, "bid", new Object[]{auctionID, amount, userID}, new Class[]{int.class, double.class, String.class}, new RequestOptions(ResponseMode.GET_ALL, 5000));
+            return new BidPipeline.Bid(auctionID, amount, userID);
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            return BidPipeline.Bid.rejected("Bidding unsuccessful, badly formatted request");
+        }
+    }
+
+    /**
+     * Method used to wait for the responses to bids in the BidPipeline
+     *
+     * @param responses
+     * @param bids
+     * @return a response for each bid
+     */
+    private String[] await(CompletableFuture<String[]> responses, int bids) {
+
+        try {
+            return responses.join();
+        } catch (CompletionException e) {
+            e.printStackTrace();
+        }
+
+        String[] failed = new String[bids];
+        Arrays.fill(failed, "Bidding unsuccessful, badly formatted request");
+
+        return failed;
+    }
+
+    /**
+     * Method used to allow a user who has completed the handshake to bid without signing
+     * the bid. The bid is authenticated with a MAC under the user's session key and
+     * carries a sequence number so that it cannot be replayed.
+     *
+     * @param userID
+     * @param sequence
+     * @param auctionID
+     * @param amount
+     * @param mac
+     * @return response
+     * @throws RemoteException
+     */
+    @Override
+    public String bidWithMac(String userID, long sequence, int auctionID, double amount, byte[] mac) throws RemoteException {
+
+        // Checks the bid was made with the user's session key and has not been seen before
+        String rejection = checkSessionRequest(userID, sequence, SessionMac.BID, auctionID, amount, mac);
+
+        if (rejection != null) {
+            return rejection;
+        }
+
+        System.out.println("Trying to bid " + amount + " on " + auctionID + " by " + userID);
+
+        return await(bidPipeline.forward(Collections.singletonList(new BidPipeline.Bid(auctionID, amount, userID))), 1)[0];
+    }
+
+    /**
+     * Method used to allow the Buyer Client to leave a proxy bid, which the replicas place
+     * for the bidder up to the maximum, raising it by PROXY_INCREMENT whenever the bidder is
+     * outbid. The request is signed as a bid is, with the maximum in place of the amount.
+     *
+     * @param proxyDetails
+     * @return response
+     * @throws RemoteException
+     */
+    @Override
+    public String proxyBid(SignedObject proxyDetails) throws RemoteException {
+
+        BidPipeline.Bid proxy = verifyBid(proxyDetails);
+
+        // A proxy bid which failed verification already has its response
+        if (proxy.getResponse().isDone()) {
+            return proxy.getResponse().join();
+        }
+
+        return forwardProxyBid(proxy.getBidderID(), proxy.getAuctionID(), proxy.getAmount());
+    }
+
+    /**
+     * Method used to allow a user who has completed the handshake to leave a proxy bid
+     * authenticated with a MAC under the user's session key
+     *
+     * @param userID
+     * @param sequence
+     * @param auctionID
+     * @param maximum
+     * @param mac
+     * @return response
+     * @throws RemoteException
+     */
+    @Override
+    public String proxyBidWithMac(String userID, long sequence, int auctionID, double maximum, byte[] mac) throws RemoteException {
+
+        // Checks the request was made with the user's session key and has not been seen before
+        String rejection = checkSessionRequest(userID, sequence, SessionMac.PROXY_BID, auctionID, maximum, mac);
+
+        if (rejection != null) {
+            return rejection;
+        }
 
-            // Returns log crash if response from dispatcher is unsuccessful
-            if (responseList.size() == 0) {
+        return forwardProxyBid(userID, auctionID, maximum);
+    }
+
+    /**
+     * Method used to send a proxy bid to the replicas of the owning shard and work out the
+     * majority response of the replicas. The front end chooses the increment and the time
+     * so that every replica resolves the proxy bids the same way.
+     *
+     * @param bidderID
+     * @param auctionID
+     * @param maximum
+     * @return majorityResponse
+     */
+    private String forwardProxyBid(String bidderID, int auctionID, double maximum) {
+
+        System.out.println("Trying to leave a proxy bid of up to " + maximum + " on " + auctionID + " by " + bidderID);
+
+        try {
+            FrontEndShard shard = shardOf(auctionID);
+            RspList<Object> responseList = shard.write("proxyBid", new Object[]{auctionID, maximum, PROXY_INCREMENT, bidderID, System.currentTimeMillis()},
+                    new Class<?>[]{int.class, double.class, double.class, String.class, long.class});
+
+            // Checks to see if the server has crashed
+            if (shard.replicaResponses(responseList) == 0) {
                 return logCrash();
             }
 
-            // Holds the Servers responses
-            HashMap<String, Integer> majority = new HashMap<>();
-            Set<Address> addresses = responseList.keySet();
+            return shard.majority(responseList, -1);
 
-            for (Address address : addresses) {
-                String response = (String) responseList.get(address).getValue();
+        } catch (ConcurrencyGuard.BusyException busy) {
+            return ConcurrencyGuard.BUSY;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
 
-                if (majority.containsKey(response)) {
-                    majority.put(response, majority.get(response) + 1);
-                } else
-                    majority.put(response, 1);
-            }
+        return "Unexpected Error has occurred";
+    }
+
+    /**
+     * Method used to allow a user who has completed the handshake to close their auction
+     * without signing the request. The request is authenticated with a MAC under the user's
+     * session key and carries a sequence number so that it cannot be replayed.
+     *
+     * @param userID
+     * @param sequence
+     * @param auctionID
+     * @param mac
+     * @return response
+     * @throws RemoteException
+     */
+    @Override
+    public String closeAuctionWithMac(String userID, long sequence, int auctionID, byte[] mac) throws RemoteException {
 
-            String majorityResponse = "";
-            int maxShowUps = 0;
+        // Checks the request was made with the user's session key and has not been seen before
+        String rejection = checkSessionRequest(userID, sequence, SessionMac.CLOSE_AUCTION, auctionID, 0, mac);
 
-            for (String s : majority.keySet()) {
+        if (rejection != null) {
+            return rejection;
+        }
 
-                if (majority.get(s) > maxShowUps) {
-                    maxShowUps = majority.get(s);
-                    System.out.println("resp :" + s);
-                    majorityResponse = s;
-                }
+        try {
+
+            // Gets the auction to find out who the owner of the auction is
+            Auction a = (Auction) shardOf(auctionID).readAuction(auctionID, store -> store.getAuction(auctionID), "getAuction", new Object[]{auctionID}, new Class<?>[]{int.class});
+
+            if (a == null) {
+                return "No such auction exists";
             }
 
-            return majorityResponse;
+            // The MAC proves who the requester is, so the requester only has to be the owner
+            if (!userID.equals(a.getOwnerID())) {
+                System.out.println("The user is not the owner");
+                return "You are not the owner of this auction";
+            }
 
-        } catch (BadPaddingException bp) {
-            System.out.println("Stop trying to user spoof, not going work");
+            System.out.println("You are the true owner, auction closed " + a.getItemDescription());
+
+            return forwardCloseAuction(userID, auctionID);
+
+        } catch (ConcurrencyGuard.BusyException busy) {
+            return ConcurrencyGuard.BUSY;
         } catch (Exception e) {
             e.printStackTrace();
         }
 
-        return "Bidding unsuccessful, badly formatted request";
+        return "Unexpected Error has occurred";
+    }
+
+    /**
+     * Method used to check a request authenticated with a session key MAC
+     *
+     * @param userID
+     * @param sequence
+     * @param operation
+     * @param auctionID
+     * @param amount
+     * @param mac
+     * @return null if the request is accepted, or the reason it was rejected
+     */
+    private String checkSessionRequest(String userID, long sequence, String operation, int auctionID, double amount, byte[] mac) {
+
+        SessionRegistry.Session session = sessions.getSession(userID);
+
+        // Checks to see if the user has completed the handshake
+        if (session == null) {
+            System.out.println(userID + " is not authenticated");
+            return "You are not authenticated";
+        }
+
+        if (!SessionMac.verify(session.getSessionKey(), mac, userID, sequence, operation, auctionID, amount)) {
+            System.out.println("Stop trying to user spoof, not going work");
+            return "You are not authenticated";
+        }
+
+        // Only checks the sequence number once the MAC is known to be good, so that a forged
+        // request cannot use up a sequence number
+        if (!session.getReplayWindow().accept(sequence)) {
+            System.out.println("Replayed request " + sequence + " from " + userID + " discarded");
+            return "Request has already been processed";
+        }
+
+        return null;
+    }
+
+    /**
+     * Method used to send a close request to the replicas of the owning shard and work out
+     * the majority response of the replicas
+     *
+     * @param requesterID
+     * @param auctionID
+     * @return majorityResponse
+     * @throws Exception
+     */
+    private String forwardCloseAuction(String requesterID, int auctionID) throws Exception {
+
+        FrontEndShard shard = shardOf(auctionID);
+        RspList<Object> responseList = shard.write("closeAuction", new Object[]{requesterID, auctionID}, new Class<?>[]{String.class, int.class});
+
+        // Checks to see if the server has crashed
+        if (shard.replicaResponses(responseList) == 0) {
+            return logCrash();
+        }
+
+        return shard.majority(responseList, -1);
+    }
+
+    /**
+     * @param auctionID
+     * @return the shard which owns the auction
+     */
+    private FrontEndShard shardOf(int auctionID) { return shards[ShardMap.shardOf(auctionID)]; }
+
+    /**
+     * Method used to allow a client to be told about changes to auctions as they happen,
+     * rather than polling the auction list. The client exports the listener, and is sent
+     * an event whenever an auction it subscribed to has a new highest bid or is closed.
+     *
+     * @param listener
+     * @param auctionIDs the auctions to be told about, or null or empty for every auction
+     * @return response
+     * @throws RemoteException
+     */
+    @Override
+    public String subscribe(AuctionListener listener, int[] auctionIDs) throws RemoteException {
+
+        if (listener == null) {
+            return "No listener given";
+        }
+
+        notifier.subscribe(listener, auctionIDs);
+
+        return auctionIDs == null || auctionIDs.length == 0 ? "Watching every auction" : "Watching auctions " + Arrays.toString(auctionIDs);
+    }
+
+    /**
+     * Method used to stop a client's listener being told about changes to auctions
+     *
+     * @param listener
+     * @return response
+     * @throws RemoteException
+     */
+    @Override
+    public String unsubscribe(AuctionListener listener) throws RemoteException {
+        return notifier.unsubscribe(listener) ? "Stopped watching auctions" : "You are not watching any auctions";
     }
 
     /**
@@ -329,22 +595,149 @@ public class AuctionImpl extends java.rmi.server.UnicastRemoteObject implements
     @Override
     public String getAuctions() throws RemoteException {
 
-        RspList rspList = null;
+        String a = null;
 
-        // Try block to try and get a list of all the current auction items
+        // Try block to try and get a list of all the current auction items. With more than one
+        // shard the list is built a page at a time, so the auctions stay in order of their ID.
         try {
-            rspList = dispatcher.callRemoteMethods(null, "getAuctionList", new Object[]{}, new Class[]{}, new RequestOptions(ResponseMode.GET_FIRST, 5000));
+            if (shards.length == 1) {
+                a = (String) shards[0].read(store -> store.getAuctionList(), "getAuctionList", new Object[]{}, new Class<?>[]{});
+            } else {
+                StringBuilder list = new StringBuilder(AuctionSummary.TABLE_HEADER);
+                AuctionPage page = new AuctionPage(new ArrayList<>(), AuctionPage.FIRST_PAGE, true);
+
+                while (page.hasMore()) {
+                    page = getAuctionPage(page.getNextCursor(), MAX_AUCTION_PAGE, false, null);
+
+                    for (AuctionSummary summary : page.getAuctions()) {
+                        list.append(summary.toTableRow());
+                    }
+                }
+
+                a = list.toString();
+            }
+        } catch (ConcurrencyGuard.BusyException busy) {
+            a = ConcurrencyGuard.BUSY;
         } catch (Exception e) {
             e.printStackTrace();
         }
-        String a = (String) rspList.getFirst();
 
         return a;
     }
 
     /**
-     * Method used to decrypt a challenge sent by the server and then send
-     * a challenge for the server to solve.
+     * Method used to get a page of the auction list, in order of auction ID
+     *
+     * @param afterAuctionID
+     * @param pageSize
+     * @param openOnly
+     * @param ownerID
+     * @return page or null if the replicas could not be reached
+     * @throws RemoteException
+     */
+    @Override
+    public AuctionPage getAuctionPage(int afterAuctionID, int pageSize, boolean openOnly, String ownerID) throws RemoteException {
+
+        // Limits the size of a single page
+        int size = Math.max(1, Math.min(pageSize, MAX_AUCTION_PAGE));
+
+        try {
+            // Asks every shard for a page after the same cursor
+            List<AuctionPage> pages = new ArrayList<>();
+
+            for (FrontEndShard shard : shards) {
+                pages.add((AuctionPage) shard.read(store -> store.getAuctionPage(afterAuctionID, size, openOnly, ownerID), "getAuctionPage",
+                        new Object[]{afterAuctionID, size, openOnly, ownerID}, new Class<?>[]{int.class, int.class, boolean.class, String.class}));
+            }
+
+            return mergePages(pages, afterAuctionID, size);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    /**
+     * Method used to merge a page from every shard into a single page. Every shard has
+     * looked at all of its auctions up to the lowest cursor of the shards which have more,
+     * so only the auctions up to that cursor can be listed without missing any.
+     *
+     * @param pages
+     * @param afterAuctionID
+     * @param size
+     * @return page
+     */
+    private AuctionPage mergePages(List<AuctionPage> pages, int afterAuctionID, int size) {
+
+        if (pages.size() == 1) {
+            return pages.get(0);
+        }
+
+        int bound = Integer.MAX_VALUE;
+        int furthest = afterAuctionID;
+        boolean more = false;
+        List<AuctionSummary> auctions = new ArrayList<>();
+
+        for (AuctionPage page : pages) {
+
+            if (page == null) {
+                return null;
+            }
+
+            if (page.hasMore()) {
+                bound = Math.min(bound, page.getNextCursor());
+                more = true;
+            }
+
+            furthest = Math.max(furthest, page.getNextCursor());
+            auctions.addAll(page.getAuctions());
+        }
+
+        int limit = bound;
+        auctions.removeIf(summary -> summary.getAuctionID() > limit);
+        auctions.sort(Comparator.comparingInt(AuctionSummary::getAuctionID));
+
+        if (auctions.size() > size) {
+            List<AuctionSummary> full = new ArrayList<>(auctions.subList(0, size));
+            return new AuctionPage(full, full.get(size - 1).getAuctionID(), true);
+        }
+
+        return new AuctionPage(auctions, more ? bound : furthest, more);
+    }
+
+    /**
+     * Method used to get a page of the bid history of an auction, starting at the
+     * bid with the given sequence number
+     *
+     * @param auctionID
+     * @param fromSequence
+     * @param maxRecords
+     * @return records or null if there is no such auction
+     * @throws RemoteException
+     */
+    @Override
+    public List<BidRecord> getBidHistory(int auctionID, long fromSequence, int maxRecords) throws RemoteException {
+
+        // Limits the size of a single page
+        int pageSize = Math.max(0, Math.min(maxRecords, MAX_HISTORY_PAGE));
+
+        try {
+            @SuppressWarnings("unchecked")
+            List<BidRecord> page = (List<BidRecord>) shardOf(auctionID).readAuction(auctionID, store -> store.getBidHistory(auctionID, fromSequence, pageSize), "getBidHistory",
+                    new Object[]{auctionID, fromSequence, pageSize}, new Class<?>[]{int.class, long.class, int.class});
+
+            return page;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    /**
+     * Method used by clients which do not offer a cipher for the session. They
+     * are turned away, as there is no cipher to fall back to.
      *
      * @param ID
      * @param challenge
@@ -353,9 +746,25 @@ public class AuctionImpl extends java.rmi.server.UnicastRemoteObject implements
      */
     @Override
     public SealedObject challengeServer(String ID, SealedObject challenge) throws RemoteException {
+        return challengeServer(ID, challenge, null);
+    }
+
+    /**
+     * Method used to decrypt a challenge sent by the server and then send
+     * a challenge for the server to solve. The session key is made for the
+     * most preferred cipher the client supports.
+     *
+     * @param ID
+     * @param challenge
+     * @param supportedCiphers
+     * @return response
+     * @throws RemoteException
+     */
+    @Override
+    public SealedObject challengeServer(String ID, SealedObject challenge, String[] supportedCiphers) throws RemoteException {
 
         // Used to get the public key of the user ID
-        PublicKey challengerPublicKey = GenerateKeys.getPublicKey(ID);
+        PublicKey challengerPublicKey = publicKeyStore.getPublicKey(ID);
 
         // If statement in case the public key does not exist
         if (challengerPublicKey == null) {
@@ -371,7 +780,7 @@ public class AuctionImpl extends java.rmi.server.UnicastRemoteObject implements
         // Attempts to solve the challenge sent by the server, if successful then it prints the
         // answer, if not prints out an error message saying the decryption has failed.
         try {
-            Cipher decryptCipher = Cipher.getInstance(AuctionServer.serverPrivateKey.getAlgorithm());
+            Cipher decryptCipher = CryptoPool.cipher(AuctionServer.serverPrivateKey.getAlgorithm());
             decryptCipher.init(Cipher.DECRYPT_MODE, AuctionServer.serverPrivateKey);
             answerToChallenge = (String) challenge.getObject(decryptCipher);
             System.out.println(answerToChallenge);
@@ -382,15 +791,23 @@ public class AuctionImpl extends java.rmi.server.UnicastRemoteObject implements
             return null;
         }
 
+        // Turns away clients which offer no supported cipher rather than falling back to a weaker one
+        String cipher = SessionCipher.negotiate(supportedCiphers);
+
+        if (cipher == null) {
+            System.err.println(ID + " offered no supported session cipher");
+
+            return null;
+        }
+
         // stores solved challenges and challenges that needs to be completed
-        ServerChallenge serverChallenge = new ServerChallenge(answerToChallenge);
-        waitingToSolve.put(ID, serverChallenge);
-        challengesCompleted.put(ID,false);
+        ServerChallenge serverChallenge = new ServerChallenge(answerToChallenge, cipher);
+        sessions.startHandshake(ID, serverChallenge);
 
         // Creates a response with the answer to the challenge, a challenge to send back and a session ID.
         SealedObject response = null;
         try {
-            Cipher encryptCipher = Cipher.getInstance(challengerPublicKey.getAlgorithm());
+            Cipher encryptCipher = CryptoPool.cipher(challengerPublicKey.getAlgorithm());
             encryptCipher.init(Cipher.ENCRYPT_MODE, challengerPublicKey);
             response = new SealedObject(serverChallenge, encryptCipher);
 
@@ -413,7 +830,7 @@ public class AuctionImpl extends java.rmi.server.UnicastRemoteObject implements
     public boolean answerChallenge(String iD, SealedObject response) throws RemoteException {
 
         // gets the current server challenge that needs to be solved
-        ServerChallenge serverChallenge = waitingToSolve.get(iD);
+        ServerChallenge serverChallenge = sessions.getPendingChallenge(iD);
 
         // Checks to see if the challenge exits
         if (serverChallenge == null) {
@@ -424,18 +841,14 @@ public class AuctionImpl extends java.rmi.server.UnicastRemoteObject implements
         // try block which attempts to decrypt the server challenge and to get the session
         // key, before storing a response to send back to the server.
         try {
-            Cipher decryptCipher = Cipher.getInstance(serverChallenge.getSessionKey().getAlgorithm());
-            decryptCipher.init(Cipher.DECRYPT_MODE, serverChallenge.getSessionKey());
-            String answer = (String) response.getObject(decryptCipher);
+            String answer = (String) SessionCipher.unseal(response, serverChallenge.getSessionKey());
 
             // if both the server's and client's challenge are successfully resolved, it confirms the
             // client's identity
             if (answer.equals(serverChallenge.getClientChallenge())) {
 
                 System.out.println("Client's identity confirmed");
-                challengesCompleted.put(iD,true);
-                sessionKeys.put(iD, serverChallenge.getSessionKey());
-                waitingToSolve.remove(iD);
+                sessions.completeHandshake(iD, serverChallenge);
 
                 return true;
             }
@@ -456,34 +869,26 @@ public class AuctionImpl extends java.rmi.server.UnicastRemoteObject implements
     public void p(String msg) { System.out.println("AuctionImpl : " + msg); }
 
     /**
-     * Prints out a table view
-     * @param view
-     */
-    @Override
-    public void viewAccepted(View view) { System.out.println(view); }
-
-    /**
-     * Log crash message when the server is down
+     * @return a summary of the front end's key cache, session and read metrics
      */
-    public String logCrash() { return "AuctionServer is down!"; }
+    public String getStats() {
 
+        StringBuilder stats = new StringBuilder(publicKeyStore.getStats() + "\n" + sessions.getStats());
 
-   @Override
-    public void suspect(Address address) { }
-
-   @Override
-   public void block() { }
-
-   @Override
-   public void unblock() { }
+        for (FrontEndShard shard : shards) {
+            stats.append("\n").append(shard.getStats());
+        }
 
-  @Override
-   public void receive(Message message) { }
+        stats.append("\n").append(bidPipeline.getStats());
+        stats.append("\n").append(requestGuard.getStats());
+        stats.append("\n").append(idAllocator.getStats());
+        stats.append("\n").append(notifier.getStats());
 
-   @Override
-    public void getState(OutputStream outputStream) throws Exception { }
+        return stats.toString();
+    }
 
-    @Override
-    public void setState(InputStream inputStream) throws Exception { }
+    /**
+     * Log crash message when the server is down
+     */
+    public static String logCrash() { return "AuctionServer is down!"; }
 }
-
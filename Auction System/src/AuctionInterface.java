@@ -1,6 +1,7 @@
 import javax.crypto.SealedObject;
 import java.rmi.RemoteException;
 import java.security.SignedObject;
+import java.util.List;
 
 /**
  * @Description: An auction interface which is used to implement a dependable auction program
@@ -16,18 +17,48 @@ public interface AuctionInterface extends java.rmi.Remote {
     public String closeAuction(SignedObject signedRequesterId, int auctionId) throws RemoteException;
 
     /**
-     * Interface to be used by the Buyer Client. This is used to
-     * allow a bidding client to bid on an auction.
+     * Interfaces to be used by the Buyer Client. These are used to
+     * allow a bidding client to bid on an auction, either one bid at
+     * a time or as a batch of bids with a response for each bid.
      */
     public String bid(SignedObject bidDetails) throws java.rmi.RemoteException;
+    public String[] bidBatch(SignedObject[] bids) throws RemoteException;
+
+    /**
+     * Interfaces to be used by the Buyer Client to leave a proxy bid, which the
+     * server places for the buyer up to a maximum whenever they are outbid.
+     */
+    public String proxyBid(SignedObject proxyDetails) throws RemoteException;
+    public String proxyBidWithMac(String userID, long sequence, int auctionID, double maximum, byte[] mac) throws RemoteException;
+
+    /**
+     * Interfaces to be used by clients which have completed the handshake. These
+     * authenticate a bid or a close request with a MAC under the session key
+     * instead of a signature, and take a sequence number to stop replays.
+     */
+    public String bidWithMac(String userID, long sequence, int auctionID, double amount, byte[] mac) throws RemoteException;
+    public String closeAuctionWithMac(String userID, long sequence, int auctionID, byte[] mac) throws RemoteException;
 
     /**
      * Interfaces to be used by both the Seller and BuyerClient.
-     * These contain a list of all the auctions. Also allows both
+     * These contain a list of all the auctions, which can also be read
+     * a page at a time with filters, and the bid history of an auction,
+     * read a page at a time. Also allows both
      * clients to send and receive a challenge to and from the server.
      */
     public String getAuctions() throws RemoteException;
+    public AuctionPage getAuctionPage(int afterAuctionID, int pageSize, boolean openOnly, String ownerID) throws RemoteException;
+    public List<BidRecord> getBidHistory(int auctionID, long fromSequence, int maxRecords) throws RemoteException;
     public SealedObject challengeServer(String id, SealedObject challenge) throws RemoteException;
+    public SealedObject challengeServer(String id, SealedObject challenge, String[] supportedCiphers) throws RemoteException;
     public boolean answerChallenge(String id, SealedObject response) throws RemoteException;
 
+    /**
+     * Interfaces to be used by both clients to be told about new highest bids and closed
+     * auctions as they happen, through a listener exported by the client, instead of
+     * polling the auction list.
+     */
+    public String subscribe(AuctionListener listener, int[] auctionIDs) throws RemoteException;
+    public String unsubscribe(AuctionListener listener) throws RemoteException;
+
 }
@@ -0,0 +1,18 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * @Author Lewis Linaker
+ * @Description AuctionListener interface which is exported by a client to be told about changes
+ * to the auctions it subscribed to, instead of polling the auction list. The events of an
+ * auction are sent in the order they happened, but a client which is slow to take them may
+ * only be sent the latest event of each auction.
+ */
+public interface AuctionListener extends Remote {
+
+    /**
+     * @param events the latest change to each auction since the last call, at most one per auction
+     * @throws RemoteException
+     */
+    public void auctionChanged(AuctionEvent[] events) throws RemoteException;
+}
@@ -0,0 +1,267 @@
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author Lewis Linaker
+ * @Description AuctionNotifier class which pushes changes to the auctions out to the clients
+ * which subscribed to them. It listens to the front end's read replicas, so the events come
+ * from the same ordered stream of operations the replicas apply, whichever front end the
+ * operation was sent through.
+ *
+ * Each subscriber has its events sent by one sender at a time. Events which arrive while a
+ * subscriber is still taking the last ones wait, and a newer event for the same auction
+ * replaces the waiting one, so a slow subscriber is sent at most one event per auction and
+ * never holds up the replicas or the other subscribers.
+ *
+ * The callback itself is made on a thread of its own, and a sender only waits
+ * -Dauction.notify.timeoutMs for it, so a client which stops reading cannot hold a sender. A
+ * failed or timed out notification is tried again after -Dauction.notify.retryMs, doubling
+ * with each failure, and a subscriber which fails -Dauction.notify.maxFailures times in a row
+ * is dropped. A callback still running from an earlier try counts as another failure, so a
+ * subscriber never has more than one callback in flight.
+ */
+public class AuctionNotifier implements AuctionStore.ChangeListener {
+
+    // The number of threads which send events (-Dauction.notify.threads), how many failed
+    // sends in a row drop a subscriber, how long a sender waits for a callback, and how long
+    // it waits before the first try again
+    public final static int SENDERS = Integer.getInteger("auction.notify.threads", 4);
+    public final static int MAX_FAILURES = Integer.getInteger("auction.notify.maxFailures", 3);
+    public final static long CALLBACK_TIMEOUT_MILLIS = Long.getLong("auction.notify.timeoutMs", 5000L);
+    public final static long RETRY_MILLIS = Long.getLong("auction.notify.retryMs", 500L);
+
+    // Starts the senders again once a subscriber's wait before its next try is over
+    private final static ScheduledExecutorService RETRIES = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "AuctionNotifier-retries");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Private variables used to hold the subscribers and count the events
+    private final ConcurrentHashMap<AuctionListener, Subscriber> subscribers = new ConcurrentHashMap<>();
+    private final ExecutorService senders = RequestThreads.newExecutor("AuctionNotifier-sender", SENDERS);
+    private final ExecutorService callbacks = newCallbackExecutor();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Subscribes a listener to changes to some auctions, replacing any subscription it had
+     *
+     * @param listener
+     * @param auctionIDs the auctions to be told about, or null or empty for every auction
+     */
+    public void subscribe(AuctionListener listener, int[] auctionIDs) {
+
+        Set<Integer> ids = null;
+
+        if (auctionIDs != null && auctionIDs.length > 0) {
+            ids = new HashSet<>();
+
+            for (int auctionID : auctionIDs) {
+                ids.add(auctionID);
+            }
+        }
+
+        subscribers.put(listener, new Subscriber(listener, ids));
+    }
+
+    /**
+     * @param listener
+     * @return true if the listener was subscribed
+     */
+    public boolean unsubscribe(AuctionListener listener) { return subscribers.remove(listener) != null; }
+
+    /**
+     * Called by a read replica, under the auction's lock, when an operation changes the
+     * highest bid of an auction or closes it. Only queues the event, so it does not slow
+     * down the delivery of operations.
+     *
+     * @param version
+     * @param auction
+     */
+    @Override
+    public void changed(long version, Auction auction) {
+
+        if (subscribers.isEmpty()) {
+            return;
+        }
+
+        AuctionEvent event = AuctionEvent.of(version, auction);
+        published.incrementAndGet();
+
+        for (Subscriber subscriber : subscribers.values()) {
+            if (subscriber.wants(event.getAuctionID())) {
+                subscriber.offer(event);
+            }
+        }
+    }
+
+    /**
+     * @return a summary of the notification metrics
+     */
+    public String getStats() {
+        return "notifier subscribers=" + subscribers.size() + " events=" + published.get() + " sent=" + sent.get()
+                + " coalesced=" + coalesced.get() + " dropped=" + dropped.get();
+    }
+
+    /**
+     * A subscribed listener and the events waiting to be sent to it
+     */
+    private class Subscriber {
+
+        private final AuctionListener listener;
+        private final Set<Integer> auctionIDs;
+        private final LinkedHashMap<Integer, AuctionEvent> pending = new LinkedHashMap<>();
+        private boolean sending;
+        private int failures;
+        private Future<?> callback;
+
+        Subscriber(AuctionListener listener, Set<Integer> auctionIDs) {
+            this.listener = listener;
+            this.auctionIDs = auctionIDs;
+        }
+
+        boolean wants(int auctionID) { return auctionIDs == null || auctionIDs.contains(auctionID); }
+
+        /**
+         * Queues an event, replacing any event of the same auction still waiting, and
+         * starts a sender if one is not already sending to the subscriber
+         *
+         * @param event
+         */
+        synchronized void offer(AuctionEvent event) {
+
+            if (pending.put(event.getAuctionID(), event) != null) {
+                coalesced.incrementAndGet();
+            }
+
+            if (!sending) {
+                sending = true;
+                senders.execute(this::send);
+            }
+        }
+
+        /**
+         * Sends the waiting events until there are none left. After a failure the sender
+         * stops, leaving sending set so that no other sender starts, and a retry is scheduled
+         * once the back off is over. sending is always cleared if the sender stops any other
+         * way, so an unexpected error cannot leave the subscriber without a sender.
+         */
+        private void send() {
+
+            boolean handedOver = false;
+
+            try {
+                while (true) {
+
+                    AuctionEvent[] events;
+
+                    synchronized (this) {
+                        if (pending.isEmpty() || subscribers.get(listener) != this) {
+                            pending.clear();
+                            sending = false;
+                            handedOver = true;
+                            return;
+                        }
+
+                        events = pending.values().toArray(new AuctionEvent[0]);
+                        pending.clear();
+                    }
+
+                    try {
+                        deliver(events);
+                        sent.addAndGet(events.length);
+                        failures = 0;
+                    } catch (Exception e) {
+
+                        // The events are sent again with the next try, unless a newer one has replaced them
+                        synchronized (this) {
+                            for (AuctionEvent event : events) {
+                                pending.putIfAbsent(event.getAuctionID(), event);
+                            }
+                        }
+
+                        if (++failures >= MAX_FAILURES) {
+                            if (subscribers.remove(listener, this)) {
+                                dropped.incrementAndGet();
+                                System.out.println("Subscriber dropped after " + failures + " failed notifications: " + e);
+                            }
+
+                            return;
+                        }
+
+                        // Waits twice as long after each failure before trying again
+                        long backOff = RETRY_MILLIS << Math.min(failures - 1, 10);
+                        RETRIES.schedule(() -> senders.execute(this::send), backOff, TimeUnit.MILLISECONDS);
+                        handedOver = true;
+                        return;
+                    }
+                }
+            } finally {
+                if (!handedOver) {
+                    synchronized (this) {
+                        sending = false;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Makes the callback on a callback thread and waits at most CALLBACK_TIMEOUT_MILLIS
+         * for it to return
+         *
+         * @param events
+         * @throws Exception if the callback failed, timed out, or an earlier one is still running
+         */
+        private void deliver(AuctionEvent[] events) throws Exception {
+
+            if (callback != null && !callback.isDone()) {
+                throw new TimeoutException("The last notification has still not returned");
+            }
+
+            callback = callbacks.submit(() -> {
+                listener.auctionChanged(events);
+                return null;
+            });
+
+            try {
+                callback.get(CALLBACK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @return a pool of daemon threads to make the callbacks on. It grows as needed, as a
+     * callback which does not return holds its thread, but a subscriber never has more than
+     * one callback running.
+     */
+    private static ExecutorService newCallbackExecutor() {
+
+        AtomicInteger count = new AtomicInteger();
+
+        return Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "AuctionNotifier-callback-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,87 @@
+import org.jgroups.util.Streamable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @Author Lewis Linaker
+ * @Description AuctionPage class which holds one page of an auction listing. Auctions are
+ * listed in order of their ID; the cursor of a page is passed back to get the next page.
+ */
+public class AuctionPage implements Externalizable, Streamable {
+
+    private final static long serialVersionUID = 1L;
+
+    // The cursor used to ask for the first page
+    public final static int FIRST_PAGE = 0;
+
+    // Private variables used to describe a page of auctions
+    private List<AuctionSummary> auctions;
+    private int nextCursor;
+    private boolean more;
+
+    /**
+     * Creates an empty page, which is only used to read a page back with readFrom
+     */
+    public AuctionPage() { this(new ArrayList<>(), FIRST_PAGE, false); }
+
+    /**
+     * @param auctions
+     * @param nextCursor
+     * @param more
+     *
+     * nextCursor is the ID of the last auction looked at, and more says whether
+     * there may be more auctions after it
+     */
+    public AuctionPage(List<AuctionSummary> auctions, int nextCursor, boolean more) {
+
+        this.auctions = auctions;
+        this.nextCursor = nextCursor;
+        this.more = more;
+    }
+
+    // get methods for the private variables
+    public List<AuctionSummary> getAuctions() { return auctions; }
+    public int getNextCursor() { return nextCursor; }
+    public boolean hasMore() { return more; }
+
+    @Override
+    public void writeTo(DataOutput out) throws IOException {
+
+        out.writeInt(nextCursor);
+        out.writeBoolean(more);
+        out.writeInt(auctions.size());
+
+        for (AuctionSummary summary : auctions) {
+            summary.writeTo(out);
+        }
+    }
+
+    @Override
+    public void readFrom(DataInput in) throws IOException {
+
+        nextCursor = in.readInt();
+        more = in.readBoolean();
+        int size = in.readInt();
+        auctions = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            AuctionSummary summary = new AuctionSummary();
+            summary.readFrom(in);
+            auctions.add(summary);
+        }
+    }
+
+    // Java serialization uses the same compact format
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException { writeTo(out); }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException { readFrom(in); }
+}
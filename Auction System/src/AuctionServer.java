@@ -1,37 +1,73 @@
 import java.rmi.Naming;
 import java.rmi.registry.LocateRegistry;
+import java.rmi.server.ExportException;
 import java.security.PrivateKey;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @Author Lewis Linaker
  * @Description Main AuctionServer Program to allow the Bidder and Seller Clients to communicate
- * over an RMI interface
+ * over an RMI interface. Several AuctionServers can run at once, each bound under a name of its
+ * own, and clients spread themselves over them with a FrontEndBalancer. The first one on a host
+ * starts the RMI registry and the others bind in it.
  */
 
 public class AuctionServer {
 
     public static PrivateKey serverPrivateKey;
 
+    // How often the front end's metrics are printed, set with -Dauction.statsInterval (seconds, 0 = never)
+    public final static long STATS_INTERVAL_SECONDS = Long.getLong("auction.statsInterval", 0L);
+
     /**
-     * Creates an instance of the AuctionServer
+     * Creates an instance of the AuctionServer. The front end's name can be given as the
+     * first argument, so that several can be bound at once.
      */
-    public static void main(String args[]) { new AuctionServer(); }
+    public static void main(String args[]) { new AuctionServer(args.length > 0 ? args[0] : null); }
 
     /**
      * An RMI Server used to bind the auctionInterface and the auctionImplementation to the
      * RMI Server, to allow the server and the clients to communicate.
+     *
+     * @param name the name of the front end, or null to bind as AuctionServer
      */
-    public AuctionServer() {
+    public AuctionServer(String name) {
 
         serverPrivateKey= GenerateKeys.getPrivateKey(GenerateKeys.SERVER_KEY);
 
         // Try Catch block to create RMI service based of the AuctionImpl class
         // Sets the port of the RMI registry to start on, to automatically start the RMI registry
         try {
-            LocateRegistry.createRegistry(1099);
-            AuctionInterface auctionInterface = new AuctionImpl();
-            Naming.rebind("rmi://localhost/AuctionServer", auctionInterface);
-            System.out.println("AuctionServer Started");
+            // Uses the registry of another AuctionServer on the host if there is one
+            try {
+                LocateRegistry.createRegistry(1099);
+            } catch (ExportException e) {
+                System.out.println("Using the running RMI registry");
+            }
+
+            String boundName = name == null ? FrontEndBalancer.NAME_PREFIX : FrontEndBalancer.NAME_PREFIX + "-" + name;
+            String url = FrontEndBalancer.REGISTRY + "/" + boundName;
+            AuctionImpl auctionInterface = new AuctionImpl();
+            Naming.rebind(url, auctionInterface);
+            System.out.println("AuctionServer Started as " + boundName);
+
+            // Unbinds the front end when it is stopped, so clients do not try to use it
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Naming.unbind(url);
+                } catch (Exception e) {
+                    System.err.println("Cannot unbind " + boundName);
+                }
+            }));
+
+            // Prints the front end's metrics every STATS_INTERVAL_SECONDS if asked to
+            if (STATS_INTERVAL_SECONDS > 0) {
+                ScheduledExecutorService statsPrinter = Executors.newSingleThreadScheduledExecutor();
+                statsPrinter.scheduleAtFixedRate(() -> System.out.println(auctionInterface.getStats()),
+                        STATS_INTERVAL_SECONDS, STATS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
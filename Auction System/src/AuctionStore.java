@@ -0,0 +1,1301 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author Lewis Linaker
+ * @Description AuctionStore class which holds the auctions and applies the operations sent over
+ * the totally ordered group channel. Every ReplicaServer keeps one, and the AuctionImpl front
+ * end keeps one as a local read replica, fed by the same ordered operations. As every store
+ * applies the same operations in the same order they all hold the same auctions.
+ *
+ * The store keeps a version, which is the number of operations it has applied, and every
+ * auction records the version it was last changed at. A replica which rejoins the group can
+ * then fetch only the auctions changed since the version it already has.
+ *
+ * A replica which starts from disk uses its snapshot as a MappedSnapshot underneath the store.
+ * An auction is only read from the snapshot into the store when it is asked for or changed, so
+ * the replica can serve requests as soon as the snapshot is mapped.
+ *
+ * Closed auctions can be moved out of the store into an AuctionArchive with archiveAuctions.
+ * Archived auctions are left out of listings, snapshots and state transfers of the live
+ * auctions, but are still read through to by getAuction. A front end's read replica has no
+ * archive; it only remembers which auctions are archived, so that they are read from a replica.
+ */
+public class AuctionStore {
+
+    // The most auctions looked at for one page of a filtered listing
+    private final static int MAX_PAGE_SCAN = 10000;
+
+    // Passed instead of a version by an operation which is not a replay, which takes the
+    // next version under the lock of the auction it changes
+    private final static long NEXT_VERSION = 0;
+
+    // Private variables used to hold the auctions
+    private final ConcurrentSkipListMap<Integer,Auction> state = new ConcurrentSkipListMap<>();
+    private final AtomicInteger counter = new AtomicInteger();
+    private final AtomicInteger leasedUpTo = new AtomicInteger();
+    private final AtomicLong version = new AtomicLong();
+    private volatile OperationLog log;
+    private volatile ChangeListener changeListener;
+    private volatile AuctionArchive archive;
+    private final BitSet archived = new BitSet();
+    private volatile MappedSnapshot snapshot;
+    private final AtomicInteger fromSnapshot = new AtomicInteger();
+
+    /**
+     * @Description OperationLog interface which is told about every operation the store
+     * applies, along with the version it was applied at, so that it can be written to disk
+     */
+    public interface OperationLog {
+
+        void added(long version, Auction auction);
+
+        void bid(long version, int auctionID, double value, String bidderID, long timestamp);
+
+        void proxyBid(long version, int auctionID, double maximum, double increment, String bidderID, long timestamp);
+
+        void closed(long version, String clientID, int auctionID);
+
+        void expired(long version, int auctionID, long now);
+
+        void archived(long version, int auctionID);
+
+        void merged(long version, Auction auction);
+
+        void leased(long version, int leasedUpTo);
+    }
+
+    /**
+     * @param log the log told about every operation from now on, or null
+     */
+    public void setOperationLog(OperationLog log) { this.log = log; }
+
+    /**
+     * @Description ChangeListener interface which is told, under the auction's lock, when
+     * an operation changes the highest bid of an auction or closes it
+     */
+    public interface ChangeListener {
+
+        void changed(long version, Auction auction);
+    }
+
+    /**
+     * @param listener the listener told about every change from now on, or null
+     */
+    public void setChangeListener(ChangeListener listener) { this.changeListener = listener; }
+
+    /**
+     * @Description EndTimeVisitor interface which is given the end time of an auction and
+     * whether it is closed by forEachEndTime
+     */
+    public interface EndTimeVisitor {
+
+        void visit(int auctionID, long endTime, boolean closed);
+    }
+
+    /**
+     * Tells the change listener about an operation which changed the highest bid of an
+     * auction or closed it
+     *
+     * @param v
+     * @param auction
+     * @param bidBefore the highest bid before the operation
+     * @param closedBefore whether the auction was closed before the operation
+     */
+    private void notifyChange(long v, Auction auction, double bidBefore, boolean closedBefore) {
+
+        ChangeListener listener = this.changeListener;
+
+        if (listener != null && (auction.getCurrentBid() != bidBefore || auction.isAuctionClosed() != closedBefore)) {
+            listener.changed(v, auction);
+        }
+    }
+
+    /**
+     * Sets the archive closed auctions are moved to. This is only called when the store is
+     * empty, before any operations are applied.
+     *
+     * @param archive
+     */
+    public void setArchive(AuctionArchive archive) {
+
+        this.archive = archive;
+
+        for (int auctionID : archive.getAuctionIDs()) {
+            markArchived(auctionID);
+            counter.accumulateAndGet(auctionID, Math::max);
+        }
+    }
+
+    /**
+     * @param auctionID
+     * @return true if the auction has been moved to the archive
+     */
+    public boolean isArchived(int auctionID) {
+
+        synchronized (archived) {
+            return auctionID >= 0 && archived.get(auctionID);
+        }
+    }
+
+    private void markArchived(int auctionID) {
+
+        synchronized (archived) {
+            archived.set(auctionID);
+        }
+    }
+
+    /**
+     * Sets the snapshot underneath the store. This is only called when the store is empty,
+     * before any operations are applied.
+     *
+     * @param snapshot
+     */
+    public void setSnapshot(MappedSnapshot snapshot) {
+
+        this.snapshot = snapshot;
+        counter.accumulateAndGet(snapshot.getMaxAuctionID(), Math::max);
+        leasedUpTo.accumulateAndGet(snapshot.getLeasedUpTo(), Math::max);
+        version.accumulateAndGet(snapshot.getVersion(), Math::max);
+    }
+
+    /**
+     * Finds an auction, reading it from the snapshot into the store if it has not been yet
+     *
+     * @param auctionID
+     * @return auction or null
+     */
+    private Auction find(int auctionID) {
+
+        Auction auction = state.get(auctionID);
+        MappedSnapshot snapshot = this.snapshot;
+
+        if (auction != null) {
+            return auction;
+        }
+
+        // An archived auction is read from the archive each time, and may still be in an
+        // older snapshot, which must not bring it back into the store
+        if (isArchived(auctionID)) {
+            AuctionArchive archive = this.archive;
+            return archive == null ? null : archive.load(auctionID);
+        }
+
+        if (snapshot == null) {
+            return null;
+        }
+
+        int i = snapshot.indexOf(auctionID);
+
+        if (i < 0) {
+            return null;
+        }
+
+        // If two threads read the same auction only the first one is kept
+        Auction loaded = snapshot.load(i);
+        Auction existing = state.putIfAbsent(auctionID, loaded);
+
+        if (existing != null) {
+            return existing;
+        }
+
+        fromSnapshot.incrementAndGet();
+
+        return loaded;
+    }
+
+    /**
+     * Works out the version an operation is applied at. A live operation takes the next
+     * version, and must do so under the lock of the auction it changes so that the auction's
+     * changedAt only goes up; a replayed operation keeps the version it was read back with.
+     * Every operation takes a version, even one which changes nothing, so every store
+     * reaches the same version.
+     *
+     * @param v the version read back, or NEXT_VERSION
+     * @param replay
+     * @return the version of the operation
+     */
+    private long versionOf(long v, boolean replay) { return replay ? v : version.incrementAndGet(); }
+
+    /**
+     * Adds an auction item to the current auction listings
+     *
+     * @param auction
+     * @return true, or false if another auction already has its ID
+     */
+    public boolean addAuction(Auction auction) { return addAuction(NEXT_VERSION, false, auction); }
+
+    /**
+     * Method to replay an addAuction operation read back from disk
+     *
+     * @param v the version the operation was applied at
+     * @param auction
+     * @return true, or false if another auction already has its ID
+     */
+    public boolean replayAddAuction(long v, Auction auction) {
+
+        version.accumulateAndGet(v, Math::max);
+
+        return addAuction(v, true, auction);
+    }
+
+    private boolean addAuction(long v, boolean replay, Auction auction) {
+
+        counter.accumulateAndGet(auction.getAuctionID(), Math::max);
+
+        // The auction is locked before it can be found, so an operation on it cannot be
+        // given a version before the one it was added at
+        synchronized (auction) {
+
+            // Adding the same auction twice keeps the first one, so an operation which was
+            // also included in a state transfer is not applied twice. A different auction
+            // under an ID which is already held is turned down rather than dropped quietly.
+            Auction existing = find(auction.getAuctionID());
+
+            if (existing == null) {
+                existing = state.putIfAbsent(auction.getAuctionID(), auction);
+            }
+
+            long at = versionOf(v, replay);
+
+            if (existing != null) {
+                return existing.isSameListing(auction);
+            }
+
+            OperationLog log = this.log;
+
+            if (log != null) {
+                log.added(at, auction);
+            }
+
+            auction.markChanged(at);
+        }
+
+        return true;
+    }
+
+    /**
+     * Method to allow a bid to be placed on an auction
+     *
+     * @param auctionID
+     * @param value
+     * @param bidderID
+     * @param timestamp
+     * @return auctionBid or No Such Auction Exits
+     */
+    public String bid(int auctionID, double value, String bidderID, long timestamp) {
+        return bid(NEXT_VERSION, false, auctionID, value, bidderID, timestamp);
+    }
+
+    /**
+     * Method to replay a bid read back from disk. The bid is skipped if the auction has
+     * already been changed at or after its version, as it is then already in the auction.
+     *
+     * @param v the version the operation was applied at
+     * @param auctionID
+     * @param value
+     * @param bidderID
+     * @param timestamp
+     * @return auctionBid or No Such Auction Exits
+     */
+    public String replayBid(long v, int auctionID, double value, String bidderID, long timestamp) {
+
+        version.accumulateAndGet(v, Math::max);
+
+        return bid(v, true, auctionID, value, bidderID, timestamp);
+    }
+
+    private String bid(long v, boolean replay, int auctionID, double value, String bidderID, long timestamp) {
+
+        Auction auction = find(auctionID);
+
+        if (auction != null) {
+            // The bid and its version are applied together so a chunk never sees one without the other
+            synchronized (auction) {
+                if (replay && auction.getChangedAt() >= v) {
+                    return "Bid already applied";
+                }
+
+                long at = versionOf(v, replay);
+
+                double bidBefore = auction.getCurrentBid();
+                boolean closedBefore = auction.isAuctionClosed();
+                String response = auction.bid(value, bidderID, timestamp);
+                auction.markChanged(at);
+                OperationLog log = this.log;
+
+                if (log != null) {
+                    log.bid(at, auctionID, value, bidderID, timestamp);
+                }
+
+                notifyChange(at, auction, bidBefore, closedBefore);
+
+                return response;
+            }
+        } else {
+            versionOf(v, replay);
+            return "No such auction exists";
+        }
+    }
+
+    /**
+     * Method to allow a batch of bids to be placed in order, in a single call. The
+     * timestamp is chosen by the front end so that every store records the same time.
+     *
+     * @param auctionIDs
+     * @param values
+     * @param bidderIDs
+     * @param timestamp
+     * @return a response for each bid, in the same order as the bids
+     */
+    public String[] bidBatch(int[] auctionIDs, double[] values, String[] bidderIDs, long timestamp) {
+
+        String[] responses = new String[auctionIDs.length];
+
+        for (int i = 0; i < auctionIDs.length; i++) {
+            responses[i] = bid(auctionIDs[i], values[i], bidderIDs[i], timestamp);
+        }
+
+        return responses;
+    }
+
+    /**
+     * Method to allow a proxy bid to be left on an auction, which bids for the bidder
+     * up to the maximum
+     *
+     * @param auctionID
+     * @param maximum
+     * @param increment
+     * @param bidderID
+     * @param timestamp
+     * @return auctionProxyBid or No Such Auction Exits
+     */
+    public String proxyBid(int auctionID, double maximum, double increment, String bidderID, long timestamp) {
+        return proxyBid(NEXT_VERSION, false, auctionID, maximum, increment, bidderID, timestamp);
+    }
+
+    /**
+     * Method to replay a proxy bid read back from disk
+     *
+     * @param v the version the operation was applied at
+     * @param auctionID
+     * @param maximum
+     * @param increment
+     * @param bidderID
+     * @param timestamp
+     * @return auctionProxyBid or No Such Auction Exits
+     */
+    public String replayProxyBid(long v, int auctionID, double maximum, double increment, String bidderID, long timestamp) {
+
+        version.accumulateAndGet(v, Math::max);
+
+        return proxyBid(v, true, auctionID, maximum, increment, bidderID, timestamp);
+    }
+
+    private String proxyBid(long v, boolean replay, int auctionID, double maximum, double increment, String bidderID, long timestamp) {
+
+        Auction auction = find(auctionID);
+
+        if (auction != null) {
+            synchronized (auction) {
+                if (replay && auction.getChangedAt() >= v) {
+                    return "Proxy bid already applied";
+                }
+
+                long at = versionOf(v, replay);
+
+                double bidBefore = auction.getCurrentBid();
+                boolean closedBefore = auction.isAuctionClosed();
+                String response = auction.proxyBid(maximum, increment, bidderID, timestamp);
+                auction.markChanged(at);
+                OperationLog log = this.log;
+
+                if (log != null) {
+                    log.proxyBid(at, auctionID, maximum, increment, bidderID, timestamp);
+                }
+
+                notifyChange(at, auction, bidBefore, closedBefore);
+
+                return response;
+            }
+        } else {
+            versionOf(v, replay);
+            return "No such auction exists";
+        }
+    }
+
+    /**
+     * Method to allow an auction to be closed
+     *
+     * @param clientID
+     * @param auctionID
+     * @return auction Closed or No Such Auction Exists
+     */
+    public String closeAuction(String clientID, int auctionID) {
+        return closeAuction(NEXT_VERSION, false, clientID, auctionID);
+    }
+
+    /**
+     * Method to replay a closeAuction operation read back from disk
+     *
+     * @param v the version the operation was applied at
+     * @param clientID
+     * @param auctionID
+     * @return auction Closed or No Such Auction Exists
+     */
+    public String replayCloseAuction(long v, String clientID, int auctionID) {
+
+        version.accumulateAndGet(v, Math::max);
+
+        return closeAuction(v, true, clientID, auctionID);
+    }
+
+    private String closeAuction(long v, boolean replay, String clientID, int auctionID) {
+
+        Auction auction = find(auctionID);
+
+        if (auction != null) {
+            synchronized (auction) {
+                if (replay && auction.getChangedAt() >= v) {
+                    return "Close already applied";
+                }
+
+                long at = versionOf(v, replay);
+
+                double bidBefore = auction.getCurrentBid();
+                boolean closedBefore = auction.isAuctionClosed();
+                String response = auction.closeAuction(clientID);
+                auction.markChanged(at);
+                OperationLog log = this.log;
+
+                if (log != null) {
+                    log.closed(at, clientID, auctionID);
+                }
+
+                notifyChange(at, auction, bidBefore, closedBefore);
+
+                return response;
+            }
+        } else {
+            versionOf(v, replay);
+            return "No such auction exists";
+        }
+    }
+
+    /**
+     * Method to close the auctions whose end time has passed, proposed by the replica which
+     * keeps track of the end times. The time is chosen by that replica so that every store
+     * agrees on which auctions have ended.
+     *
+     * @param auctionIDs
+     * @param now
+     * @return a response for each auction, in the same order as the auctions
+     */
+    public String[] expireAuctions(int[] auctionIDs, long now) {
+
+        String[] responses = new String[auctionIDs.length];
+
+        for (int i = 0; i < auctionIDs.length; i++) {
+            responses[i] = expireAuction(NEXT_VERSION, false, auctionIDs[i], now);
+        }
+
+        return responses;
+    }
+
+    /**
+     * Method to replay an expiry read back from disk
+     *
+     * @param v the version the operation was applied at
+     * @param auctionID
+     * @param now
+     * @return auction Closed or No Such Auction Exists
+     */
+    public String replayExpireAuction(long v, int auctionID, long now) {
+
+        version.accumulateAndGet(v, Math::max);
+
+        return expireAuction(v, true, auctionID, now);
+    }
+
+    private String expireAuction(long v, boolean replay, int auctionID, long now) {
+
+        Auction auction = find(auctionID);
+
+        if (auction != null) {
+            synchronized (auction) {
+                if (replay && auction.getChangedAt() >= v) {
+                    return "Expiry already applied";
+                }
+
+                long at = versionOf(v, replay);
+
+                double bidBefore = auction.getCurrentBid();
+                boolean closedBefore = auction.isAuctionClosed();
+                String response = auction.expire(now);
+                auction.markChanged(at);
+                OperationLog log = this.log;
+
+                if (log != null) {
+                    log.expired(at, auctionID, now);
+                }
+
+                notifyChange(at, auction, bidBefore, closedBefore);
+
+                return response;
+            }
+        } else {
+            versionOf(v, replay);
+            return "No such auction exists";
+        }
+    }
+
+    /**
+     * Method to move closed auctions out of the store into the archive, proposed by the
+     * replica which keeps track of when auctions closed. Auctions which are open, already
+     * archived, or cannot be written to the archive are left in the store.
+     *
+     * @param auctionIDs
+     * @return a response for each auction, in the same order as the auctions
+     */
+    public String[] archiveAuctions(int[] auctionIDs) {
+
+        String[] responses = new String[auctionIDs.length];
+        List<Auction> closed = new ArrayList<>();
+
+        for (int i = 0; i < auctionIDs.length; i++) {
+
+            Auction auction = isArchived(auctionIDs[i]) ? null : find(auctionIDs[i]);
+
+            if (auction == null) {
+                responses[i] = "No such auction exists";
+            } else if (!auction.isAuctionClosed()) {
+                responses[i] = "The auction is still open";
+            } else {
+                responses[i] = "Auction archived";
+                closed.add(auction);
+            }
+        }
+
+        // The auctions are on disk in the archive before they are taken out of the store
+        if (!moveToArchive(closed)) {
+            Arrays.fill(responses, "The auction could not be archived");
+            return responses;
+        }
+
+        for (Auction auction : closed) {
+            archived(version.incrementAndGet(), auction.getAuctionID());
+        }
+
+        return responses;
+    }
+
+    /**
+     * Method to replay an archiving read back from disk. The auction is archived again only
+     * if the crash came before it reached the archive.
+     *
+     * @param v the version the operation was applied at
+     * @param auctionID
+     */
+    public void replayArchiveAuction(long v, int auctionID) {
+
+        version.accumulateAndGet(v, Math::max);
+        Auction auction = isArchived(auctionID) ? null : find(auctionID);
+
+        if (auction != null && moveToArchive(Collections.singletonList(auction))) {
+            archived(v, auctionID);
+        }
+    }
+
+    /**
+     * Writes auctions to the archive, if the store has one
+     *
+     * @param auctions
+     * @return true unless the archive could not be written
+     */
+    private boolean moveToArchive(List<Auction> auctions) {
+
+        AuctionArchive archive = this.archive;
+
+        if (archive == null || auctions.isEmpty()) {
+            return true;
+        }
+
+        try {
+            archive.append(auctions);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Takes an archived auction out of the store
+     */
+    private void archived(long v, int auctionID) {
+
+        markArchived(auctionID);
+        state.remove(auctionID);
+        OperationLog log = this.log;
+
+        if (log != null) {
+            log.archived(v, auctionID);
+        }
+    }
+
+    /**
+     * Method to bring back the changes one side of a partition made while cut off, proposed
+     * once the partition has healed by the first replica of that side. Each copy is kept if
+     * the store does not hold the auction, or if it is newer than the store's copy by
+     * Auction.isNewerThan, so that every store keeps the same copy whichever side it was on.
+     *
+     * @param auctions
+     * @return a response for each auction, in the same order as the auctions
+     */
+    public String[] mergeAuctions(Auction[] auctions) {
+
+        String[] responses = new String[auctions.length];
+
+        for (int i = 0; i < auctions.length; i++) {
+            responses[i] = mergeAuction(NEXT_VERSION, false, auctions[i]);
+        }
+
+        return responses;
+    }
+
+    /**
+     * Method to replay a merged auction read back from disk
+     *
+     * @param v the version the operation was applied at
+     * @param auction
+     * @return Auction merged or Auction already newer
+     */
+    public String replayMergeAuction(long v, Auction auction) {
+
+        version.accumulateAndGet(v, Math::max);
+
+        return mergeAuction(v, true, auction);
+    }
+
+    private String mergeAuction(long v, boolean replay, Auction received) {
+
+        int auctionID = received.getAuctionID();
+        counter.accumulateAndGet(auctionID, Math::max);
+
+        if (isArchived(auctionID)) {
+            versionOf(v, replay);
+            return "The auction has been archived";
+        }
+
+        Auction local = find(auctionID);
+
+        // A copy which is kept is marked as changed by this operation, so a replay of it is skipped
+        if (local == null) {
+            synchronized (received) {
+                long at = versionOf(v, replay);
+                logMerged(at, received);
+                received.markChanged(at);
+                state.put(auctionID, received);
+            }
+
+            return "Auction merged";
+        }
+
+        synchronized (local) {
+            if (replay && local.getChangedAt() >= v) {
+                return "Merge already applied";
+            }
+
+            long at = versionOf(v, replay);
+
+            if (!received.isNewerThan(local)) {
+                return "Auction already newer";
+            }
+
+            synchronized (received) {
+                logMerged(at, received);
+                received.markChanged(at);
+                state.put(auctionID, received);
+            }
+
+            notifyChange(at, received, local.getCurrentBid(), local.isAuctionClosed());
+        }
+
+        return "Auction merged";
+    }
+
+    private void logMerged(long v, Auction auction) {
+
+        OperationLog log = this.log;
+
+        if (log != null) {
+            log.merged(v, auction);
+        }
+    }
+
+    /**
+     * Method to lease a block of auction IDs to a front end, which then hands them out
+     * itself. Every store applies the leases in the same order, so each works out the same
+     * block, and no block overlaps another or any auction the store holds.
+     *
+     * @param size the number of IDs in the block
+     * @param floor the highest auction ID the front end knows of, in any shard
+     * @return the first ID of the block
+     */
+    public int leaseIdBlock(int size, int floor) {
+
+        synchronized (leasedUpTo) {
+            long v = version.incrementAndGet();
+            int start = Math.max(Math.max(leasedUpTo.get(), counter.get()), floor) + 1;
+            leasedUpTo.set(start + size - 1);
+            OperationLog log = this.log;
+
+            if (log != null) {
+                log.leased(v, start + size - 1);
+            }
+
+            return start;
+        }
+    }
+
+    /**
+     * Method to replay a lease read back from disk
+     *
+     * @param v the version the operation was applied at
+     * @param upTo the last ID leased
+     */
+    public void replayLeaseIdBlock(long v, int upTo) {
+
+        version.accumulateAndGet(v, Math::max);
+        leasedUpTo.accumulateAndGet(upTo, Math::max);
+    }
+
+    /**
+     * @return the highest auction ID seen
+     */
+    public int getIdCounter() { return counter.get(); }
+
+    /**
+     * @return the last auction ID leased to a front end
+     */
+    public int getLeasedUpTo() { return leasedUpTo.get(); }
+
+    /**
+     * @return the number of operations applied to the store
+     */
+    public long getVersion() { return version.get(); }
+
+    /**
+     * @return the number of auctions held
+     */
+    public int size() {
+
+        MappedSnapshot snapshot = this.snapshot;
+
+        return state.size() + (snapshot == null ? 0 : snapshot.size() - fromSnapshot.get());
+    }
+
+    /**
+     * Method used to print out the auction list when requested
+     *
+     * @return auctionList
+     */
+    public String getAuctionList() {
+
+        StringBuilder response = new StringBuilder(AuctionSummary.TABLE_HEADER);
+
+        for (Auction auction : getAuctions(AuctionPage.FIRST_PAGE)) {
+            response.append(auction.toSummary().toTableRow());
+        }
+
+        return response.toString();
+    }
+
+    /**
+     * Method used to get a page of the auction list, in order of auction ID
+     *
+     * @param afterAuctionID the cursor of the previous page, or AuctionPage.FIRST_PAGE
+     * @param pageSize
+     * @param openOnly only lists auctions which are not closed
+     * @param ownerID only lists auctions owned by this user, or all auctions if null
+     * @return page
+     */
+    public AuctionPage getAuctionPage(int afterAuctionID, int pageSize, boolean openOnly, String ownerID) {
+
+        List<AuctionSummary> auctions = new ArrayList<>();
+        int cursor = afterAuctionID;
+        int scanned = 0;
+
+        for (Auction auction : getAuctions(afterAuctionID)) {
+
+            // Stops when the page is full, or when too many auctions have been skipped by the
+            // filters, in which case the client carries on from the cursor
+            if (auctions.size() >= pageSize || scanned >= MAX_PAGE_SCAN) {
+                return new AuctionPage(auctions, cursor, true);
+            }
+
+            scanned++;
+            cursor = auction.getAuctionID();
+            AuctionSummary summary = auction.toSummary();
+
+            if ((openOnly && summary.isClosed()) || (ownerID != null && !ownerID.equals(summary.getOwnerID()))) {
+                continue;
+            }
+
+            auctions.add(summary);
+        }
+
+        return new AuctionPage(auctions, cursor, false);
+    }
+
+    /**
+     * Method to get a page of the bid history of an auction
+     *
+     * @param auctionID
+     * @param fromSequence
+     * @param maxRecords
+     * @return records or null if there is no such auction
+     */
+    public List<BidRecord> getBidHistory(int auctionID, long fromSequence, int maxRecords) {
+
+        Auction auction = find(auctionID);
+
+        if (auction == null) {
+            return null;
+        }
+
+        return new ArrayList<>(auction.getBidHistory(fromSequence, maxRecords));
+    }
+
+    /**
+     * Method to get an auction
+     *
+     * @param auctionID
+     * @return auction or null
+     */
+    public Auction getAuction(int auctionID) { return find(auctionID); }
+
+    /**
+     * Method to get the auctions changed since a version, in order of auction ID
+     *
+     * @param sinceVersion the version the caller already has
+     * @param afterAuctionID the cursor of the previous chunk, or AuctionPage.FIRST_PAGE
+     * @param maxAuctions
+     * @return chunk
+     */
+    public StateChunk getChangesSince(long sinceVersion, int afterAuctionID, int maxAuctions) {
+
+        // The version is read first, so every change after it is either in a chunk or
+        // will still be delivered to the caller as an operation
+        long current = version.get();
+        List<Auction> auctions = new ArrayList<>();
+        int cursor = afterAuctionID;
+        int scanned = 0;
+
+        // Auctions in the snapshot which have not changed since the version are skipped
+        // without being read
+        for (Auction auction : auctions(afterAuctionID, sinceVersion)) {
+
+            if (auctions.size() >= maxAuctions || scanned >= MAX_PAGE_SCAN) {
+                return new StateChunk(auctions, archivedBetween(afterAuctionID, cursor), cursor, true, current, leasedUpTo.get());
+            }
+
+            scanned++;
+            cursor = auction.getAuctionID();
+
+            if (auction.getChangedAt() > sinceVersion) {
+                auctions.add(auction);
+            }
+        }
+
+        return new StateChunk(auctions, archivedBetween(afterAuctionID, Integer.MAX_VALUE), cursor, false, current, leasedUpTo.get());
+    }
+
+    /**
+     * Method to get every auction changed since a version in one chunk, however many there are
+     *
+     * @param sinceVersion
+     * @return chunk
+     */
+    public StateChunk getChangesSince(long sinceVersion) {
+
+        List<Auction> auctions = new ArrayList<>();
+        List<int[]> archivedIDs = new ArrayList<>();
+        StateChunk chunk = getChangesSince(sinceVersion, AuctionPage.FIRST_PAGE, Integer.MAX_VALUE);
+        long current = chunk.getVersion();
+
+        while (true) {
+            auctions.addAll(chunk.getAuctions());
+            archivedIDs.add(chunk.getArchived());
+
+            if (!chunk.hasMore()) {
+                break;
+            }
+
+            chunk = getChangesSince(sinceVersion, chunk.getNextCursor(), Integer.MAX_VALUE);
+        }
+
+        return new StateChunk(auctions, archivedIDs.stream().flatMapToInt(Arrays::stream).toArray(),
+                chunk.getNextCursor(), false, current, leasedUpTo.get());
+    }
+
+    /**
+     * @param afterAuctionID
+     * @param upTo
+     * @return the IDs of the archived auctions after afterAuctionID, up to and including upTo
+     */
+    private int[] archivedBetween(int afterAuctionID, int upTo) {
+
+        synchronized (archived) {
+            int from = Math.max(0, afterAuctionID + 1);
+            int to = upTo == Integer.MAX_VALUE ? archived.length() : Math.min(archived.length(), upTo + 1);
+
+            return from >= to ? new int[0] : archived.get(from, to).stream().map(id -> id + from).toArray();
+        }
+    }
+
+    /**
+     * Method used to apply a chunk of a delta state transfer to the store. The sender's copy
+     * of each auction is kept and the store takes the sender's version, so the store must not
+     * apply any operations of its own while it catches up. Auctions the sender has archived
+     * are archived here too; those whose final copy this store does not hold are returned, to
+     * be fetched from the sender and passed to applyArchived.
+     *
+     * @param chunk
+     * @return the IDs of the archived auctions this store needs the final copy of
+     */
+    public int[] applyChunk(StateChunk chunk) {
+
+        for (Auction auction : chunk.getAuctions()) {
+            if (!isArchived(auction.getAuctionID())) {
+                counter.accumulateAndGet(auction.getAuctionID(), Math::max);
+                state.put(auction.getAuctionID(), auction);
+            }
+        }
+
+        leasedUpTo.accumulateAndGet(chunk.getLeasedUpTo(), Math::max);
+        version.set(chunk.getVersion());
+
+        List<Integer> missing = new ArrayList<>();
+
+        for (int auctionID : chunk.getArchived()) {
+
+            counter.accumulateAndGet(auctionID, Math::max);
+
+            if (isArchived(auctionID)) {
+                continue;
+            }
+
+            Auction auction = find(auctionID);
+
+            // A closed auction cannot change again, so the copy here is already the final one
+            if (auction != null && auction.isAuctionClosed() && moveToArchive(Collections.singletonList(auction))) {
+                archived(version.get(), auctionID);
+            } else {
+                missing.add(auctionID);
+            }
+        }
+
+        return missing.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Method used to archive an auction another replica has archived, with the final copy
+     * fetched from it. With no copy the auction is only marked as archived, so that it is no
+     * longer listed or closed here.
+     *
+     * @param auctionID
+     * @param finalCopy the auction as it was archived, or null
+     */
+    public void applyArchived(int auctionID, Auction finalCopy) {
+
+        counter.accumulateAndGet(auctionID, Math::max);
+
+        if (isArchived(auctionID)) {
+            return;
+        }
+
+        if (finalCopy != null && !moveToArchive(Collections.singletonList(finalCopy))) {
+            return;
+        }
+
+        archived(version.get(), auctionID);
+    }
+
+    /**
+     * Method used to write every auction, for state transfer. Auctions are streamed one at
+     * a time and only each auction is locked while it is written, not the whole store.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeState(DataOutput out) throws IOException {
+
+        out.writeLong(version.get());
+        out.writeInt(leasedUpTo.get());
+
+        // Each auction is preceded by true, and the end of the stream is marked by false
+        for (Auction auction : getAuctions(AuctionPage.FIRST_PAGE)) {
+            out.writeBoolean(true);
+            auction.writeTo(out);
+        }
+
+        out.writeBoolean(false);
+
+        // Archived auctions follow, copied from the archive as they are without being read
+        // back into auctions, each as its ID and length, or a length of -1 with no archive
+        AuctionArchive archive = this.archive;
+        int auctionID = -1;
+
+        while ((auctionID = nextArchived(auctionID + 1)) >= 0) {
+
+            byte[] record = archive == null ? null : archive.read(auctionID);
+            out.writeBoolean(true);
+            out.writeInt(auctionID);
+            out.writeInt(record == null ? -1 : record.length);
+
+            if (record != null) {
+                out.write(record);
+            }
+        }
+
+        out.writeBoolean(false);
+    }
+
+    /**
+     * @param from
+     * @return the lowest archived auction ID at or after from, or -1
+     */
+    private int nextArchived(int from) {
+
+        synchronized (archived) {
+            return archived.nextSetBit(from);
+        }
+    }
+
+    /**
+     * Method used to read the auctions written by writeState. Auctions are merged in as they
+     * are read, so operations delivered during the transfer are not lost.
+     *
+     * @param in
+     * @throws IOException
+     */
+    public void readState(DataInput in) throws IOException { readState(in, false); }
+
+    /**
+     * Method used to read the auctions written by writeState. With replace, the sender's copy
+     * of every auction it holds is kept over the store's own and the store takes the sender's
+     * version, which is used after a partition, when the two sides' versions and operation
+     * counts cannot be compared. Auctions the sender does not hold are taken out of the store,
+     * as they were added on this side of the partition and are proposed again with mergeAuctions.
+     *
+     * @param in
+     * @param replace
+     * @throws IOException
+     */
+    public void readState(DataInput in, boolean replace) throws IOException {
+
+        long stateVersion = in.readLong();
+        leasedUpTo.accumulateAndGet(in.readInt(), Math::max);
+        BitSet received = new BitSet();
+
+        while (in.readBoolean()) {
+            Auction auction = new Auction();
+            auction.readFrom(in);
+
+            if (!replace) {
+                merge(auction);
+            } else if (!isArchived(auction.getAuctionID())) {
+                received.set(auction.getAuctionID());
+                counter.accumulateAndGet(auction.getAuctionID(), Math::max);
+                state.put(auction.getAuctionID(), auction);
+            }
+        }
+
+        if (replace) {
+            state.keySet().removeIf(auctionID -> !received.get(auctionID));
+        }
+
+        while (in.readBoolean()) {
+
+            int auctionID = in.readInt();
+            byte[] record = new byte[Math.max(0, in.readInt())];
+            in.readFully(record);
+            AuctionArchive archive = this.archive;
+
+            if (archive != null && record.length > 0) {
+                archive.append(new int[]{auctionID}, new byte[][]{record});
+            }
+
+            counter.accumulateAndGet(auctionID, Math::max);
+            markArchived(auctionID);
+            state.remove(auctionID);
+        }
+
+        if (replace) {
+            version.set(stateVersion);
+        } else {
+            version.accumulateAndGet(stateVersion, Math::max);
+        }
+    }
+
+    /**
+     * Keeps whichever copy of an auction has had more operations applied to it
+     */
+    private void merge(Auction auction) {
+
+        // An auction archived here is not brought back by an older copy of it
+        if (isArchived(auction.getAuctionID())) {
+            return;
+        }
+
+        find(auction.getAuctionID());
+        counter.accumulateAndGet(auction.getAuctionID(), Math::max);
+        state.merge(auction.getAuctionID(), auction,
+                (local, received) -> received.getVersion() > local.getVersion() ? received : local);
+    }
+
+    /**
+     * Method to go through the auctions in order of auction ID, both those in the store and
+     * those only in the snapshot. Auctions only in the snapshot are read for the caller but
+     * not kept in the store.
+     *
+     * @param afterAuctionID
+     * @return the auctions with a higher ID
+     */
+    public Iterable<Auction> getAuctions(int afterAuctionID) { return auctions(afterAuctionID, -1); }
+
+    /**
+     * Method to go through the end time of every auction which is not archived. Auctions only
+     * in the snapshot are taken from its index rather than read, unless the snapshot is in a
+     * format without end times. An auction read into the store while this runs may be visited
+     * twice.
+     *
+     * @param visitor
+     */
+    public void forEachEndTime(EndTimeVisitor visitor) {
+
+        MappedSnapshot snapshot = this.snapshot;
+
+        // The snapshot goes first, so an auction read into the store part way through is
+        // still seen in the store afterwards
+        for (int i = 0; snapshot != null && i < snapshot.size(); i++) {
+
+            int auctionID = snapshot.idAt(i);
+
+            if (state.containsKey(auctionID) || isArchived(auctionID)) {
+                continue;
+            }
+
+            if (snapshot.hasEndTimes()) {
+                visitor.visit(auctionID, snapshot.endTimeAt(i), snapshot.isClosedAt(i));
+            } else {
+                Auction auction = snapshot.load(i);
+                visitor.visit(auctionID, auction.getEndTime(), auction.isAuctionClosed());
+            }
+        }
+
+        for (Auction auction : state.values()) {
+
+            if (isArchived(auction.getAuctionID())) {
+                continue;
+            }
+
+            synchronized (auction) {
+                visitor.visit(auction.getAuctionID(), auction.getEndTime(), auction.isAuctionClosed());
+            }
+        }
+    }
+
+    private Iterable<Auction> auctions(int afterAuctionID, long changedSince) {
+        return () -> new AuctionIterator(afterAuctionID, changedSince);
+    }
+
+    /**
+     * Merges the auctions in the store with those in the snapshot, in order of auction ID
+     */
+    private class AuctionIterator implements Iterator<Auction> {
+
+        private final Iterator<Auction> stored;
+        private final MappedSnapshot base = snapshot;
+        private final long changedSince;
+        private Auction nextStored;
+        private int nextInSnapshot;
+        private int lastID;
+        private Auction next;
+
+        AuctionIterator(int afterAuctionID, long changedSince) {
+
+            this.stored = state.tailMap(afterAuctionID, false).values().iterator();
+            this.changedSince = changedSince;
+            this.nextStored = stored.hasNext() ? stored.next() : null;
+            this.nextInSnapshot = base == null ? 0 : base.firstAfter(afterAuctionID);
+            this.lastID = afterAuctionID;
+            advance();
+        }
+
+        private void advance() {
+
+            next = null;
+
+            while (next == null) {
+                boolean snapshotLeft = base != null && nextInSnapshot < base.size();
+
+                if (nextStored == null && !snapshotLeft) {
+                    return;
+                }
+
+                Auction candidate;
+
+                if (nextStored != null && (!snapshotLeft || nextStored.getAuctionID() <= base.idAt(nextInSnapshot))) {
+                    candidate = nextStored;
+                    nextStored = stored.hasNext() ? stored.next() : null;
+                } else {
+                    int i = nextInSnapshot++;
+                    int auctionID = base.idAt(i);
+                    candidate = state.get(auctionID);
+
+                    // Reads the auction from the snapshot only if the store does not have it
+                    // and it may have changed since the version asked for
+                    if (candidate == null && base.changedAtAt(i) > changedSince) {
+                        candidate = base.load(i);
+                    }
+                }
+
+                // An auction read into the store during the iteration may be seen twice, and an
+                // archived auction may still be in the snapshot
+                if (candidate != null && candidate.getAuctionID() > lastID && !isArchived(candidate.getAuctionID())) {
+                    lastID = candidate.getAuctionID();
+                    next = candidate;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() { return next != null; }
+
+        @Override
+        public Auction next() {
+
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+
+            Auction auction = next;
+            advance();
+
+            return auction;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @Author Lewis Linaker
+ * @Description AuctionStoreStressTest class which fires bids at an AuctionStore from many
+ * threads at once, first all at one auction and then spread over many, and checks that no
+ * update was lost. Every bid is for a different amount, taken from a counter for its auction,
+ * so bids race each other and some are rightly turned down as too low. Once every thread is
+ * done each auction must hold the highest bid which was accepted, the number of bids in its
+ * history must match the number accepted, and the bids kept in its history must go up one
+ * after another.
+ *
+ * Usage: java AuctionStoreStressTest [threads] [bidsPerThread] [auctions]
+ */
+public class AuctionStoreStressTest {
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int bidsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int auctions = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+        run("one auction", threads, bidsPerThread, 1);
+        run(auctions + " auctions", threads, bidsPerThread, auctions);
+
+        System.out.println(failures == 0 ? "All stress checks passed" : failures + " stress checks failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * Bids on a new store from every thread at once and checks each auction afterwards
+     */
+    private static void run(String name, int threads, int bidsPerThread, int auctions) throws InterruptedException {
+
+        AuctionStore store = new AuctionStore();
+
+        for (int i = 1; i <= auctions; i++) {
+            Auction auction = new Auction("Item " + i, 0, 0, "seller");
+            auction.setAuctionID(i);
+            store.addAuction(auction);
+        }
+
+        // The next amount to bid on each auction, and the bids accepted and highest accepted bid of each
+        AtomicLongArray amounts = new AtomicLongArray(auctions + 1);
+        AtomicLongArray accepted = new AtomicLongArray(auctions + 1);
+        AtomicLongArray highest = new AtomicLongArray(auctions + 1);
+        AtomicLong errors = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            String bidderID = "bidder" + t;
+
+            new Thread(() -> {
+                try {
+                    start.await();
+
+                    for (int i = 0; i < bidsPerThread; i++) {
+                        int auctionID = auctions == 1 ? 1 : ThreadLocalRandom.current().nextInt(auctions) + 1;
+                        long amount = amounts.incrementAndGet(auctionID);
+                        String response = store.bid(auctionID, amount, bidderID, System.currentTimeMillis());
+
+                        if (response.startsWith("Successful bid")) {
+                            accepted.incrementAndGet(auctionID);
+                            highest.accumulateAndGet(auctionID, amount, Math::max);
+                        } else if (!response.startsWith("Your bid must be higher")) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    errors.incrementAndGet();
+                }
+
+                done.countDown();
+            }).start();
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        done.await();
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        long bids = (long) threads * bidsPerThread;
+        long acceptedBids = 0;
+        int lost = 0;
+        int outOfOrder = 0;
+
+        for (int auctionID = 1; auctionID <= auctions; auctionID++) {
+
+            Auction auction = store.getAuction(auctionID);
+            List<BidRecord> history = auction.getBidHistory(0, Integer.MAX_VALUE);
+            long count = history.isEmpty() ? 0 : history.get(history.size() - 1).getSequence() + 1;
+            acceptedBids += accepted.get(auctionID);
+
+            // The auction must end on the highest accepted bid and have recorded every accepted bid
+            if (auction.getCurrentBid() != highest.get(auctionID) || count != accepted.get(auctionID)) {
+                lost++;
+            }
+
+            for (int i = 1; i < history.size(); i++) {
+                BidRecord before = history.get(i - 1);
+                BidRecord after = history.get(i);
+
+                if (after.getAmount() <= before.getAmount() || after.getSequence() != before.getSequence() + 1) {
+                    outOfOrder++;
+                    break;
+                }
+            }
+        }
+
+        // Every bid must have been given its own version of the store
+        boolean versions = store.getVersion() == auctions + bids;
+
+        check(name + ": every accepted bid kept", lost == 0, lost + " auctions lost bids");
+        check(name + ": histories strictly increasing", outOfOrder == 0, outOfOrder + " auctions out of order");
+        check(name + ": one version per operation", versions, "version " + store.getVersion() + " for " + (auctions + bids) + " operations");
+        check(name + ": no unexpected responses", errors.get() == 0, errors.get() + " unexpected responses");
+
+        System.out.println(String.format("%s: %d bids in %.2fs (%.0f bids/s), %d accepted", name, bids, seconds, bids / seconds, acceptedBids));
+    }
+
+    private static void check(String name, boolean passed, String detail) {
+
+        if (!passed) {
+            failures++;
+        }
+
+        System.out.println((passed ? "PASS " : "FAIL ") + name + (passed ? "" : " (" + detail + ")"));
+    }
+}
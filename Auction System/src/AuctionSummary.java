@@ -0,0 +1,107 @@
+import org.jgroups.util.Streamable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * @Author Lewis Linaker
+ * @Description AuctionSummary class which holds the fields of an auction shown in an auction
+ * listing, without its bid history. Summaries are written in a compact format both over
+ * JGroups and over RMI.
+ */
+public class AuctionSummary implements Externalizable, Streamable {
+
+    private final static long serialVersionUID = 1L;
+
+    // The format of a row in the auction table, shared by the server and the clients
+    public final static String ROW_FORMAT = "%-15s %-20s %-10s %-10s %-15s %-20s %n";
+    public final static String TABLE_HEADER = String.format(ROW_FORMAT,
+            "Auction ID", "Item Name", "Closed", "Won", "Highest Bid", "Highest Bidder");
+
+    // Private variables used to describe an auction in a listing
+    private int auctionID;
+    private String itemDescription;
+    private String ownerID;
+    private boolean closed;
+    private boolean won;
+    private double currentBid;
+    private String currentWinner;
+
+    /**
+     * Creates an empty summary, which is only used to read a summary back with readFrom
+     */
+    public AuctionSummary() { }
+
+    /**
+     * @param auctionID
+     * @param itemDescription
+     * @param ownerID
+     * @param closed
+     * @param won
+     * @param currentBid
+     * @param currentWinner
+     */
+    public AuctionSummary(int auctionID, String itemDescription, String ownerID, boolean closed, boolean won,
+                          double currentBid, String currentWinner) {
+
+        this.auctionID = auctionID;
+        this.itemDescription = itemDescription;
+        this.ownerID = ownerID;
+        this.closed = closed;
+        this.won = won;
+        this.currentBid = currentBid;
+        this.currentWinner = currentWinner;
+    }
+
+    // get methods for the private variables
+    public int getAuctionID() { return auctionID; }
+    public String getItemDescription() { return itemDescription; }
+    public String getOwnerID() { return ownerID; }
+    public boolean isClosed() { return closed; }
+    public boolean isWon() { return won; }
+    public double getCurrentBid() { return currentBid; }
+    public String getCurrentWinner() { return currentWinner; }
+
+    /**
+     * @return the summary as a row of the auction table
+     */
+    public String toTableRow() {
+        return String.format(ROW_FORMAT, auctionID, itemDescription, closed, won, currentBid, currentWinner);
+    }
+
+    @Override
+    public void writeTo(DataOutput out) throws IOException {
+
+        out.writeInt(auctionID);
+        out.writeBoolean(closed);
+        out.writeBoolean(won);
+        out.writeDouble(currentBid);
+        // Strings are length prefixed like an auction's, as writeUTF cannot write more than 64KB
+        Auction.writeString(itemDescription, out);
+        Auction.writeString(ownerID, out);
+        Auction.writeString(currentWinner, out);
+    }
+
+    @Override
+    public void readFrom(DataInput in) throws IOException {
+
+        auctionID = in.readInt();
+        closed = in.readBoolean();
+        won = in.readBoolean();
+        currentBid = in.readDouble();
+        itemDescription = Auction.readString(in);
+        ownerID = Auction.readString(in);
+        currentWinner = Auction.readString(in);
+    }
+
+    // Java serialization uses the same compact format
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException { writeTo(out); }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException { readFrom(in); }
+}
@@ -0,0 +1,42 @@
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @Author Lewis Linaker
+ * @Description AuctionWatcher class which is exported by a client to the server to print the
+ * changes to the auctions it is watching as they happen. It also tells the user when they
+ * have lost the lead on an auction they were the highest bidder of.
+ */
+public class AuctionWatcher extends UnicastRemoteObject implements AuctionListener {
+
+    private final static long serialVersionUID = 1L;
+
+    // Private variables used to know who the user is and who was winning each auction
+    private final String userID;
+    private final ConcurrentHashMap<Integer, String> lastWinner = new ConcurrentHashMap<>();
+
+    /**
+     * @param userID the user the watcher prints for
+     * @throws RemoteException
+     */
+    public AuctionWatcher(String userID) throws RemoteException {
+        this.userID = userID;
+    }
+
+    @Override
+    public void auctionChanged(AuctionEvent[] events) throws RemoteException {
+
+        for (AuctionEvent event : events) {
+
+            String previous = event.getCurrentWinner() == null ? lastWinner.remove(event.getAuctionID())
+                    : lastWinner.put(event.getAuctionID(), event.getCurrentWinner());
+
+            if (userID.equals(previous) && !userID.equals(event.getCurrentWinner())) {
+                System.out.println("You have been outbid on auction " + event.getAuctionID());
+            }
+
+            System.out.println(event);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @Author Lewis Linaker
+ * @Description BidHistory class which holds the most recent bids of an auction in a fixed
+ * size ring of (bidder, amount, timestamp) records. Every bid gets a sequence number so
+ * the history can be read a page at a time; once more bids than the retention have been
+ * placed the oldest records are dropped.
+ *
+ * A history read back is checked against MAX_RETENTION before anything is allocated, as it
+ * may come from a client or a corrupt file.
+ */
+public class BidHistory {
+
+    // The number of bids kept for each auction unless set with -Dauction.history.retention
+    public final static int DEFAULT_RETENTION = Integer.getInteger("auction.history.retention", 100);
+
+    // The most bids a history can keep, and so the most read back
+    public final static int MAX_RETENTION = 1 << 16;
+
+    // Private variables used to hold the ring of bid records
+    private String[] bidderIDs;
+    private double[] amounts;
+    private long[] timestamps;
+    private long total;
+
+    /**
+     * Creates a bid history with the default retention
+     */
+    public BidHistory() { this(DEFAULT_RETENTION); }
+
+    /**
+     * @param retention
+     *
+     * Creates a bid history which keeps the last retention bids
+     */
+    public BidHistory(int retention) {
+
+        if (retention < 1 || retention > MAX_RETENTION) {
+            throw new IllegalArgumentException("Bid history retention must be from 1 to " + MAX_RETENTION);
+        }
+
+        bidderIDs = new String[retention];
+        amounts = new double[retention];
+        timestamps = new long[retention];
+    }
+
+    /**
+     * Method used to record a bid, dropping the oldest bid if the history is full
+     *
+     * @param bidderID
+     * @param amount
+     * @param timestamp
+     */
+    public void append(String bidderID, double amount, long timestamp) {
+
+        int slot = (int) (total % bidderIDs.length);
+        bidderIDs[slot] = bidderID;
+        amounts[slot] = amount;
+        timestamps[slot] = timestamp;
+        total++;
+    }
+
+    /**
+     * @return the number of bids ever placed, which is also the sequence number of the next bid
+     */
+    public long getTotal() { return total; }
+
+    /**
+     * @return the sequence number of the oldest bid still held
+     */
+    public long getOldestSequence() { return Math.max(0, total - bidderIDs.length); }
+
+    /**
+     * @return the number of bids held
+     */
+    public int size() { return (int) (total - getOldestSequence()); }
+
+    /**
+     * @return the time of the most recent bid, or 0 if there have been no bids
+     */
+    public long getLastTimestamp() { return total == 0 ? 0 : timestamps[(int) ((total - 1) % timestamps.length)]; }
+
+    /**
+     * Method used to read a page of the history in the order the bids were placed. If
+     * the first bid asked for has already been dropped the page starts at the oldest
+     * bid still held.
+     *
+     * @param fromSequence
+     * @param maxRecords
+     * @return records
+     */
+    public List<BidRecord> page(long fromSequence, int maxRecords) {
+
+        long start = Math.max(fromSequence, getOldestSequence());
+        long end = Math.min(total, start + Math.max(0, maxRecords));
+        List<BidRecord> records = new ArrayList<>((int) Math.max(0, end - start));
+
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) (sequence % bidderIDs.length);
+            records.add(new BidRecord(sequence, bidderIDs[slot], amounts[slot], timestamps[slot]));
+        }
+
+        return records;
+    }
+
+    /**
+     * Method used to write the history in a compact format
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(DataOutput out) throws IOException {
+
+        out.writeInt(bidderIDs.length);
+        out.writeLong(total);
+        out.writeInt(size());
+
+        for (long sequence = getOldestSequence(); sequence < total; sequence++) {
+
+            int slot = (int) (sequence % bidderIDs.length);
+            Auction.writeString(bidderIDs[slot], out);
+            out.writeDouble(amounts[slot]);
+            out.writeLong(timestamps[slot]);
+        }
+    }
+
+    /**
+     * Method used to read a history written by writeTo
+     *
+     * @param in
+     * @throws IOException if the history is not a valid one
+     */
+    public void readFrom(DataInput in) throws IOException { readFrom(in, false); }
+
+    /**
+     * Method used to read a history written by writeTo, or by the earlier format which
+     * wrote each bidder ID with a two byte length
+     *
+     * @param in
+     * @param shortBidderIDs true for the earlier format
+     * @throws IOException if the history is not a valid one
+     */
+    void readFrom(DataInput in, boolean shortBidderIDs) throws IOException {
+
+        int retention = in.readInt();
+        long written = in.readLong();
+        int size = in.readInt();
+
+        if (retention < 1 || retention > MAX_RETENTION || size < 0 || size > retention || written < size) {
+            throw new IOException("Corrupt bid history: retention " + retention + ", " + size + " of " + written + " bids");
+        }
+
+        bidderIDs = new String[retention];
+        amounts = new double[retention];
+        timestamps = new long[retention];
+        total = written - size;
+
+        for (int i = 0; i < size; i++) {
+
+            String bidderID;
+
+            if (shortBidderIDs) {
+                byte[] bidder = new byte[in.readUnsignedShort()];
+                in.readFully(bidder);
+                bidderID = new String(bidder, StandardCharsets.UTF_8);
+            } else {
+                bidderID = Auction.readString(in);
+            }
+
+            append(bidderID, in.readDouble(), in.readLong());
+        }
+    }
+
+    /**
+     * @return the bids held, newest first, one per line
+     */
+    @Override
+    public String toString() {
+
+        StringBuilder builder = new StringBuilder();
+
+        for (long sequence = total - 1; sequence >= getOldestSequence(); sequence--) {
+            int slot = (int) (sequence % bidderIDs.length);
+            builder.append(bidderIDs[slot]).append(" bid ").append(amounts[slot]).append('\n');
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,115 @@
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.SignedObject;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author Lewis Linaker
+ * @Description BidLoadTest class which measures how many bids a running AuctionServer answers
+ * per second with many bidders bidding at once, spread over every front end bound in the
+ * registry. Each bidder has a thread of its own and places a bid and waits for the reply before
+ * placing the next, as a BuyerClient would. The bids are signed before the test starts so that
+ * signing does not slow the bidders down.
+ *
+ * The auction must already exist, and the user must have keys made with GenerateKeys.
+ *
+ * Usage: java BidLoadTest userID auctionID [bidders] [bidsPerBidder]
+ */
+public class BidLoadTest {
+
+    public static void main(String[] args) throws Exception {
+
+        if (args.length < 2) {
+            System.out.println("Usage: java BidLoadTest userID auctionID [bidders] [bidsPerBidder]");
+            return;
+        }
+
+        String userID = args[0];
+        int auctionID = Integer.parseInt(args[1]);
+        int bidders = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int bidsPerBidder = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+        List<String> frontEnds = FrontEndBalancer.discover();
+        AuctionInterface[] servers = new AuctionInterface[frontEnds.size()];
+
+        for (int i = 0; i < servers.length; i++) {
+            servers[i] = FrontEndBalancer.lookup(frontEnds.get(i));
+        }
+
+        System.out.println("Bidding through " + frontEnds);
+        PrivateKey privateKey = GenerateKeys.getPrivateKey(userID);
+
+        // Signs every bid up front, each higher than the one before
+        System.out.println("Signing " + (long) bidders * bidsPerBidder + " bids");
+        SignedObject[][] bids = new SignedObject[bidders][bidsPerBidder];
+        Signature signature = CryptoPool.signature(CryptoPool.SIGNATURE_ALGORITHM);
+        double amount = 1000;
+
+        for (int i = 0; i < bidsPerBidder; i++) {
+            for (int b = 0; b < bidders; b++) {
+                bids[b][i] = new SignedObject(new Object[]{userID, auctionID, amount++}, privateKey, signature);
+            }
+        }
+
+        long[] latencies = new long[bidders * bidsPerBidder];
+        AtomicLong failures = new AtomicLong();
+        CountDownLatch ready = new CountDownLatch(bidders);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(bidders);
+
+        for (int b = 0; b < bidders; b++) {
+            int bidder = b;
+            AuctionInterface server = servers[b % servers.length];
+
+            Thread thread = new Thread(() -> {
+                try {
+                    ready.countDown();
+                    start.await();
+
+                    for (int i = 0; i < bidsPerBidder; i++) {
+                        long sent = System.nanoTime();
+                        String response = server.bid(bids[bidder][i]);
+                        latencies[bidder * bidsPerBidder + i] = System.nanoTime() - sent;
+
+                        if (response == null || response.equals(AuctionImpl.logCrash())) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    failures.incrementAndGet();
+                }
+
+                done.countDown();
+            }, "Bidder-" + b);
+
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        ready.await();
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        double seconds = (System.nanoTime() - begin) / 1e9;
+
+        Arrays.sort(latencies);
+
+        System.out.println(String.format("%d bidders, %d bids in %.2fs: %.0f bids/s, %d failed", bidders, latencies.length,
+                seconds, latencies.length / seconds, failures.get()));
+        System.out.println(String.format("Latency (ms) p50=%.2f p90=%.2f p99=%.2f max=%.2f", percentile(latencies, 0.5),
+                percentile(latencies, 0.9), percentile(latencies, 0.99), latencies[latencies.length - 1] / 1e6));
+    }
+
+    /**
+     * @param sorted latencies in nanoseconds, sorted
+     * @param fraction
+     * @return the latency in milliseconds which the fraction of latencies are at or below
+     */
+    private static double percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) (fraction * sorted.length))] / 1e6;
+    }
+}
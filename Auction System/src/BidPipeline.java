@@ -0,0 +1,337 @@
+import org.jgroups.util.RspList;
+
+import java.security.SignedObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * @Author Lewis Linaker
+ * @Description BidPipeline class which takes bids through the front end as a pipeline of
+ * stages rather than on the thread of the request: the signature is verified on a small pool
+ * of workers, the bid is multicast to its shard without waiting for the replicas, and the votes
+ * are counted on a worker once the shard's response policy is met.
+ *
+ * Bids waiting to be multicast to a shard are queued, and each multicast takes every bid
+ * queued for the shard, so while IN_FLIGHT multicasts are waiting for the replicas the bids
+ * of many clients are gathered into the next one. With no bids in flight a bid is sent at once.
+ *
+ * The stages are set with -Dauction.pipeline.workers, -Dauction.pipeline.maxBatch and
+ * -Dauction.pipeline.inFlight.
+ */
+public class BidPipeline {
+
+    // The number of workers which verify bids and count votes, the most bids in one multicast,
+    // and the most multicasts to a shard which may be waiting for the replicas at once
+    public final static int WORKERS = Integer.getInteger("auction.pipeline.workers", Runtime.getRuntime().availableProcessors());
+    public final static int MAX_BATCH = Integer.getInteger("auction.pipeline.maxBatch", 512);
+    public final static int IN_FLIGHT = Integer.getInteger("auction.pipeline.inFlight", 4);
+
+    /**
+     * A bid going through the pipeline, and the response it will be given
+     */
+    public static class Bid {
+
+        private final int auctionID;
+        private final double amount;
+        private final String bidderID;
+        private final CompletableFuture<String> response = new CompletableFuture<>();
+
+        public Bid(int auctionID, double amount, String bidderID) {
+            this.auctionID = auctionID;
+            this.amount = amount;
+            this.bidderID = bidderID;
+        }
+
+        /**
+         * @param reason
+         * @return a bid which failed verification, and is answered without being sent
+         */
+        public static Bid rejected(String reason) {
+
+            Bid bid = new Bid(0, 0, null);
+            bid.response.complete(reason);
+
+            return bid;
+        }
+
+        /**
+         * @return auctionID
+         */
+        public int getAuctionID() { return auctionID; }
+
+        /**
+         * @return amount
+         */
+        public double getAmount() { return amount; }
+
+        /**
+         * @return bidderID
+         */
+        public String getBidderID() { return bidderID; }
+
+        /**
+         * @return the response to the bid
+         */
+        public CompletableFuture<String> getResponse() { return response; }
+    }
+
+    // Private variables used by the pipeline
+    private final FrontEndShard[] shards;
+    private final Function<SignedObject, Bid> verifier;
+    private final ExecutorService workers;
+    private final ConcurrencyGuard guard;
+    private final ShardQueue[] queues;
+    private final AtomicLong multicasts = new AtomicLong();
+    private final AtomicLong bidsSent = new AtomicLong();
+
+    /**
+     * @param shards the shards bids are sent to
+     * @param verifier checks a signed bid, run on the workers
+     * @param guard limits the requests in the pipeline at once
+     */
+    public BidPipeline(FrontEndShard[] shards, Function<SignedObject, Bid> verifier, ConcurrencyGuard guard) {
+
+        this.shards = shards;
+        this.verifier = verifier;
+        this.guard = guard;
+        this.workers = RequestThreads.newExecutor("BidPipeline-worker", WORKERS);
+        this.queues = new ShardQueue[shards.length];
+
+        for (int shard = 0; shard < shards.length; shard++) {
+            queues[shard] = new ShardQueue(shard);
+        }
+    }
+
+    /**
+     * Verifies a batch of signed bids on the workers and sends those which pass
+     *
+     * @param bids
+     * @return a future for the responses, in the same order as the bids
+     */
+    public CompletableFuture<String[]> submit(SignedObject[] bids) {
+
+        if (!guard.enter()) {
+            return busy(bids.length);
+        }
+
+        List<CompletableFuture<Bid>> verifying = new ArrayList<>();
+
+        for (SignedObject bid : bids) {
+            verifying.add(CompletableFuture.supplyAsync(() -> verifier.apply(bid), workers));
+        }
+
+        return CompletableFuture.allOf(verifying.toArray(new CompletableFuture<?>[0])).thenCompose(verified -> {
+
+            List<Bid> batch = new ArrayList<>();
+
+            for (CompletableFuture<Bid> bid : verifying) {
+                batch.add(bid.join());
+            }
+
+            return enqueue(batch);
+        }).whenComplete((responses, failure) -> guard.exit());
+    }
+
+    /**
+     * Sends bids which have already been verified
+     *
+     * @param bids
+     * @return a future for the responses, in the same order as the bids
+     */
+    public CompletableFuture<String[]> forward(List<Bid> bids) {
+
+        if (!guard.enter()) {
+            return busy(bids.size());
+        }
+
+        return enqueue(bids).whenComplete((responses, failure) -> guard.exit());
+    }
+
+    /**
+     * @param bids
+     * @return the responses to bids which were turned away
+     */
+    private static CompletableFuture<String[]> busy(int bids) {
+
+        String[] responses = new String[bids];
+        Arrays.fill(responses, ConcurrencyGuard.BUSY);
+
+        return CompletableFuture.completedFuture(responses);
+    }
+
+    /**
+     * Queues bids to be multicast to their shards
+     *
+     * @param bids
+     * @return a future for the responses, in the same order as the bids
+     */
+    private CompletableFuture<String[]> enqueue(List<Bid> bids) {
+
+        // Every bid is queued before any queue is drained, so a client's batch is kept together
+        List<ShardQueue> touched = new ArrayList<>();
+
+        for (Bid bid : bids) {
+            if (!bid.response.isDone()) {
+                ShardQueue queue = queues[ShardMap.shardOf(bid.auctionID)];
+                queue.pending.add(bid);
+
+                if (!touched.contains(queue)) {
+                    touched.add(queue);
+                }
+            }
+        }
+
+        for (ShardQueue queue : touched) {
+            queue.drain();
+        }
+
+        List<CompletableFuture<String>> responses = new ArrayList<>(bids.size());
+
+        for (Bid bid : bids) {
+            responses.add(bid.response);
+        }
+
+        return CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+
+            String[] result = new String[responses.size()];
+
+            for (int i = 0; i < result.length; i++) {
+                result[i] = responses.get(i).join();
+            }
+
+            return result;
+        });
+    }
+
+    /**
+     * @return a summary of the pipeline metrics
+     */
+    public String getStats() {
+
+        long sent = multicasts.get();
+
+        return "pipeline multicasts=" + sent + " bids=" + bidsSent.get()
+                + " avgBatch=" + (sent == 0 ? 0 : String.format("%.1f", (double) bidsSent.get() / sent));
+    }
+
+    /**
+     * The bids waiting to be multicast to one shard
+     */
+    private class ShardQueue {
+
+        private final int shard;
+        private final ConcurrentLinkedQueue<Bid> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        ShardQueue(int shard) { this.shard = shard; }
+
+        /**
+         * Sends the queued bids while fewer than IN_FLIGHT multicasts are waiting. Called
+         * after bids are queued and after a multicast is answered, so a bid queued while
+         * every slot was taken is sent when one is freed.
+         */
+        void drain() {
+
+            while (!pending.isEmpty()) {
+
+                int current = inFlight.get();
+
+                if (current >= IN_FLIGHT) {
+                    return;
+                }
+
+                if (!inFlight.compareAndSet(current, current + 1)) {
+                    continue;
+                }
+
+                List<Bid> batch = new ArrayList<>();
+                Bid bid;
+
+                while (batch.size() < MAX_BATCH && (bid = pending.poll()) != null) {
+                    batch.add(bid);
+                }
+
+                if (batch.isEmpty()) {
+                    inFlight.decrementAndGet();
+                } else {
+                    send(batch);
+                }
+            }
+        }
+
+        /**
+         * Multicasts a batch of bids and counts the votes on a worker once the replicas
+         * have answered
+         *
+         * @param batch
+         */
+        private void send(List<Bid> batch) {
+
+            int[] auctionIDs = new int[batch.size()];
+            double[] amounts = new double[batch.size()];
+            String[] bidderIDs = new String[batch.size()];
+
+            for (int i = 0; i < batch.size(); i++) {
+                auctionIDs[i] = batch.get(i).auctionID;
+                amounts[i] = batch.get(i).amount;
+                bidderIDs[i] = batch.get(i).bidderID;
+            }
+
+            multicasts.incrementAndGet();
+            bidsSent.addAndGet(batch.size());
+
+            shards[shard].writeFuture("bidBatch", new Object[]{auctionIDs, amounts, bidderIDs, System.currentTimeMillis()},
+                    new Class<?>[]{int[].class, double[].class, String[].class, long.class})
+                    .whenCompleteAsync((rspList, failure) -> {
+                        try {
+                            answer(batch, rspList, failure);
+                        } finally {
+                            inFlight.decrementAndGet();
+                            drain();
+                        }
+                    }, workers);
+        }
+
+        /**
+         * Works out the majority response of the replicas for each bid in a batch
+         *
+         * @param batch
+         * @param rspList
+         * @param failure
+         */
+        private void answer(List<Bid> batch, RspList<Object> rspList, Throwable failure) {
+
+            FrontEndShard frontEndShard = shards[shard];
+
+            if (failure != null) {
+                failure.printStackTrace();
+
+                for (Bid bid : batch) {
+                    bid.response.complete("Bidding unsuccessful, badly formatted request");
+                }
+                return;
+            }
+
+            frontEndShard.checkWrite(rspList);
+
+            // Returns log crash if response from dispatcher is unsuccessful
+            if (frontEndShard.replicaResponses(rspList) == 0) {
+                for (Bid bid : batch) {
+                    bid.response.complete(AuctionImpl.logCrash());
+                }
+                return;
+            }
+
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).response.complete(frontEndShard.majority(rspList, i));
+            }
+        }
+    }
+}
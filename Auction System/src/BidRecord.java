@@ -0,0 +1,41 @@
+import java.io.Serializable;
+
+/**
+ * @Author Lewis Linaker
+ * @Description BidRecord class which describes a single bid in an auction's bid history
+ */
+public class BidRecord implements Serializable {
+
+    private final static long serialVersionUID = 1L;
+
+    // Private variables used to describe a bid
+    private final long sequence;
+    private final String bidderID;
+    private final double amount;
+    private final long timestamp;
+
+    /**
+     * @param sequence
+     * @param bidderID
+     * @param amount
+     * @param timestamp
+     *
+     * The sequence is the position of the bid in the auction's history, starting at 0
+     */
+    public BidRecord(long sequence, String bidderID, double amount, long timestamp) {
+
+        this.sequence = sequence;
+        this.bidderID = bidderID;
+        this.amount = amount;
+        this.timestamp = timestamp;
+    }
+
+    // get methods for the private variables
+    public long getSequence() { return sequence; }
+    public String getBidderID() { return bidderID; }
+    public double getAmount() { return amount; }
+    public long getTimestamp() { return timestamp; }
+
+    @Override
+    public String toString() { return bidderID + " bid " + amount + " at " + new java.util.Date(timestamp); }
+}
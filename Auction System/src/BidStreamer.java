@@ -0,0 +1,183 @@
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author Lewis Linaker
+ * @Description BidStreamer class which lets a BuyerClient place a stream of bids with many of
+ * them in flight at once, rather than waiting for each reply before sending the next. Bids are
+ * read one line at a time, as "auction_id value" or "bid auction_id value", and up to the window
+ * of bids are waiting for their replies at any time. Blank lines and lines starting with # are
+ * skipped.
+ *
+ * Once every bid is answered a summary of the latencies and responses is printed, and each
+ * bid's result can also be written out as it is answered.
+ */
+public class BidStreamer {
+
+    // The number of bids in flight when no window is given
+    public final static int DEFAULT_WINDOW = 32;
+
+    // The start of the response to a bid which was accepted
+    private final static String SUCCESS = "Successful bid";
+
+    /**
+     * Places a single bid and waits for the reply
+     */
+    public interface Bidder {
+        String bid(int auctionID, double value) throws Exception;
+    }
+
+    // Private variables used by the streamer
+    private final Bidder bidder;
+    private final int window;
+
+    /**
+     * @param bidder
+     * @param window the most bids in flight at once
+     */
+    public BidStreamer(Bidder bidder, int window) {
+
+        this.bidder = bidder;
+        this.window = Math.max(1, window);
+    }
+
+    /**
+     * Places every bid in a stream of lines and prints a summary once they are all answered
+     *
+     * @param lines
+     * @param out where each bid's result is written as it is answered, or null
+     * @return the number of bids accepted
+     * @throws InterruptedException
+     */
+    public int run(Iterator<String> lines, PrintStream out) throws InterruptedException {
+
+        ExecutorService senders = Executors.newFixedThreadPool(window, r -> {
+            Thread thread = new Thread(r, "BidStreamer-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Semaphore inFlight = new Semaphore(window);
+        Results results = new Results();
+        int lineNumber = 0;
+
+        while (lines.hasNext()) {
+
+            String line = lines.next().trim();
+            lineNumber++;
+
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] words = line.split("[\\s,]+");
+            int first = words[0].equals("bid") ? 1 : 0;
+            int auctionID;
+            double value;
+
+            try {
+                auctionID = Integer.parseInt(words[first]);
+                value = Double.parseDouble(words[first + 1]);
+            } catch (RuntimeException e) {
+                System.err.println("Line " + lineNumber + " is not a bid: " + line);
+                results.malformed++;
+                continue;
+            }
+
+            // Waits for a bid to be answered once the window is full
+            inFlight.acquire();
+
+            senders.execute(() -> {
+
+                long sent = System.nanoTime();
+                String response;
+
+                try {
+                    response = bidder.bid(auctionID, value);
+                } catch (Exception e) {
+                    response = "Error: " + e;
+                }
+
+                long latency = System.nanoTime() - sent;
+                results.add(latency, response);
+
+                if (out != null) {
+                    synchronized (out) {
+                        out.println(auctionID + " " + value + " " + String.format("%.2f", latency / 1e6) + "ms " + response);
+                    }
+                }
+
+                inFlight.release();
+            });
+        }
+
+        // Waits for every bid still in flight
+        inFlight.acquire(window);
+        senders.shutdown();
+        senders.awaitTermination(1, TimeUnit.SECONDS);
+
+        results.print();
+
+        return results.accepted;
+    }
+
+    /**
+     * The latency and response of every bid
+     */
+    private static class Results {
+
+        private final long start = System.nanoTime();
+        private final Map<String, Integer> responses = new LinkedHashMap<>();
+        private long[] latencies = new long[1024];
+        private int count;
+        private int accepted;
+        private int malformed;
+
+        synchronized void add(long latency, String response) {
+
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+
+            latencies[count++] = latency;
+
+            // Accepted bids name the amount and item, so they are counted together
+            if (response != null && response.startsWith(SUCCESS)) {
+                accepted++;
+                response = SUCCESS;
+            }
+
+            responses.merge(String.valueOf(response), 1, Integer::sum);
+        }
+
+        synchronized void print() {
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format("%d bids in %.2fs (%.0f bids/s), %d accepted (%.1f%%), %d lines skipped",
+                    count, seconds, count / seconds, accepted, count == 0 ? 0 : 100.0 * accepted / count, malformed));
+
+            if (count == 0) {
+                return;
+            }
+
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            System.out.println(String.format("Latency (ms) min=%.2f p50=%.2f p90=%.2f p99=%.2f max=%.2f", sorted[0] / 1e6,
+                    percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99), sorted[count - 1] / 1e6));
+
+            for (Map.Entry<String, Integer> response : responses.entrySet()) {
+                System.out.println(String.format("%8d  %s", response.getValue(), response.getKey()));
+            }
+        }
+
+        private static double percentile(long[] sorted, double fraction) {
+            return sorted[Math.min(sorted.length - 1, (int) (fraction * sorted.length))] / 1e6;
+        }
+    }
+}
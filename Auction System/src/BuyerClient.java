@@ -1,12 +1,19 @@
 import javax.crypto.*;
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.math.BigInteger;
-import java.rmi.Naming;
 import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
 import java.security.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Scanner;
+import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -18,22 +25,28 @@ import java.util.regex.Pattern;
 public class BuyerClient {
 
     // Private variables used by the BuyerClient
-    AuctionInterface buyerInterface;
-    SecretKey sessionKey;
+    volatile AuctionInterface buyerInterface;
+    FrontEndBalancer balancer;
+    volatile Session session;
     PublicKey serverPublicKey;
     PrivateKey myPrivateKey;
     private SecureRandom rnd;
+    private Scanner scanner = new Scanner(System.in);
+    private AuctionWatcher watcher;
+    private int[] watching;
     protected String ID;
 
     /**
-     * Main method which calls an instance of the buyerClient
+     * Main method which calls an instance of the buyerClient. The user ID can be given as
+     * the first argument, followed by a single command to run instead of reading commands
+     * from the console, for example: BuyerClient bot1 bid_file bids.txt 64
      *
      * @param args
      */
     public static void main(String[] args) {
 
         try {
-            new BuyerClient();
+            new BuyerClient(args);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -42,12 +55,18 @@ public class BuyerClient {
     /**
      * BuyerClient which is called by main. Used to scan a user ID and authenticate
      * that user ID with the server
+     *
+     * @param args the user ID and a command to run, if given
      */
-    public BuyerClient() {
+    public BuyerClient(String[] args) {
+
         // Allows a user ID to be scanned to be authenticated with the server
-        Scanner scanner = new Scanner(System.in);
-        System.out.println("Enter your id?");
-        ID = scanner.nextLine();
+        if (args.length > 0) {
+            ID = args[0];
+        } else {
+            System.out.println("Enter your id?");
+            ID = scanner.nextLine();
+        }
 
         try {
             init();
@@ -55,10 +74,20 @@ public class BuyerClient {
             e.printStackTrace();
         }
 
+        // Runs the command given on the command line and stops
+        if (args.length > 1) {
+            inputDetected(new ArrayList<>(Arrays.asList(args).subList(1, args.length)));
+            return;
+        }
+
         // Used to call inputDetected method when a user inputs something into the
         // client program.
         System.out.println("1. Bid on an Item: bid (item_id, value)");
-        System.out.println("2. List Auctions: list_auctions");
+        System.out.println("2. List Auctions: list_auctions [open]");
+        System.out.println("3. Bid history of an Item: bid_history (item_id)");
+        System.out.println("4. Bid from a file, or the console with -: bid_file (file|-) [window] [results_file]");
+        System.out.println("5. Bid automatically up to a maximum: proxy_bid (item_id, maximum)");
+        System.out.println("6. Be told about new bids and closed auctions: watch [item_id ...], unwatch");
 
         while (scanner.hasNextLine()) {
             List<String> slittedWord = new ArrayList<String>();
@@ -113,11 +142,91 @@ public class BuyerClient {
                     break;
 
                 // Case to allow the user list the current auctions
+                // "open" only lists auctions which are still open
                 case "list_auctions":
+                    ClientListings.printAuctions(balancer, () -> buyerInterface, input.contains("open"), null);
+                    break;
+
+                // Lists the bid history of an auction a page at a time
+                case "bid_history":
+
+                    // Checks the correct number of values is being passed
+                    if (input.size() != 2) {
+                        System.out.println("Wrong Format");
+                        break;
+                    }
+
+                    // Checks if the AuctionID is a number
+                    if (!isInt(input.get(1))) {
+                        System.out.println(input.get(1) + "AuctionID must be a number");
+                        break;
+                    }
+
+                    ClientListings.printBidHistory(balancer, () -> buyerInterface, Integer.parseInt(input.get(1)));
+                    break;
+
+                // Places every bid in a file, or typed in until "end", with many in flight at once
+                case "bid_file":
+
+                    if (input.size() < 2 || input.size() > 4 || (input.size() > 2 && !isInt(input.get(2)))) {
+                        System.out.println("Wrong Format");
+                        break;
+                    }
+
+                    bidFromStream(input.get(1), input.size() > 2 ? Integer.parseInt(input.get(2)) : BidStreamer.DEFAULT_WINDOW,
+                            input.size() > 3 ? input.get(3) : null);
+                    break;
+
+                // Leaves a proxy bid which the server raises for the user up to their maximum
+                case "proxy_bid":
+
+                    // Checks to make the sure the correct number of parameters is passed
+                    if (input.size() != 3) {
+                        System.out.println("Wrong Format");
+                        break;
+                    }
+
+                    // Checks to make sure that the BidID and maximum are numbers
+                    if (!isInt(input.get(1)) || !isInt(input.get(2))) {
+                        System.out.println("Bid ID and maximum must be a number");
+                        break;
+                    }
+
                     try {
-                        System.out.println(buyerInterface.getAuctions());
-                    } catch (RemoteException re) {
-                        re.printStackTrace();
+                        System.out.println(proxyBid(Integer.parseInt(input.get(1)), Double.parseDouble(input.get(2))));
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                    break;
+
+                // Watches some auctions, or every auction if none are given
+                case "watch":
+
+                    int[] auctionIDs = new int[input.size() - 1];
+
+                    for (int i = 1; i < input.size(); i++) {
+                        if (!isInt(input.get(i))) {
+                            System.out.println(input.get(i) + " AuctionID must be a number");
+                            return;
+                        }
+
+                        auctionIDs[i - 1] = Integer.parseInt(input.get(i));
+                    }
+
+                    try {
+                        System.out.println(watch(auctionIDs));
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                    break;
+
+                // Stops watching the auctions
+                case "unwatch":
+
+                    try {
+                        System.out.println(unwatch());
+                    } catch (Exception e) {
+                        e.printStackTrace();
                     }
                     break;
 
@@ -127,7 +236,8 @@ public class BuyerClient {
         }
 
     /**
-     * Method to allow a user to bid on a client.
+     * Method to allow a user to bid on a client. Once the handshake is complete the
+     * bid is authenticated with the session key, otherwise it is signed.
      *
      * @param auctionID
      * @param value
@@ -136,13 +246,165 @@ public class BuyerClient {
      */
     public String bid(int auctionID, double value) throws Exception {
 
-        // Sends the bid details, the bidder's private key and the signature tto the server
-        Signature signature = Signature.getInstance("SHA1withRSA");
-        signature.initSign(myPrivateKey);
-        Object[] bidDetails = new Object[]{ID,auctionID, value};
-        SignedObject signedDetails = new SignedObject(bidDetails, myPrivateKey, signature);
+        // The bid is built again if it has to be sent to another front end, under the new session
+        return balancer.call(() -> {
+
+            // Sends the bid details with a MAC under the session key and the next sequence number.
+            // The session is read once, so the key and the number always come from the same one
+            Session current = session;
+
+            if (current != null) {
+                long nextSequence = current.nextSequence();
+
+                try {
+                    byte[] mac = SessionMac.compute(current.key, ID, nextSequence, SessionMac.BID, auctionID, value);
 
-        return   buyerInterface.bid(signedDetails);
+                    return buyerInterface.bidWithMac(ID, nextSequence, auctionID, value, mac);
+                } finally {
+                    current.answered(nextSequence);
+                }
+            }
+
+            // Sends the bid details, the bidder's private key and the signature tto the server
+            Signature signature = CryptoPool.signature(CryptoPool.SIGNATURE_ALGORITHM);
+            signature.initSign(myPrivateKey);
+            Object[] bidDetails = new Object[]{ID,auctionID, value};
+            SignedObject signedDetails = new SignedObject(bidDetails, myPrivateKey, signature);
+
+            return buyerInterface.bid(signedDetails);
+        });
+    }
+
+    /**
+     * Method to leave a proxy bid on an auction, which the server places for the user up to
+     * the maximum. It is authenticated in the same way as a bid.
+     *
+     * @param auctionID
+     * @param maximum
+     * @return response
+     * @throws Exception
+     */
+    public String proxyBid(int auctionID, double maximum) throws Exception {
+
+        return balancer.call(() -> {
+
+            Session current = session;
+
+            if (current != null) {
+                long nextSequence = current.nextSequence();
+
+                try {
+                    byte[] mac = SessionMac.compute(current.key, ID, nextSequence, SessionMac.PROXY_BID, auctionID, maximum);
+
+                    return buyerInterface.proxyBidWithMac(ID, nextSequence, auctionID, maximum, mac);
+                } finally {
+                    current.answered(nextSequence);
+                }
+            }
+
+            Signature signature = CryptoPool.signature(CryptoPool.SIGNATURE_ALGORITHM);
+            signature.initSign(myPrivateKey);
+            SignedObject signedDetails = new SignedObject(new Object[]{ID, auctionID, maximum}, myPrivateKey, signature);
+
+            return buyerInterface.proxyBid(signedDetails);
+        });
+    }
+
+    /**
+     * Method used to be told about changes to auctions as they happen. The watcher is
+     * exported once and subscribed again with any front end the client moves to.
+     *
+     * @param auctionIDs the auctions to watch, or none for every auction
+     * @return response
+     * @throws Exception
+     */
+    public String watch(int[] auctionIDs) throws Exception {
+
+        if (watcher == null) {
+            watcher = new AuctionWatcher(ID);
+        }
+
+        watching = auctionIDs;
+
+        return balancer.call(() -> buyerInterface.subscribe(watcher, auctionIDs));
+    }
+
+    /**
+     * Method used to stop watching auctions
+     *
+     * @return response
+     * @throws Exception
+     */
+    public String unwatch() throws Exception {
+
+        if (watcher == null) {
+            return "You are not watching any auctions";
+        }
+
+        String response = balancer.call(() -> buyerInterface.unsubscribe(watcher));
+        UnicastRemoteObject.unexportObject(watcher, true);
+        watcher = null;
+        watching = null;
+
+        return response;
+    }
+
+    /**
+     * Method used to place a stream of bids with up to window of them in flight at once.
+     * Bids made under the session are numbered as they are sent and may arrive out of order.
+     * The session does not hand out a number until every number more than the server's replay
+     * window behind it has been answered, so more bids than that in flight would only wait.
+     *
+     * @param source a file of bids, or - to read bids from the console until "end"
+     * @param window
+     * @param resultsFile where each bid's result is written, or null
+     */
+    public void bidFromStream(String source, int window, String resultsFile) {
+
+        if (session != null && window > ReplayWindow.WINDOW_SIZE) {
+            System.out.println("Only " + ReplayWindow.WINDOW_SIZE + " bids can be in flight in a session");
+            window = ReplayWindow.WINDOW_SIZE;
+        }
+
+        BidStreamer streamer = new BidStreamer(this::bid, window);
+
+        try (PrintStream results = resultsFile == null ? null : new PrintStream(new FileOutputStream(resultsFile))) {
+
+            if (source.equals("-")) {
+                System.out.println("Enter bids as: item_id value, then end");
+
+                // Reads from the console until end, leaving the rest for the next commands
+                Iterator<String> lines = new Iterator<String>() {
+                    private String next;
+
+                    @Override
+                    public boolean hasNext() {
+                        if (next == null && scanner.hasNextLine()) {
+                            next = scanner.nextLine();
+                        }
+                        return next != null && !next.trim().equals("end");
+                    }
+
+                    @Override
+                    public String next() {
+                        String line = next;
+                        next = null;
+                        return line;
+                    }
+                };
+
+                streamer.run(lines, results);
+            } else {
+                try (BufferedReader reader = new BufferedReader(new FileReader(source))) {
+                    streamer.run(reader.lines().iterator(), results);
+                }
+            }
+
+        } catch (IOException io) {
+            System.out.println("Cannot read " + source + ": " + io.getMessage());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -162,10 +424,24 @@ public class BuyerClient {
         System.out.println("Loaded your PrivateKey");
         serverPublicKey = GenerateKeys.getPublicKey(GenerateKeys.SERVER_KEY);
         System.out.println("Loaded servers PublicKey");
-        buyerInterface = (AuctionInterface) Naming.lookup("rmi://localhost/AuctionServer");
-        System.out.println("Connected To The AuctionServer");
         rnd = new SecureRandom();
-        handshake();
+
+        // Connects to one of the front ends and makes a handshake with it, and with any
+        // front end the client moves to if it cannot be reached
+        balancer = new FrontEndBalancer(ID, server -> {
+            buyerInterface = server;
+            handshake();
+
+            // The new front end does not know about the watcher, so it is subscribed again
+            if (watcher != null) {
+                try {
+                    server.subscribe(watcher, watching);
+                } catch (RemoteException re) {
+                    re.printStackTrace();
+                }
+            }
+        });
+        balancer.connect();
     }
 
     /**
@@ -178,11 +454,17 @@ public class BuyerClient {
 
         try {
             Cipher challengeEncryptCipher;
-            challengeEncryptCipher = Cipher.getInstance(serverPublicKey.getAlgorithm());
+            challengeEncryptCipher = CryptoPool.cipher(serverPublicKey.getAlgorithm());
             challengeEncryptCipher.init(Cipher.ENCRYPT_MODE, serverPublicKey);
             SealedObject sealedChallengeForServer = new SealedObject(challenge, challengeEncryptCipher);
-            SealedObject serverAnswer = buyerInterface.challengeServer(ID, sealedChallengeForServer);
-            Cipher decryptCipher = Cipher.getInstance(myPrivateKey.getAlgorithm());
+            SealedObject serverAnswer = buyerInterface.challengeServer(ID, sealedChallengeForServer, SessionCipher.SUPPORTED);
+
+            if (serverAnswer == null) {
+                System.err.println("AuctionServer turned down the handshake");
+                return;
+            }
+
+            Cipher decryptCipher = CryptoPool.cipher(myPrivateKey.getAlgorithm());
             decryptCipher.init(Cipher.DECRYPT_MODE, myPrivateKey);
             ServerChallenge serverChallenge = (ServerChallenge) serverAnswer.getObject(decryptCipher);
             System.out.print("AuctionServer answered: " + serverChallenge.getAnswer() + ", ");
@@ -192,11 +474,20 @@ public class BuyerClient {
             } else
                 return;
 
-            sessionKey = serverChallenge.getSessionKey();
-            Cipher answerEncryptCipher = Cipher.getInstance(sessionKey.getAlgorithm());
-            answerEncryptCipher.init(Cipher.ENCRYPT_MODE, sessionKey);
-            SealedObject sealedAnswer = new SealedObject(serverChallenge.getClientChallenge(), answerEncryptCipher);
-            buyerInterface.answerChallenge(ID, sealedAnswer);
+            // The cipher list was sent in the clear, so a session with a cipher this client
+            // did not offer means it was changed on the way
+            if (!SessionCipher.isSupported(serverChallenge.getCipher())) {
+                System.err.println("AuctionServer chose " + serverChallenge.getCipher() + ", which was not offered");
+                return;
+            }
+
+            SecretKey sessionKey = serverChallenge.getSessionKey();
+            SealedObject sealedAnswer = SessionCipher.seal(serverChallenge.getClientChallenge(), sessionKey);
+
+            // Only keeps the session key if the server accepted the answer. The new session,
+            // with its sequence numbers starting again, is published whole, so bids being sent
+            // on other threads see either the old session or the new one
+            session = buyerInterface.answerChallenge(ID, sealedAnswer) ? new Session(sessionKey) : null;
 
         } catch (IOException io) {
             io.printStackTrace();
@@ -213,6 +504,8 @@ public class BuyerClient {
             cnf.printStackTrace();
         } catch (IllegalBlockSizeException ibs) {
             ibs.printStackTrace();
+        } catch (GeneralSecurityException gse) {
+            gse.printStackTrace();
         }
     }
 
@@ -231,4 +524,46 @@ public class BuyerClient {
         return true;
     }
 
+    /**
+     * A session made by a handshake: its key, and the sequence numbers handed out under it.
+     * The server only accepts a number within ReplayWindow.WINDOW_SIZE of the highest it has
+     * seen, so a number is not handed out until every number that far behind it has been
+     * answered. Otherwise a bid which was held up would be rejected as a replay once later
+     * bids had moved the server's window past it.
+     */
+    static class Session {
+
+        final SecretKey key;
+        private final TreeSet<Long> unanswered = new TreeSet<>();
+        private long last;
+
+        Session(SecretKey key) { this.key = key; }
+
+        /**
+         * @return the next sequence number, waiting while the oldest unanswered number is a
+         * whole replay window behind it
+         * @throws InterruptedException
+         */
+        synchronized long nextSequence() throws InterruptedException {
+
+            while (!unanswered.isEmpty() && last + 1 - unanswered.first() >= ReplayWindow.WINDOW_SIZE) {
+                wait();
+            }
+
+            unanswered.add(++last);
+
+            return last;
+        }
+
+        /**
+         * Called once the request sent with a sequence number has been answered or has failed
+         *
+         * @param sequence
+         */
+        synchronized void answered(long sequence) {
+
+            unanswered.remove(sequence);
+            notifyAll();
+        }
+    }
 }
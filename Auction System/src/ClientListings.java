@@ -0,0 +1,105 @@
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * @Author Lewis Linaker
+ * @Description ClientListings class which prints the auction list and the bid history of an
+ * auction for both the BuyerClient and the SellerClient, fetching them from the client's front
+ * end a page at a time. The front end is read from the supplier on every call, as it changes
+ * when the balancer moves the client to another front end.
+ */
+public class ClientListings {
+
+    // The number of bids and auctions fetched from the server at a time
+    private final static int HISTORY_PAGE_SIZE = 50;
+    private final static int AUCTION_PAGE_SIZE = 100;
+
+    /**
+     * Method used to print the auction list, fetching it from the server a page at a time
+     * and printing each page as it arrives
+     *
+     * @param balancer
+     * @param server
+     * @param openOnly
+     * @param ownerID
+     */
+    public static void printAuctions(FrontEndBalancer balancer, Supplier<AuctionInterface> server, boolean openOnly, String ownerID) {
+
+        int cursor = AuctionPage.FIRST_PAGE;
+        System.out.print(AuctionSummary.TABLE_HEADER);
+
+        try {
+
+            while (true) {
+                int after = cursor;
+                AuctionPage page = balancer.call(() -> server.get().getAuctionPage(after, AUCTION_PAGE_SIZE, openOnly, ownerID));
+
+                if (page == null) {
+                    System.out.println("Could not get the auction list");
+                    return;
+                }
+
+                for (AuctionSummary summary : page.getAuctions()) {
+                    System.out.print(summary.toTableRow());
+                }
+
+                if (!page.hasMore()) {
+                    break;
+                }
+
+                cursor = page.getNextCursor();
+            }
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method used to print the bid history of an auction, fetching it from the
+     * server a page at a time
+     *
+     * @param balancer
+     * @param server
+     * @param auctionID
+     */
+    public static void printBidHistory(FrontEndBalancer balancer, Supplier<AuctionInterface> server, int auctionID) {
+
+        long nextSequence = 0;
+
+        try {
+
+            while (true) {
+                long from = nextSequence;
+                List<BidRecord> page = balancer.call(() -> server.get().getBidHistory(auctionID, from, HISTORY_PAGE_SIZE));
+
+                if (page == null) {
+                    System.out.println("No such auction exists");
+                    return;
+                }
+
+                if (page.isEmpty()) {
+                    break;
+                }
+
+                // Bids dropped from the history between pages are reported as a gap
+                if (page.get(0).getSequence() > nextSequence) {
+                    System.out.println("... " + (page.get(0).getSequence() - nextSequence) + " older bids not kept");
+                }
+
+                for (BidRecord record : page) {
+                    System.out.println(record);
+                }
+
+                nextSequence = page.get(page.size() - 1).getSequence() + 1;
+            }
+
+            if (nextSequence == 0) {
+                System.out.println("No bids yet");
+            }
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+import org.jgroups.Address;
+import org.jgroups.MergeView;
+import org.jgroups.Message;
+import org.jgroups.View;
+import org.jgroups.blocks.RequestOptions;
+import org.jgroups.blocks.RspFilter;
+import org.jgroups.conf.ClassConfigurator;
+import org.jgroups.protocols.tom.TOA;
+import org.jgroups.util.UUID;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @Author Lewis Linaker
+ * @Description ClusterMembers class used to tell the front ends and the replicas in the group
+ * apart. Front ends join the group with a name starting with FRONT_END_PREFIX so that they
+ * receive the ordered operations for their read replica, but they are never asked for state
+ * or counted as replicas.
+ *
+ * Operations are sent to every member of the view as an anycast, as TOA in toa.xml only
+ * totally orders messages sent to an AnycastAddress. A message sent to the whole group with
+ * no destination is only kept in order with the other messages from the same sender.
+ */
+public class ClusterMembers {
+
+    // The name every front end's channel starts with
+    public final static String FRONT_END_PREFIX = "FrontEnd";
+
+    // The id of the TOA protocol, whose header every totally ordered message carries
+    private final static short TOA_ID = ClassConfigurator.getProtocolId(TOA.class);
+
+    private ClusterMembers() { }
+
+    /**
+     * @param address
+     * @return true if the member is a front end rather than a replica
+     */
+    public static boolean isFrontEnd(Address address) {
+
+        String name = UUID.get(address);
+
+        return name != null && name.startsWith(FRONT_END_PREFIX);
+    }
+
+    /**
+     * Sets the options of a call to every member of the view so that it is totally ordered
+     * with every other operation. The call must be sent to view.getMembers().
+     *
+     * @param options
+     * @return the options
+     */
+    public static RequestOptions ordered(RequestOptions options) { return options.setAnycasting(true).useAnycastAddresses(true); }
+
+    /**
+     * @param message
+     * @return true if the message was totally ordered by TOA
+     */
+    public static boolean isOrdered(Message message) { return message.getHeader(TOA_ID) != null; }
+
+    /**
+     * @Description AnswersFrom class which ends a call to every member once the given members
+     * have answered, so an ordered call can be compared between them without waiting for the rest
+     */
+    public static class AnswersFrom implements RspFilter {
+
+        private final List<Address> members;
+        private int answered;
+
+        public AnswersFrom(Address... members) { this.members = Arrays.asList(members); }
+
+        @Override
+        public synchronized boolean isAcceptable(Object response, Address sender) {
+
+            if (members.contains(sender)) {
+                answered++;
+                return true;
+            }
+
+            return false;
+        }
+
+        @Override
+        public synchronized boolean needMoreResponses() { return answered < members.size(); }
+    }
+
+    /**
+     * @param view
+     * @return the replicas in the view
+     */
+    public static List<Address> replicas(View view) {
+
+        List<Address> replicas = new ArrayList<>();
+
+        for (Address address : view.getMembers()) {
+            if (!isFrontEnd(address)) {
+                replicas.add(address);
+            }
+        }
+
+        return replicas;
+    }
+
+    /**
+     * Works out which side of a healed partition is kept where the sides disagree. It is the
+     * subgroup with the most replicas, or if two have as many, the one holding the replica
+     * listed first in the merged view, so that every member picks the same subgroup.
+     *
+     * @param view
+     * @return the primary subgroup
+     */
+    public static View primarySubgroup(MergeView view) {
+
+        List<Address> members = replicas(view);
+        View primary = null;
+        int primaryReplicas = -1;
+        int primaryFirst = Integer.MAX_VALUE;
+
+        for (View subgroup : view.getSubgroups()) {
+
+            List<Address> subgroupReplicas = replicas(subgroup);
+            int first = Integer.MAX_VALUE;
+
+            for (Address address : subgroupReplicas) {
+                int index = members.indexOf(address);
+                first = index < 0 ? first : Math.min(first, index);
+            }
+
+            if (subgroupReplicas.size() > primaryReplicas || (subgroupReplicas.size() == primaryReplicas && first < primaryFirst)) {
+                primary = subgroup;
+                primaryReplicas = subgroupReplicas.size();
+                primaryFirst = first;
+            }
+        }
+
+        return primary;
+    }
+}
@@ -0,0 +1,137 @@
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author Lewis Linaker
+ * @Description ConcurrencyGuard class which limits how many requests are handled at once.
+ * With virtual threads there is no longer a pool size to hold back a flood of clients, so
+ * requests which reach the replicas have to take a permit first. A request which cannot get
+ * one within the wait is turned away rather than queued without limit.
+ */
+public class ConcurrencyGuard {
+
+    // The message given to a client which is turned away
+    public final static String BUSY = "The server is busy, try again later";
+
+    // Private variables used by the guard
+    private final String name;
+    private final int limit;
+    private final long waitMillis;
+    private final Semaphore permits;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger peak = new AtomicInteger();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Thrown when a request is turned away
+     */
+    public static class BusyException extends Exception {
+
+        private final static long serialVersionUID = 1L;
+
+        public BusyException() { super(BUSY); }
+    }
+
+    /**
+     * @param name used in the metrics
+     * @param limit the most requests handled at once, or 0 for no limit
+     * @param waitMillis how long a request waits for a permit before it is turned away
+     */
+    public ConcurrencyGuard(String name, int limit, long waitMillis) {
+
+        this.name = name;
+        this.limit = limit;
+        this.waitMillis = waitMillis;
+        this.permits = limit > 0 ? new Semaphore(limit) : null;
+    }
+
+    /**
+     * Waits up to the guard's wait for a permit. Each permit given must be handed back
+     * with exit.
+     *
+     * @return true if the request may go ahead
+     */
+    public boolean enter() {
+
+        if (permits != null) {
+            try {
+                if (!permits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS)) {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rejected.incrementAndGet();
+                return false;
+            }
+        }
+
+        admitted.incrementAndGet();
+        peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+
+        return true;
+    }
+
+    /**
+     * Waits for a permit like enter
+     *
+     * @throws BusyException if the request is turned away
+     */
+    public void enterOrThrow() throws BusyException {
+
+        if (!enter()) {
+            throw new BusyException();
+        }
+    }
+
+    /**
+     * Hands back a permit given by enter
+     */
+    public void exit() {
+
+        active.decrementAndGet();
+
+        if (permits != null) {
+            permits.release();
+        }
+    }
+
+    /**
+     * Wraps an executor so that no more than the guard's limit of its tasks run at once.
+     * A task waits for a permit on the thread it runs on rather than being turned away, so
+     * this is meant for executors of virtual threads, where a waiting task is cheap.
+     *
+     * @param executor
+     * @return the guarded executor
+     */
+    public Executor guard(Executor executor) {
+
+        return task -> executor.execute(() -> {
+
+            if (permits != null) {
+                permits.acquireUninterruptibly();
+            }
+
+            admitted.incrementAndGet();
+            peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+
+            try {
+                task.run();
+            } finally {
+                exit();
+            }
+        });
+    }
+
+    /**
+     * @return a summary of the guard's metrics
+     */
+    public String getStats() {
+        return name + " limit=" + (limit > 0 ? limit : "none") + " active=" + active.get() + " peak=" + peak.get()
+                + " admitted=" + admitted.get() + " rejected=" + rejected.get();
+    }
+}
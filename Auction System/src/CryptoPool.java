@@ -0,0 +1,87 @@
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.util.HashMap;
+
+/**
+ * @Author Lewis Linaker
+ * @Description CryptoPool class which keeps one Signature, Cipher and Mac instance per algorithm
+ * for each thread, so that the provider lookup done by getInstance is only paid once
+ * per thread instead of once per request. Instances handed out are confined to the
+ * calling thread and must always be initialised by the caller before use.
+ */
+public class CryptoPool {
+
+    // The algorithm used to sign and verify requests
+    public final static String SIGNATURE_ALGORITHM = "SHA1withRSA";
+
+    // Each thread gets its own instances, as Signature, Cipher and Mac are not thread safe
+    private final static ThreadLocal<HashMap<String, Signature>> signatures = ThreadLocal.withInitial(HashMap::new);
+    private final static ThreadLocal<HashMap<String, Cipher>> ciphers = ThreadLocal.withInitial(HashMap::new);
+    private final static ThreadLocal<HashMap<String, Mac>> macs = ThreadLocal.withInitial(HashMap::new);
+
+    private CryptoPool() { }
+
+    /**
+     * Method used to get the calling thread's Signature instance for an algorithm
+     *
+     * @param algorithm
+     * @return signature
+     * @throws NoSuchAlgorithmException
+     */
+    public static Signature signature(String algorithm) throws NoSuchAlgorithmException {
+
+        HashMap<String, Signature> pool = signatures.get();
+        Signature signature = pool.get(algorithm);
+
+        if (signature == null) {
+            signature = Signature.getInstance(algorithm);
+            pool.put(algorithm, signature);
+        }
+
+        return signature;
+    }
+
+    /**
+     * Method used to get the calling thread's Cipher instance for a transformation
+     *
+     * @param transformation
+     * @return cipher
+     * @throws NoSuchAlgorithmException
+     * @throws NoSuchPaddingException
+     */
+    public static Cipher cipher(String transformation) throws NoSuchAlgorithmException, NoSuchPaddingException {
+
+        HashMap<String, Cipher> pool = ciphers.get();
+        Cipher cipher = pool.get(transformation);
+
+        if (cipher == null) {
+            cipher = Cipher.getInstance(transformation);
+            pool.put(transformation, cipher);
+        }
+
+        return cipher;
+    }
+
+    /**
+     * Method used to get the calling thread's Mac instance for an algorithm
+     *
+     * @param algorithm
+     * @return mac
+     * @throws NoSuchAlgorithmException
+     */
+    public static Mac mac(String algorithm) throws NoSuchAlgorithmException {
+
+        HashMap<String, Mac> pool = macs.get();
+        Mac mac = pool.get(algorithm);
+
+        if (mac == null) {
+            mac = Mac.getInstance(algorithm);
+            pool.put(algorithm, mac);
+        }
+
+        return mac;
+    }
+}
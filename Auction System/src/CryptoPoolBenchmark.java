@@ -0,0 +1,128 @@
+import javax.crypto.Cipher;
+import javax.crypto.SealedObject;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.SignedObject;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @Author Lewis Linaker
+ * @Description CryptoPoolBenchmark class which compares getting a new Signature or Cipher with
+ * getInstance for every request against taking the thread's instance from CryptoPool, with
+ * 4096-bit RSA keys like those made by GenerateKeys. Three operations are timed: looking up
+ * and initialising an instance on its own, checking a signed bid as AuctionImpl.bid does, and
+ * sealing a challenge as the handshake does. Each thread runs every operation opsPerThread
+ * times, after a warm up run which is not timed.
+ *
+ * Usage: java CryptoPoolBenchmark [opsPerThread] [threads]
+ */
+public class CryptoPoolBenchmark {
+
+    // The RSA key size made by GenerateKeys
+    private final static int KEY_SIZE = 4096;
+
+    /**
+     * An operation which gets its Signature or Cipher either from getInstance or from the pool
+     */
+    private interface Operation {
+        void run(boolean pooled) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        int opsPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        System.out.println("Generating a " + KEY_SIZE + "-bit RSA key pair");
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(KEY_SIZE);
+        KeyPair keys = generator.generateKeyPair();
+        SignedObject bid = new SignedObject(new Object[]{"bidder", 1, 10.0}, keys.getPrivate(),
+                Signature.getInstance(CryptoPool.SIGNATURE_ALGORITHM));
+
+        Operation lookup = pooled -> {
+            Signature signature = pooled ? CryptoPool.signature(CryptoPool.SIGNATURE_ALGORITHM)
+                    : Signature.getInstance(CryptoPool.SIGNATURE_ALGORITHM);
+            signature.initVerify(keys.getPublic());
+        };
+
+        Operation verify = pooled -> {
+            Signature signature = pooled ? CryptoPool.signature(CryptoPool.SIGNATURE_ALGORITHM)
+                    : Signature.getInstance(CryptoPool.SIGNATURE_ALGORITHM);
+
+            if (!bid.verify(keys.getPublic(), signature)) {
+                throw new IllegalStateException("The bid did not verify");
+            }
+        };
+
+        Operation seal = pooled -> {
+            Cipher cipher = pooled ? CryptoPool.cipher(keys.getPublic().getAlgorithm())
+                    : Cipher.getInstance(keys.getPublic().getAlgorithm());
+            cipher.init(Cipher.ENCRYPT_MODE, keys.getPublic());
+            new SealedObject("challenge", cipher);
+        };
+
+        System.out.println(opsPerThread + " operations on each of " + threads + " threads");
+        System.out.println(String.format("%-20s %-15s %-15s %s", "Operation", "Instances", "Ops/s", "Avg (us)"));
+
+        // The lookup on its own is cheap, so it is run many more times to be measurable
+        run("lookup + init", lookup, opsPerThread * 50, threads);
+        run("verify bid", verify, opsPerThread, threads);
+        run("seal challenge", seal, opsPerThread, threads);
+    }
+
+    /**
+     * Runs an operation with getInstance and then with the pool, after a warm up of each
+     */
+    private static void run(String name, Operation operation, int opsPerThread, int threads) throws Exception {
+
+        for (boolean pooled : new boolean[]{false, true}) {
+
+            time(operation, pooled, Math.max(1, opsPerThread / 10), threads);
+            double seconds = time(operation, pooled, opsPerThread, threads);
+            long ops = (long) opsPerThread * threads;
+
+            System.out.println(String.format("%-20s %-15s %-15.0f %.2f", name, pooled ? "pooled" : "getInstance",
+                    ops / seconds, seconds * 1e6 * threads / ops));
+        }
+    }
+
+    /**
+     * @return the seconds taken for every thread to run the operation opsPerThread times
+     */
+    private static double time(Operation operation, boolean pooled, int opsPerThread, int threads) throws Exception {
+
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+
+                    for (int i = 0; i < opsPerThread; i++) {
+                        operation.run(pooled);
+                    }
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                }
+
+                done.countDown();
+            }).start();
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - startTime;
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+
+        return elapsed / 1e9;
+    }
+}
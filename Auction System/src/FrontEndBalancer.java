@@ -0,0 +1,171 @@
+import java.net.MalformedURLException;
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.Naming;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * @Author Lewis Linaker
+ * @Description FrontEndBalancer class which lets a client find the AuctionServer front ends in
+ * the RMI registry and spreads clients over them. Each client sticks to one front end, picked
+ * from its user ID, so that the session from its handshake stays valid for every request. If
+ * the front end cannot be reached the client moves to the next one and the onConnect callback
+ * is run again, so the client can make a new handshake there.
+ *
+ * The registry is set with -Dauction.registry (default rmi://localhost).
+ */
+public class FrontEndBalancer {
+
+    // The registry the front ends are bound in, and the name every front end's starts with
+    public final static String REGISTRY = System.getProperty("auction.registry", "rmi://localhost");
+    public final static String NAME_PREFIX = "AuctionServer";
+
+    /**
+     * A call to a front end, which may be made again on another front end
+     */
+    public interface RemoteCall<T> {
+        T call() throws Exception;
+    }
+
+    // Private variables used by the balancer
+    private final String clientID;
+    private final Consumer<AuctionInterface> onConnect;
+    private final Set<String> unreachable = new HashSet<>();
+    private String frontEnd;
+
+    /**
+     * @param clientID the user ID, used to pick the client's front end
+     * @param onConnect run with each front end the client connects to
+     */
+    public FrontEndBalancer(String clientID, Consumer<AuctionInterface> onConnect) {
+
+        this.clientID = clientID;
+        this.onConnect = onConnect;
+    }
+
+    /**
+     * @return the names of the front ends bound in the registry, in order
+     * @throws RemoteException
+     * @throws MalformedURLException
+     */
+    public static List<String> discover() throws RemoteException, MalformedURLException {
+
+        List<String> frontEnds = new ArrayList<>();
+
+        for (String url : Naming.list(REGISTRY)) {
+            String name = url.substring(url.lastIndexOf('/') + 1);
+
+            if (name.startsWith(NAME_PREFIX)) {
+                frontEnds.add(name);
+            }
+        }
+
+        Collections.sort(frontEnds);
+
+        return frontEnds;
+    }
+
+    /**
+     * @param name
+     * @return the front end bound under the name
+     * @throws Exception
+     */
+    public static AuctionInterface lookup(String name) throws Exception {
+        return (AuctionInterface) Naming.lookup(REGISTRY + "/" + name);
+    }
+
+    /**
+     * Connects to the client's front end, or the next one which can be reached
+     *
+     * @throws RemoteException if no front end can be reached
+     */
+    public synchronized void connect() throws RemoteException {
+
+        List<String> frontEnds;
+
+        try {
+            frontEnds = discover();
+            frontEnds.removeAll(unreachable);
+
+            // Every front end is tried again once none are left
+            if (frontEnds.isEmpty()) {
+                unreachable.clear();
+                frontEnds = discover();
+            }
+        } catch (MalformedURLException e) {
+            throw new RemoteException("Bad registry " + REGISTRY, e);
+        }
+
+        if (frontEnds.isEmpty()) {
+            throw new RemoteException("No AuctionServer is bound in " + REGISTRY);
+        }
+
+        int first = Math.floorMod(clientID.hashCode(), frontEnds.size());
+
+        for (int i = 0; i < frontEnds.size(); i++) {
+
+            String name = frontEnds.get((first + i) % frontEnds.size());
+
+            try {
+                AuctionInterface server = lookup(name);
+                frontEnd = name;
+                System.out.println("Connected To " + name);
+                onConnect.accept(server);
+                return;
+            } catch (NotBoundException | RemoteException e) {
+                unreachable.add(name);
+            } catch (Exception e) {
+                e.printStackTrace();
+                unreachable.add(name);
+            }
+        }
+
+        throw new RemoteException("No AuctionServer could be reached");
+    }
+
+    /**
+     * Makes a call to the client's front end. If the front end cannot be reached the client
+     * moves to another and the call is made again, building its request again so that it
+     * uses the session made with the new front end. Only failures which mean the call never
+     * reached the front end are tried again, so a request is never applied twice.
+     *
+     * @param call
+     * @return the result of the call
+     * @throws Exception
+     */
+    public <T> T call(RemoteCall<T> call) throws Exception {
+
+        int attempts = 0;
+
+        while (true) {
+            try {
+                return call.call();
+            } catch (ConnectException | ConnectIOException | NoSuchObjectException e) {
+
+                if (++attempts > Math.max(1, discover().size())) {
+                    throw e;
+                }
+
+                synchronized (this) {
+                    System.out.println("AuctionServer " + frontEnd + " cannot be reached, trying another");
+                    unreachable.add(frontEnd);
+                }
+
+                connect();
+            }
+        }
+    }
+
+    /**
+     * @return the name of the front end the client is connected to
+     */
+    public synchronized String getFrontEnd() { return frontEnd; }
+}
@@ -0,0 +1,672 @@
+import org.jgroups.Address;
+import org.jgroups.JChannel;
+import org.jgroups.MergeView;
+import org.jgroups.Message;
+import org.jgroups.Receiver;
+import org.jgroups.View;
+import org.jgroups.blocks.MethodCall;
+import org.jgroups.blocks.RequestOptions;
+import org.jgroups.blocks.ResponseMode;
+import org.jgroups.blocks.mux.MuxRpcDispatcher;
+import org.jgroups.util.NotifyingFuture;
+import org.jgroups.util.Rsp;
+import org.jgroups.util.RspList;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * @Author Lewis Linaker
+ * @Description FrontEndShard class which connects the AuctionImpl front end to the replicas of
+ * one shard. It joins the shard's cluster so that it receives the shard's ordered operations
+ * and applies them to a read replica of its own, which reads are answered from while it is up
+ * to date.
+ *
+ * The dispatcher is installed before the channel connects, so no operation delivered while the
+ * read replica is loaded is lost. A read replica can still miss operations, for example those
+ * delivered before its state was taken, so every VERSION_CHECK_MILLIS (-Dauction.readReplica.checkMs,
+ * 0 for never) an ordered getVersion is answered by the read replica and by a replica at the same
+ * point in the order. If the versions differ the read replica is marked stale and replaced.
+ *
+ * Writes return as soon as the ResponseAggregator's policy is met. Reads which cannot be
+ * answered locally are hedged: they are sent to the replica which has been quickest, and only
+ * sent to the next replica if no answer comes within a delay worked out from its latency.
+ */
+public class FrontEndShard implements Receiver {
+
+    // How long to wait for the replicas to answer
+    private final static long TIMEOUT = 5000;
+
+    // Whether remote reads are hedged (-Dauction.read.hedge), and the least time to wait
+    // before asking another replica (-Dauction.read.hedgeMinMs)
+    public final static boolean HEDGED_READS = Boolean.parseBoolean(System.getProperty("auction.read.hedge", "true"));
+    public final static long HEDGE_MIN_MILLIS = Long.getLong("auction.read.hedgeMinMs", 5L);
+
+    // How often the read replica's version is compared with a replica's, or 0 for never
+    public final static long VERSION_CHECK_MILLIS = Long.getLong("auction.readReplica.checkMs", 5000L);
+
+    // Ends writes sent with writeFuture which have not met the response policy within TIMEOUT
+    private final static ScheduledExecutorService TIMEOUTS = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "FrontEndShard-timeouts");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Compares each read replica's version with a replica's
+    private final static ScheduledExecutorService VERSION_CHECKS = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "FrontEndShard-versionChecks");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Private variables used to talk to the shard's replicas
+    private final int shard;
+    private final JChannel channel;
+    private final MuxRpcDispatcher dispatcher;
+    private final ConcurrencyGuard guard;
+
+    /**
+     * Private variables used for the read replica, which applies the same ordered
+     * operations as the replicas so that reads can be answered locally
+     */
+    private final AuctionStore readReplica = new AuctionStore();
+    private volatile boolean readReplicaReady;
+    private volatile long readReplicaStaleSince;
+    private final AtomicBoolean readReplicaRefreshing = new AtomicBoolean();
+    private volatile boolean replaceReadReplica;
+    private final AtomicLong localReads = new AtomicLong();
+    private final AtomicLong remoteReads = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong underReplicatedWrites = new AtomicLong();
+    private final AtomicLong readReplicaGaps = new AtomicLong();
+
+    // Private variables used to count the responses to writes and to time each replica's reads
+    private final ResponseAggregator aggregator = new ResponseAggregator();
+    private final ConcurrentHashMap<Address, Double> readLatency = new ConcurrentHashMap<>();
+    private final AtomicLong hedgedReads = new AtomicLong();
+
+    /**
+     * Joins the cluster of a shard and loads the read replica from one of its replicas
+     *
+     * @param shard
+     * @param guard limits the writes and remote reads in progress at once
+     * @throws Exception
+     */
+    public FrontEndShard(int shard, ConcurrencyGuard guard) throws Exception {
+
+        this.shard = shard;
+        this.guard = guard;
+
+        // The front end receives its own operations too, so that they are applied to its
+        // read replica in order
+        channel = new JChannel("toa.xml");
+        channel.setReceiver(this);
+        channel.setDiscardOwnMessages(false);
+        channel.setName(ClusterMembers.FRONT_END_PREFIX);
+        dispatcher = new MuxRpcDispatcher((short) 1, channel, this, this, readReplica);
+        channel.connect(ShardMap.clusterName(shard));
+        refreshReadReplica(replicas(), false);
+
+        if (VERSION_CHECK_MILLIS > 0) {
+            VERSION_CHECKS.scheduleWithFixedDelay(this::checkReadReplicaVersion, VERSION_CHECK_MILLIS, VERSION_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return the number of the shard
+     */
+    public int getShard() { return shard; }
+
+    /**
+     * Method used to send an operation to every member of the shard
+     *
+     * @param method
+     * @param args
+     * @param types
+     * @return the responses
+     * @throws ConcurrencyGuard.BusyException if too many requests are in progress
+     * @throws Exception
+     */
+    public RspList<Object> write(String method, Object[] args, Class<?>[] types) throws Exception {
+
+        guard.enterOrThrow();
+
+        try {
+            RspList<Object> rspList = dispatcher.callRemoteMethods(channel.getView().getMembers(), method, args, types, writeOptions());
+            checkReadReplica(rspList);
+
+            return rspList;
+        } finally {
+            guard.exit();
+        }
+    }
+
+    /**
+     * Method used to send an operation to every member of the shard and wait for every
+     * replica to answer, whatever the response policy. Used to lease auction IDs, which
+     * must be agreed by a majority of the replicas and are rare enough not to need the
+     * policy.
+     *
+     * @param method
+     * @param args
+     * @param types
+     * @return the responses
+     * @throws Exception
+     */
+    public RspList<Object> writeToAll(String method, Object[] args, Class<?>[] types) throws Exception {
+
+        RspList<Object> rspList = dispatcher.callRemoteMethods(channel.getView().getMembers(), method, args, types,
+                ClusterMembers.ordered(new RequestOptions(ResponseMode.GET_ALL, TIMEOUT)));
+        checkReadReplica(rspList);
+
+        return rspList;
+    }
+
+    /**
+     * Method used to send an operation to every member of the shard without waiting for
+     * the responses, so that operations for several shards can be in flight at once.
+     * checkWrite must be called with the responses.
+     *
+     * @param method
+     * @param args
+     * @param types
+     * @return a future for the responses
+     * @throws Exception
+     */
+    public NotifyingFuture<RspList<Object>> writeAsync(String method, Object[] args, Class<?>[] types) throws Exception {
+        return dispatcher.callRemoteMethodsWithFuture(channel.getView().getMembers(), new MethodCall(method, args, types), writeOptions());
+    }
+
+    /**
+     * Method used to send an operation to every member of the shard, completing the returned
+     * future from the dispatcher's listener so that no thread waits for the replicas. A call
+     * is only completed by its listener once the response policy is met, so a call which has
+     * not met it within TIMEOUT is ended and completed with the responses it has.
+     * checkWrite must be called with the responses.
+     *
+     * @param method
+     * @param args
+     * @param types
+     * @return a future for the responses
+     */
+    public CompletableFuture<RspList<Object>> writeFuture(String method, Object[] args, Class<?>[] types) {
+
+        CompletableFuture<RspList<Object>> result = new CompletableFuture<>();
+
+        try {
+            NotifyingFuture<RspList<Object>> future = writeAsync(method, args, types);
+
+            ScheduledFuture<?> timeout = TIMEOUTS.schedule(() -> {
+                future.cancel(false);
+                complete(result, future);
+            }, TIMEOUT, TimeUnit.MILLISECONDS);
+
+            future.setListener(done -> {
+                timeout.cancel(false);
+                complete(result, done);
+            });
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+
+        return result;
+    }
+
+    /**
+     * Completes a future with the responses to a call which has ended
+     *
+     * @param result
+     * @param call
+     */
+    private static void complete(CompletableFuture<RspList<Object>> result, Future<RspList<Object>> call) {
+
+        try {
+            result.complete(call.get());
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @return the options for a write, which is totally ordered with every other operation and
+     * ends once the response policy is met
+     */
+    private RequestOptions writeOptions() {
+        return ClusterMembers.ordered(new RequestOptions(ResponseMode.GET_ALL, TIMEOUT)
+                .setRspFilter(aggregator.newFilter(replicas().size(), channel.getAddress())));
+    }
+
+    /**
+     * Works out the response given by the most replicas
+     *
+     * @param rspList
+     * @param index the position of the response when each replica answered with an array
+     * of responses, or -1 when each replica answered with a single response
+     * @return majorityResponse
+     */
+    public String majority(RspList<Object> rspList, int index) { return aggregator.majority(rspList, index); }
+
+    /**
+     * Checks the responses to a write sent with writeAsync
+     *
+     * @param rspList
+     */
+    public void checkWrite(RspList<Object> rspList) { checkReadReplica(rspList); }
+
+    /**
+     * Method used to answer a read, from the read replica if it is up to date enough and
+     * from the first replica to answer if not
+     *
+     * @param local
+     * @param method
+     * @param args
+     * @param types
+     * @return result
+     * @throws ConcurrencyGuard.BusyException if too many requests are in progress
+     * @throws Exception
+     */
+    public Object read(Function<AuctionStore, Object> local, String method, Object[] args, Class<?>[] types) throws Exception {
+
+        if (canReadLocally()) {
+            localReads.incrementAndGet();
+            return local.apply(readReplica);
+        }
+
+        return readRemotely(method, args, types);
+    }
+
+    /**
+     * Method used to answer a read of one auction. An archived auction is not held by the
+     * read replica, so it is always read from a replica, which reads it from its archive.
+     *
+     * @param auctionID
+     * @param local
+     * @param method
+     * @param args
+     * @param types
+     * @return result
+     * @throws ConcurrencyGuard.BusyException if too many requests are in progress
+     * @throws Exception
+     */
+    public Object readAuction(int auctionID, Function<AuctionStore, Object> local, String method, Object[] args, Class<?>[] types) throws Exception {
+
+        if (readReplica.isArchived(auctionID)) {
+            return readRemotely(method, args, types);
+        }
+
+        return read(local, method, args, types);
+    }
+
+    /**
+     * Method used to answer a read from the replicas
+     */
+    private Object readRemotely(String method, Object[] args, Class<?>[] types) throws Exception {
+
+        remoteReads.incrementAndGet();
+        guard.enterOrThrow();
+
+        try {
+            if (!HEDGED_READS) {
+                RspList<Object> rspList = dispatcher.callRemoteMethods(replicas(), method, args, types, new RequestOptions(ResponseMode.GET_FIRST, TIMEOUT));
+                return rspList.getFirst();
+            }
+
+            return hedgedRead(new MethodCall(method, args, types));
+        } finally {
+            guard.exit();
+        }
+    }
+
+    /**
+     * Method used to send a read to the quickest replica, then to the next quickest if it has
+     * not answered within twice its usual latency, and so on. The first answer is used.
+     *
+     * @param call
+     * @return result, or null if no replica answered
+     * @throws Exception
+     */
+    private Object hedgedRead(MethodCall call) throws Exception {
+
+        List<Address> replicas = new ArrayList<>(replicas());
+        replicas.sort(Comparator.comparingDouble(address -> readLatency.getOrDefault(address, 0.0)));
+
+        CompletableFuture<Object> first = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+
+        for (int i = 0; i < replicas.size(); i++) {
+
+            Address replica = replicas.get(i);
+            long sent = System.nanoTime();
+
+            if (i > 0) {
+                hedgedReads.incrementAndGet();
+            }
+
+            NotifyingFuture<Object> future = dispatcher.callRemoteMethodWithFuture(replica, call, new RequestOptions(ResponseMode.GET_FIRST, TIMEOUT));
+            future.setListener(done -> {
+                try {
+                    Object result = done.get();
+                    double millis = (System.nanoTime() - sent) / 1e6;
+                    readLatency.merge(replica, millis, (old, latest) -> old * 0.8 + latest * 0.2);
+                    first.complete(result);
+                } catch (Exception e) {
+                    // Another replica may still answer, unless every one has failed
+                    if (failures.incrementAndGet() == replicas.size()) {
+                        first.complete(null);
+                    }
+                }
+            });
+
+            long hedgeDelay = Math.max(HEDGE_MIN_MILLIS, (long) (2 * readLatency.getOrDefault(replica, 0.0)));
+            long wait = i == replicas.size() - 1 ? deadline - System.currentTimeMillis() : Math.min(hedgeDelay, deadline - System.currentTimeMillis());
+
+            try {
+                return first.get(Math.max(0, wait), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // Asks the next replica as well
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Checks to see if reads can be served by the read replica. The read replica is up to
+     * date as long as it answers every write this front end sends; once it has missed one,
+     * it may still be read from for MAX_STALENESS_MILLIS while it is refreshed.
+     *
+     * @return true if the read replica can be read from
+     */
+    private boolean canReadLocally() {
+
+        if (!AuctionImpl.LOCAL_READS || !readReplicaReady) {
+            return false;
+        }
+
+        long staleSince = readReplicaStaleSince;
+
+        if (staleSince == 0) {
+            return true;
+        }
+
+        // Refreshes the read replica from a replica in the background
+        if (readReplicaRefreshing.compareAndSet(false, true)) {
+            new Thread(() -> {
+                try {
+                    refreshReadReplica(replicas(), false);
+                } finally {
+                    readReplicaRefreshing.set(false);
+                }
+            }, "ReadReplica-refresh-" + shard).start();
+        }
+
+        return System.currentTimeMillis() - staleSince <= AuctionImpl.MAX_STALENESS_MILLIS;
+    }
+
+    /**
+     * Counts a write and checks that the read replica applied it, marking the
+     * read replica as stale if it did not. Also warns when the write was sent to fewer than
+     * a majority of the shard's replicas. As a write may return before every replica has
+     * answered, the replicas it was sent to are counted rather than those which answered.
+     *
+     * @param rspList
+     */
+    private void checkReadReplica(RspList<Object> rspList) {
+
+        writes.incrementAndGet();
+        Rsp<Object> own = rspList.get(channel.getAddress());
+
+        if ((own == null || !own.wasReceived()) && readReplicaStaleSince == 0) {
+            readReplicaStaleSince = System.currentTimeMillis();
+        }
+
+        int factor = ShardMap.replicationFactor(shard);
+        int sentTo = 0;
+
+        for (Object address : rspList.keySet()) {
+            if (!ClusterMembers.isFrontEnd((Address) address)) {
+                sentTo++;
+            }
+        }
+
+        if (factor > 0 && sentTo <= factor / 2) {
+            underReplicatedWrites.incrementAndGet();
+            System.err.println("Shard " + shard + " write reached " + sentTo + " of " + factor + " replicas");
+        }
+    }
+
+    /**
+     * Method used to get the read replica's state from the first replica which can give it
+     *
+     * @param replicas the replicas to ask, in turn
+     * @param replace true to replace the read replica's auctions rather than merge into them
+     */
+    private void refreshReadReplica(List<Address> replicas, boolean replace) {
+
+        // With no replicas there is no state to get, so the empty read replica is up to date
+        if (replicas.isEmpty()) {
+            readReplicaReady = true;
+            readReplicaStaleSince = 0;
+            return;
+        }
+
+        for (Address address : replicas) {
+
+            try {
+                replaceReadReplica = replace;
+                channel.getState(address, TIMEOUT);
+                System.out.println("Shard " + shard + " read replica " + (replace ? "replaced" : "loaded") + " from " + address);
+                return;
+            } catch (Exception e) {
+                System.err.println("Cannot get state from: " + address.toString());
+            } finally {
+                replaceReadReplica = false;
+            }
+        }
+    }
+
+    /**
+     * Sends an ordered getVersion which the read replica and the first replica answer at the
+     * same point in the order, so they must give the same version unless the read replica
+     * has missed or doubled an operation. If they differ the read replica is marked stale and
+     * replaced from the replica. A replica which is catching up answers with an exception and
+     * is not compared.
+     */
+    private void checkReadReplicaVersion() {
+
+        List<Address> replicas = replicas();
+
+        if (!readReplicaReady || replicas.isEmpty() || readReplicaRefreshing.get()) {
+            return;
+        }
+
+        Address replica = replicas.get(0);
+
+        try {
+            RspList<Long> rspList = dispatcher.callRemoteMethods(channel.getView().getMembers(), "getVersion",
+                    new Object[]{}, new Class<?>[]{},
+                    ClusterMembers.ordered(new RequestOptions(ResponseMode.GET_ALL, TIMEOUT)
+                            .setRspFilter(new ClusterMembers.AnswersFrom(replica, channel.getAddress()))));
+            Rsp<Long> own = rspList.get(channel.getAddress());
+            Rsp<Long> theirs = rspList.get(replica);
+
+            if (own == null || theirs == null || !own.wasReceived() || !theirs.wasReceived()
+                    || own.hasException() || theirs.hasException() || own.getValue().equals(theirs.getValue())) {
+                return;
+            }
+
+            readReplicaGaps.incrementAndGet();
+            System.err.println("Shard " + shard + " read replica is at version " + own.getValue() + " but "
+                    + replica + " is at " + theirs.getValue() + ", replacing it");
+
+            if (readReplicaStaleSince == 0) {
+                readReplicaStaleSince = System.currentTimeMillis();
+            }
+
+            if (readReplicaRefreshing.compareAndSet(false, true)) {
+                try {
+                    refreshReadReplica(Collections.singletonList(replica), true);
+                } finally {
+                    readReplicaRefreshing.set(false);
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the replicas in the shard, leaving out the front ends
+     */
+    public List<Address> replicas() { return ClusterMembers.replicas(channel.getView()); }
+
+    /**
+     * @param rspList
+     * @return the number of replicas which answered, leaving out the front ends
+     */
+    public int replicaResponses(RspList<Object> rspList) {
+
+        int responses = 0;
+
+        for (Object address : rspList.keySet()) {
+            if (!ClusterMembers.isFrontEnd((Address) address) && rspList.get(address).wasReceived()) {
+                responses++;
+            }
+        }
+
+        return responses;
+    }
+
+    /**
+     * @param rspList
+     * @param value
+     * @return the number of replicas which answered with the value, leaving out the front ends
+     */
+    public int replicasAnswering(RspList<Object> rspList, Object value) {
+
+        int responses = 0;
+
+        for (Object address : rspList.keySet()) {
+            Rsp<Object> rsp = rspList.get(address);
+
+            if (!ClusterMembers.isFrontEnd((Address) address) && rsp.wasReceived() && value.equals(rsp.getValue())) {
+                responses++;
+            }
+        }
+
+        return responses;
+    }
+
+    /**
+     * @return the highest auction ID any replica of the shard has seen, or 0
+     */
+    public int getIdCounter() throws Exception {
+
+        RspList<Object> rspList = dispatcher.callRemoteMethods(replicas(), "getIdCounter", new Object[]{}, new Class<?>[]{}, new RequestOptions(ResponseMode.GET_FIRST, TIMEOUT));
+
+        return rspList.getFirst() != null ? (int) rspList.getFirst() : 0;
+    }
+
+    /**
+     * @return the read replica
+     */
+    public AuctionStore getReadReplica() { return readReplica; }
+
+    /**
+     * @return a summary of the shard's read and write metrics
+     */
+    public String getStats() {
+        return "Shard " + shard + " replicas=" + replicas().size() + " reads local=" + localReads.get()
+                + " remote=" + remoteReads.get() + " writes=" + writes.get() + " underReplicated=" + underReplicatedWrites.get()
+                + " hedgedReads=" + hedgedReads.get() + " readReplicaAuctions=" + readReplica.size()
+                + " readReplicaStale=" + (readReplicaStaleSince != 0) + " readReplicaGaps=" + readReplicaGaps.get()
+                + " " + aggregator.getStats();
+    }
+
+    /**
+     * Prints out a table view
+     * @param view
+     */
+    @Override
+    public void viewAccepted(View view) {
+
+        System.out.println("Shard " + shard + " " + view);
+
+        // After a partition heals, a front end which was not on the primary side reloads its
+        // read replica from that side, as the replicas do, and reads from the replicas until then
+        if (view instanceof MergeView) {
+
+            View primary = ClusterMembers.primarySubgroup((MergeView) view);
+
+            if (primary == null || primary.containsMember(channel.getAddress())) {
+                return;
+            }
+
+            readReplicaReady = false;
+            List<Address> donors = ClusterMembers.replicas(primary);
+
+            new Thread(() -> refreshReadReplica(donors, true), "ReadReplica-merge-" + shard).start();
+        }
+    }
+
+    @Override
+    public void suspect(Address address) { }
+
+    @Override
+    public void block() { }
+
+    @Override
+    public void unblock() { }
+
+    @Override
+    public void receive(Message message) { }
+
+    /**
+     * Method used to write the read replica's state
+     *
+     * @param outputStream
+     * @throws Exception
+     */
+    @Override
+    public void getState(OutputStream outputStream) throws Exception {
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+        readReplica.writeState(out);
+        out.flush();
+    }
+
+    /**
+     * Method used to load the read replica's state from a replica
+     *
+     * @param inputStream
+     * @throws Exception
+     */
+    @Override
+    public void setState(InputStream inputStream) throws Exception {
+
+        readReplica.readState(new DataInputStream(new BufferedInputStream(inputStream)), replaceReadReplica);
+        readReplicaReady = true;
+        readReplicaStaleSince = 0;
+    }
+}
@@ -110,7 +110,7 @@ public class GenerateKeys {
         PublicKey publicKey = null;
 
         try {
-            FileInputStream fileInputStream = new FileInputStream("./Keys/"+id + "/PublicKey.key");
+            FileInputStream fileInputStream = new FileInputStream(getPublicKeyFile(id));
             ObjectInputStream objectInputStream = new ObjectInputStream(fileInputStream);
             publicKey = (PublicKey)objectInputStream.readObject();
             objectInputStream.close();
@@ -126,5 +126,12 @@ public class GenerateKeys {
         return publicKey;
     }
 
-}
+    /**
+     * Method used to get the file a user's PublicKey is stored in
+     *
+     * @param id
+     * @return publicKeyFile
+     */
+    public static File getPublicKeyFile(String id) { return new File("./Keys/" + id + "/PublicKey.key"); }
 
+}
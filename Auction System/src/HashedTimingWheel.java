@@ -0,0 +1,220 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * @Author Lewis Linaker
+ * @Description HashedTimingWheel class which holds a very large number of deadlines cheaply.
+ * The wheel is a ring of buckets, one per tick, and a deadline is put in the bucket of the tick
+ * it falls in, along with the number of turns of the wheel still to go. Scheduling is O(1) and
+ * each tick only looks at one bucket, whatever the number of deadlines, at the cost of firing up
+ * to one tick late.
+ *
+ * Deadlines may be scheduled from any thread. They are queued and moved into the buckets by the
+ * wheel's own thread, which is the only thread to touch the buckets, so the wheel needs no locks.
+ * Deadlines are wall clock times in milliseconds, and cannot be cancelled: whoever is told about
+ * an expired item checks that it still needs doing.
+ *
+ * @param <T> the items the deadlines are for
+ */
+public class HashedTimingWheel<T> {
+
+    // The most deadlines moved from the queue into the buckets in one tick, so that a flood of
+    // scheduling cannot hold up a tick
+    private final static int MAX_TRANSFERS_PER_TICK = 100000;
+
+    /**
+     * A deadline in a bucket. The deadlines of a bucket are kept as a linked list through
+     * the deadlines themselves, so each one costs a single small object.
+     */
+    private static class Deadline<T> {
+
+        private final T item;
+        private final long time;
+        private long rounds;
+        private Deadline<T> next;
+
+        Deadline(T item, long time) {
+            this.item = item;
+            this.time = time;
+        }
+    }
+
+    // Private variables used to hold the wheel and the deadlines waiting to be added to it
+    private final String name;
+    private final long tickMillis;
+    private final int mask;
+    private final Deadline<T>[] buckets;
+    private final ConcurrentLinkedQueue<Deadline<T>> added = new ConcurrentLinkedQueue<>();
+    private final Consumer<List<T>> onExpired;
+    private final long startTime = System.currentTimeMillis();
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private volatile boolean running;
+    private long tick;
+
+    /**
+     * @param name the name of the wheel's thread
+     * @param tickMillis the length of a tick
+     * @param ticksPerWheel the number of buckets, rounded up to a power of two
+     * @param onExpired told, on the wheel's thread, about the items which expired in a tick
+     */
+    @SuppressWarnings("unchecked")
+    public HashedTimingWheel(String name, long tickMillis, int ticksPerWheel, Consumer<List<T>> onExpired) {
+
+        if (tickMillis <= 0 || ticksPerWheel <= 0) {
+            throw new IllegalArgumentException("The tick and the number of ticks must be more than 0");
+        }
+
+        this.name = name;
+        this.tickMillis = tickMillis;
+        this.onExpired = onExpired;
+
+        int size = Integer.highestOneBit(ticksPerWheel);
+        size = size < ticksPerWheel ? size << 1 : size;
+        this.mask = size - 1;
+        this.buckets = (Deadline<T>[]) new Deadline<?>[size];
+    }
+
+    /**
+     * Starts the wheel's thread
+     */
+    public synchronized void start() {
+
+        if (running) {
+            return;
+        }
+
+        running = true;
+        Thread worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Stops the wheel's thread. Deadlines which have not expired are not fired.
+     */
+    public void stop() { running = false; }
+
+    /**
+     * Schedules an item to be expired at a time. A time already passed expires on the next tick.
+     *
+     * @param item
+     * @param time the wall clock time in milliseconds
+     */
+    public void schedule(T item, long time) {
+        pending.incrementAndGet();
+        added.add(new Deadline<>(item, time));
+    }
+
+    /**
+     * @return the number of deadlines which have not expired
+     */
+    public long size() { return pending.get(); }
+
+    /**
+     * @return a summary of the wheel
+     */
+    public String getStats() {
+        return name + " tick=" + tickMillis + "ms buckets=" + buckets.length + " pending=" + pending.get() + " expired=" + expired.get();
+    }
+
+    /**
+     * Moves the wheel on a tick at a time, sleeping until each tick is due
+     */
+    private void run() {
+
+        while (running) {
+
+            long tickEnd = startTime + (tick + 1) * tickMillis;
+            long sleep = tickEnd - System.currentTimeMillis();
+
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+
+            transferAdded();
+            List<T> items = expireBucket(tickEnd);
+
+            if (!items.isEmpty()) {
+                expired.addAndGet(items.size());
+                pending.addAndGet(-items.size());
+
+                try {
+                    onExpired.accept(items);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            tick++;
+        }
+    }
+
+    /**
+     * Puts the newly scheduled deadlines in their buckets
+     */
+    private void transferAdded() {
+
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+
+            Deadline<T> deadline = added.poll();
+
+            if (deadline == null) {
+                return;
+            }
+
+            // A deadline in the past, or in the current tick, goes in the current bucket
+            long due = Math.max(tick, (deadline.time - startTime) / tickMillis);
+            deadline.rounds = (due - tick) / buckets.length;
+
+            int index = (int) (due & mask);
+            deadline.next = buckets[index];
+            buckets[index] = deadline;
+        }
+    }
+
+    /**
+     * Takes the deadlines of the current tick out of its bucket, and counts down the turns
+     * of those which are due on a later turn of the wheel
+     *
+     * @param tickEnd the time the current tick ends at
+     * @return the expired items
+     */
+    private List<T> expireBucket(long tickEnd) {
+
+        List<T> items = new ArrayList<>();
+        int index = (int) (tick & mask);
+        Deadline<T> previous = null;
+        Deadline<T> deadline = buckets[index];
+
+        while (deadline != null) {
+
+            Deadline<T> next = deadline.next;
+
+            if (deadline.rounds <= 0 && deadline.time < tickEnd) {
+                items.add(deadline.item);
+
+                if (previous == null) {
+                    buckets[index] = next;
+                } else {
+                    previous.next = next;
+                }
+            } else {
+                deadline.rounds--;
+                previous = deadline;
+            }
+
+            deadline = next;
+        }
+
+        return items;
+    }
+}
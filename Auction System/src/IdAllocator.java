@@ -0,0 +1,209 @@
+import org.jgroups.Address;
+import org.jgroups.util.Rsp;
+import org.jgroups.util.RspList;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author Lewis Linaker
+ * @Description IdAllocator class which hands out auction IDs in a front end. IDs are leased
+ * from the replicas of LEASE_SHARD a block at a time, through the ordered channel, so no two
+ * front ends are ever given the same block and any number of front ends can run at once. A
+ * lease waits for every replica and is only used if a majority of the shard's replicas gave
+ * the same block. IDs are then handed out from the block without a round trip to the replicas.
+ * A replica still turns down an auction whose ID is already held, so an ID given out twice
+ * is reported to the seller rather than losing an auction.
+ *
+ * The next block is leased in the background once half of the current block is used, so
+ * creating an auction only waits for a lease when IDs are handed out faster than a lease
+ * takes. IDs left in a block when the front end stops are never used.
+ *
+ * The block size is set with -Dauction.idBlockSize.
+ */
+public class IdAllocator {
+
+    // The number of IDs leased at a time, and the shard whose replicas lease them
+    public final static int BLOCK_SIZE = Math.max(1, Integer.getInteger("auction.idBlockSize", 10000));
+    public final static int LEASE_SHARD = 0;
+
+    // How long to wait for a lease before giving up
+    private final static long LEASE_TIMEOUT = 10000;
+
+    /**
+     * A block of leased IDs
+     */
+    private static class Block {
+
+        private final AtomicInteger next;
+        private final int last;
+        private final int refillAt;
+
+        Block(int first, int last) {
+            this.next = new AtomicInteger(first);
+            this.last = last;
+            this.refillAt = first + (last - first + 1) / 2;
+        }
+    }
+
+    // Private variables used by the allocator
+    private final FrontEndShard leaser;
+    private final ExecutorService leaseThread = RequestThreads.newPlatformExecutor("IdAllocator-lease", 1);
+    private volatile Block current = new Block(1, 0);
+    private CompletableFuture<Block> nextBlock;
+    private final int floor;
+    private final AtomicLong leases = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+
+    /**
+     * Starts leasing the first block
+     *
+     * @param leaser the shard IDs are leased from
+     * @param floor the highest auction ID known of, which every block is above
+     */
+    public IdAllocator(FrontEndShard leaser, int floor) {
+
+        this.leaser = leaser;
+        this.floor = floor;
+        prefetch();
+    }
+
+    /**
+     * @return the next auction ID
+     * @throws IllegalStateException if no block could be leased
+     */
+    public int nextId() {
+
+        while (true) {
+
+            Block block = current;
+            int id = block.next.getAndIncrement();
+
+            if (id <= block.last) {
+                if (id == block.refillAt) {
+                    prefetch();
+                }
+                return id;
+            }
+
+            advance(block);
+        }
+    }
+
+    /**
+     * Moves on to the next block once a block is used up, waiting for it to be leased if
+     * it has not been yet
+     *
+     * @param used
+     */
+    private synchronized void advance(Block used) {
+
+        // Another thread has already moved on
+        if (current != used) {
+            return;
+        }
+
+        prefetch();
+
+        try {
+            if (!nextBlock.isDone()) {
+                waits.incrementAndGet();
+            }
+
+            current = nextBlock.get(LEASE_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while leasing auction IDs", e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IllegalStateException("Cannot lease auction IDs", e);
+        } finally {
+            // A failed lease is tried again by the next caller
+            nextBlock = null;
+        }
+    }
+
+    /**
+     * Starts leasing the next block, unless it already has been
+     */
+    private synchronized void prefetch() {
+
+        if (nextBlock == null) {
+            nextBlock = CompletableFuture.supplyAsync(this::lease, leaseThread);
+        }
+    }
+
+    /**
+     * Leases a block from the replicas. Every replica applies the lease at the same point in
+     * the total order and so works out the same block. The block is only used if more than
+     * half of the replicas the lease was sent to gave it, so there is never a tie between two
+     * blocks and a block given by a replica which is out of step is never used.
+     *
+     * @return block
+     */
+    private Block lease() {
+
+        try {
+            RspList<Object> rspList = leaser.writeToAll("leaseIdBlock", new Object[]{BLOCK_SIZE, floor}, new Class<?>[]{int.class, int.class});
+            Map<Integer, Integer> votes = new HashMap<>();
+            int replicas = 0;
+
+            for (Object address : rspList.keySet()) {
+                Rsp<Object> rsp = rspList.get(address);
+
+                if (ClusterMembers.isFrontEnd((Address) address)) {
+                    continue;
+                }
+
+                replicas++;
+
+                if (rsp.wasReceived() && rsp.getValue() instanceof Integer) {
+                    votes.merge((Integer) rsp.getValue(), 1, Integer::sum);
+                }
+            }
+
+            if (votes.size() > 1) {
+                System.err.println("The replicas of shard " + leaser.getShard() + " disagreed on a lease: " + votes);
+            }
+
+            int first = 0;
+
+            for (Map.Entry<Integer, Integer> vote : votes.entrySet()) {
+                if (vote.getValue() > replicas / 2) {
+                    first = vote.getKey();
+                }
+            }
+
+            if (first == 0) {
+                throw new IllegalStateException("No majority of the replicas of shard " + leaser.getShard() + " leased auction IDs");
+            }
+
+            leases.incrementAndGet();
+            System.out.println("Leased auction IDs " + first + " to " + (first + BLOCK_SIZE - 1));
+
+            return new Block(first, first + BLOCK_SIZE - 1);
+
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return a summary of the allocator's metrics
+     */
+    public String getStats() {
+
+        Block block = current;
+
+        return "IdAllocator blockSize=" + BLOCK_SIZE + " leases=" + leases.get() + " waits=" + waits.get()
+                + " left=" + Math.max(0, block.last - block.next.get() + 1);
+    }
+}
@@ -0,0 +1,271 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * @Author Lewis Linaker
+ * @Description MappedSnapshot class which reads a snapshot of an AuctionStore by mapping the
+ * file into memory. Nothing is read when the snapshot is opened apart from its footer; auctions
+ * are found by a binary search of the index and only read back when they are asked for.
+ *
+ * The file holds the auctions, then an index of (auction ID, changed at, end time, closed,
+ * offset, length) sorted by auction ID, then a footer. The end time and closed flag let the
+ * replica schedule expiries and archiving at start up without reading every auction. The first
+ * format had no leased IDs in its footer and the first two had no end time or closed flag in
+ * the index; snapshots in them can still be read. An auction never crosses a REGION boundary,
+ * so each one can be read from a single mapped region whatever the size of the file.
+ */
+public class MappedSnapshot {
+
+    // The size of each mapped region of the file
+    private final static long REGION = 1L << 30;
+
+    // Values used to recognise the file, and the size of an index entry and the footer
+    private final static int MAGIC = 0x41554354;
+    private final static int FORMAT_VERSION = 3;
+    private final static int INDEX_ENTRY = 4 + 8 + 8 + 1 + 8 + 4;
+    private final static int FORMAT_2_INDEX_ENTRY = 4 + 8 + 8 + 4;
+    private final static int FOOTER = 8 + 4 + 8 + 4 + 4 + 4;
+    private final static int FORMAT_1_FOOTER = 8 + 4 + 8 + 4 + 4;
+    private final static int FORMAT_AND_MAGIC = 4 + 4;
+
+    // Private variables used to read the snapshot
+    private final MappedByteBuffer[] regions;
+    private final MappedByteBuffer index;
+    private final int indexEntry;
+    private final boolean hasEndTimes;
+    private final long version;
+    private final int count;
+    private final int leasedUpTo;
+
+    /**
+     * Maps a snapshot file written by write
+     *
+     * @param file
+     * @throws IOException if the file is not a complete snapshot
+     */
+    public MappedSnapshot(File file) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+            long size = channel.size();
+
+            if (size < FORMAT_1_FOOTER) {
+                throw new IOException(file + " is not a snapshot");
+            }
+
+            // The format and magic number end every footer, and say how long the footer is
+            ByteBuffer end = channel.map(FileChannel.MapMode.READ_ONLY, size - FORMAT_AND_MAGIC, FORMAT_AND_MAGIC);
+            int format = end.getInt();
+
+            if (end.getInt() != MAGIC || format < 1 || format > FORMAT_VERSION || (format > 1 && size < FOOTER)) {
+                throw new IOException(file + " is not a snapshot");
+            }
+
+            int footerSize = format == 1 ? FORMAT_1_FOOTER : FOOTER;
+            ByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, size - footerSize, footerSize);
+            version = footer.getLong();
+            count = footer.getInt();
+            long indexOffset = footer.getLong();
+            leasedUpTo = format == 1 ? 0 : footer.getInt();
+            hasEndTimes = format == FORMAT_VERSION;
+            indexEntry = hasEndTimes ? INDEX_ENTRY : FORMAT_2_INDEX_ENTRY;
+
+            // The mappings stay valid after the channel is closed
+            index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, (long) count * indexEntry);
+            regions = new MappedByteBuffer[(int) ((indexOffset + REGION - 1) / REGION)];
+
+            for (int i = 0; i < regions.length; i++) {
+                long start = i * REGION;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION, indexOffset - start));
+            }
+        }
+    }
+
+    /**
+     * Writes every auction in a store to a snapshot file. The store carries on applying
+     * operations while it is written; each auction is locked only while it is written.
+     *
+     * @param file
+     * @param store
+     * @throws IOException
+     */
+    public static void write(File file, AuctionStore store) throws IOException {
+
+        long storeVersion = store.getVersion();
+        int leasedUpTo = store.getLeasedUpTo();
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        DataOutputStream indexOut = new DataOutputStream(indexBytes);
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream recordOut = new DataOutputStream(record);
+        long position = 0;
+        int written = 0;
+
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+
+            for (Auction auction : store.getAuctions(AuctionPage.FIRST_PAGE)) {
+
+                long changedAt;
+                long endTime;
+                boolean closed;
+                record.reset();
+
+                synchronized (auction) {
+                    changedAt = auction.getChangedAt();
+                    endTime = auction.getEndTime();
+                    closed = auction.isAuctionClosed();
+                    auction.writeTo(recordOut);
+                }
+
+                // Pads to the next region rather than let an auction cross into it
+                long left = REGION - position % REGION;
+
+                if (record.size() > left) {
+                    out.write(new byte[(int) left]);
+                    position += left;
+                }
+
+                indexOut.writeInt(auction.getAuctionID());
+                indexOut.writeLong(changedAt);
+                indexOut.writeLong(endTime);
+                indexOut.writeBoolean(closed);
+                indexOut.writeLong(position);
+                indexOut.writeInt(record.size());
+                record.writeTo(out);
+                position += record.size();
+                written++;
+            }
+
+            // The footer is written last, so a snapshot cut short by a crash is not opened
+            indexBytes.writeTo(out);
+            out.writeLong(storeVersion);
+            out.writeInt(written);
+            out.writeLong(position);
+            out.writeInt(leasedUpTo);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(MAGIC);
+            out.flush();
+            stream.getFD().sync();
+        }
+    }
+
+    /**
+     * @return the version of the store when the snapshot was started
+     */
+    public long getVersion() { return version; }
+
+    /**
+     * @return the last auction ID leased to a front end when the snapshot was started
+     */
+    public int getLeasedUpTo() { return leasedUpTo; }
+
+    /**
+     * @return the number of auctions in the snapshot
+     */
+    public int size() { return count; }
+
+    /**
+     * @param i the position of an auction in the index
+     * @return its auction ID
+     */
+    public int idAt(int i) { return index.getInt(i * indexEntry); }
+
+    /**
+     * @param i the position of an auction in the index
+     * @return the store version it was last changed at
+     */
+    public long changedAtAt(int i) { return index.getLong(i * indexEntry + 4); }
+
+    /**
+     * @return true if the index holds each auction's end time and whether it is closed, which
+     * snapshots written before the third format do not
+     */
+    public boolean hasEndTimes() { return hasEndTimes; }
+
+    /**
+     * @param i the position of an auction in the index
+     * @return its end time, or 0 if it has none
+     */
+    public long endTimeAt(int i) { return index.getLong(i * indexEntry + 12); }
+
+    /**
+     * @param i the position of an auction in the index
+     * @return true if it was closed when the snapshot was written
+     */
+    public boolean isClosedAt(int i) { return index.get(i * indexEntry + 20) != 0; }
+
+    /**
+     * @return the highest auction ID in the snapshot
+     */
+    public int getMaxAuctionID() { return count == 0 ? 0 : idAt(count - 1); }
+
+    /**
+     * @param auctionID
+     * @return the position of the auction in the index, or -1 if it is not in the snapshot
+     */
+    public int indexOf(int auctionID) {
+
+        int i = firstAfter(auctionID - 1);
+
+        return i < count && idAt(i) == auctionID ? i : -1;
+    }
+
+    /**
+     * @param auctionID
+     * @return the position of the first auction with a higher ID, or size() if there is none
+     */
+    public int firstAfter(int auctionID) {
+
+        int low = 0;
+        int high = count;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (idAt(mid) <= auctionID) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Reads an auction back from the snapshot. Each call returns a new Auction.
+     *
+     * @param i the position of the auction in the index
+     * @return auction
+     */
+    public Auction load(int i) {
+
+        int at = i * indexEntry + (hasEndTimes ? 21 : 12);
+        long offset = index.getLong(at);
+        int length = index.getInt(at + 8);
+
+        // Duplicates the region so concurrent loads do not share a position
+        ByteBuffer region = regions[(int) (offset / REGION)].duplicate();
+        region.position((int) (offset % REGION));
+        byte[] data = new byte[length];
+        region.get(data);
+
+        try {
+            Auction auction = new Auction();
+            auction.readFrom(new DataInputStream(new ByteArrayInputStream(data)));
+            return auction;
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt auction in snapshot at offset " + offset, e);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import java.util.List;
+
+/**
+ * @Author Lewis Linaker
+ * @Description ProxyBidTest class which checks how Auction resolves proxy bids against each
+ * other and against bids placed by hand, without needing a running server. Each case builds an
+ * auction, places its bids and checks the winner, the current bid and the bid history.
+ *
+ * Usage: java ProxyBidTest
+ */
+public class ProxyBidTest {
+
+    private static int failures;
+
+    public static void main(String[] args) {
+
+        higherProxyWinsByIncrement();
+        tieGoesToEarliestProxy();
+        manualBidAboveOwnProxy();
+        manualBidAnsweredByProxy();
+
+        System.out.println(failures == 0 ? "All proxy bid checks passed" : failures + " proxy bid checks failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * A proxy bid with a higher maximum wins one increment above the other's maximum
+     */
+    private static void higherProxyWinsByIncrement() {
+
+        Auction auction = newAuction();
+        auction.proxyBid(20, 1, "W", 1);
+        auction.proxyBid(30, 1, "C", 2);
+
+        check("higher proxy wins", auction, "C", 21.0);
+    }
+
+    /**
+     * The proxy bid left first keeps the item when both have the same maximum
+     */
+    private static void tieGoesToEarliestProxy() {
+
+        Auction auction = newAuction();
+        auction.proxyBid(20, 1, "W", 1);
+        auction.proxyBid(20, 1, "C", 2);
+
+        check("tie goes to the earliest proxy", auction, "W", 20.0);
+    }
+
+    /**
+     * A winner who beat their own proxy with a bid by hand is held to that bid, so a
+     * challenger's proxy must go above it rather than above the winner's old maximum
+     */
+    private static void manualBidAboveOwnProxy() {
+
+        Auction auction = newAuction();
+        auction.proxyBid(20, 1, "W", 1);
+        auction.bid(50, "W", 2);
+        auction.proxyBid(100, 1, "C", 3);
+
+        check("manual bid above own proxy", auction, "C", 51.0);
+    }
+
+    /**
+     * A bid by hand below a proxy's maximum is answered by the proxy at once
+     */
+    private static void manualBidAnsweredByProxy() {
+
+        Auction auction = newAuction();
+        auction.proxyBid(100, 1, "W", 1);
+        auction.bid(50, "C", 2);
+
+        check("manual bid answered by proxy", auction, "W", 51.0);
+    }
+
+    private static Auction newAuction() {
+
+        Auction auction = new Auction("Test item", 10, 0, "seller");
+        auction.setAuctionID(1);
+
+        return auction;
+    }
+
+    /**
+     * Checks the winner and current bid, and that every bid in the history is higher than the
+     * one before it
+     */
+    private static void check(String name, Auction auction, String winner, double bid) {
+
+        List<BidRecord> history = auction.getBidHistory(0, Integer.MAX_VALUE);
+        boolean increasing = true;
+
+        for (int i = 1; i < history.size(); i++) {
+            increasing &= history.get(i).getAmount() > history.get(i - 1).getAmount();
+        }
+
+        boolean passed = winner.equals(auction.getCurrentWinner()) && auction.getCurrentBid() == bid && increasing;
+
+        if (!passed) {
+            failures++;
+        }
+
+        System.out.println((passed ? "PASS " : "FAIL ") + name + ": winner " + auction.getCurrentWinner() + " at " + auction.getCurrentBid()
+                + " (expected " + winner + " at " + bid + ") history " + history);
+    }
+}
@@ -0,0 +1,185 @@
+import java.io.File;
+import java.security.PublicKey;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author Lewis Linaker
+ * @Description PublicKeyStore class which sits in front of GenerateKeys and keeps the
+ * users' PublicKeys in memory, so that verifying a request does not have to read and
+ * deserialize the key file from disk every time.
+ */
+public class PublicKeyStore {
+
+    // Default number of keys to hold and how often to check the key file for changes
+    public final static int DEFAULT_CAPACITY = 1024;
+    public final static long DEFAULT_REVALIDATE_MILLIS = 5000;
+
+    // Private variables used by the key store
+    private final int capacity;
+    private final long revalidateMillis;
+    private final ConcurrentHashMap<String, CachedKey> cache;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+    private final AtomicLong invalidations;
+
+    /**
+     * Creates a key store with the default capacity and revalidation interval
+     */
+    public PublicKeyStore() { this(DEFAULT_CAPACITY, DEFAULT_REVALIDATE_MILLIS); }
+
+    /**
+     * @param capacity
+     * @param revalidateMillis
+     *
+     * Creates a key store which holds at most capacity keys and checks the key
+     * file on disk for changes at most once every revalidateMillis
+     */
+    public PublicKeyStore(int capacity, long revalidateMillis) {
+
+        this.capacity = capacity;
+        this.revalidateMillis = revalidateMillis;
+        cache = new ConcurrentHashMap<>();
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        evictions = new AtomicLong();
+        invalidations = new AtomicLong();
+    }
+
+    /**
+     * Method used to get the PublicKey of a user, reading it from disk only if it is
+     * not cached or if the key file has changed since it was cached
+     *
+     * @param id
+     * @return publicKey or null if the user does not exist
+     */
+    public PublicKey getPublicKey(String id) {
+
+        long now = System.currentTimeMillis();
+        CachedKey cached = cache.get(id);
+
+        if (cached != null) {
+
+            // Only looks at the key file again once the revalidation interval has passed
+            if (now - cached.checkedAt < revalidateMillis) {
+                cached.lastAccess = now;
+                hits.incrementAndGet();
+                return cached.key;
+            }
+
+            // Checks to see if the key file has been replaced or removed
+            if (GenerateKeys.getPublicKeyFile(id).lastModified() == cached.lastModified) {
+                cached.checkedAt = now;
+                cached.lastAccess = now;
+                hits.incrementAndGet();
+                return cached.key;
+            }
+
+            cache.remove(id, cached);
+            invalidations.incrementAndGet();
+        }
+
+        misses.incrementAndGet();
+
+        // Reads the key from disk, recording the file time before reading so that a change
+        // made while reading is picked up on the next revalidation
+        File keyFile = GenerateKeys.getPublicKeyFile(id);
+        long lastModified = keyFile.lastModified();
+        PublicKey key = GenerateKeys.getPublicKey(id);
+
+        // Unknown users are not cached so that a newly registered user is found straight away
+        if (key == null) {
+            return null;
+        }
+
+        cache.put(id, new CachedKey(key, lastModified, now));
+
+        if (cache.size() > capacity) {
+            evictLeastRecentlyUsed();
+        }
+
+        return key;
+    }
+
+    /**
+     * Removes a user's key from the cache so that it is read again from disk
+     *
+     * @param id
+     */
+    public void invalidate(String id) {
+
+        if (cache.remove(id) != null) {
+            invalidations.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes all of the keys from the cache
+     */
+    public void invalidateAll() {
+
+        invalidations.addAndGet(cache.size());
+        cache.clear();
+    }
+
+    /**
+     * Evicts the least recently used keys until the cache is back within its capacity
+     */
+    private void evictLeastRecentlyUsed() {
+
+        while (cache.size() > capacity) {
+
+            String oldestID = null;
+            long oldestAccess = Long.MAX_VALUE;
+
+            for (Map.Entry<String, CachedKey> entry : cache.entrySet()) {
+
+                if (entry.getValue().lastAccess < oldestAccess) {
+                    oldestAccess = entry.getValue().lastAccess;
+                    oldestID = entry.getKey();
+                }
+            }
+
+            if (oldestID == null || cache.remove(oldestID) == null) {
+                return;
+            }
+
+            evictions.incrementAndGet();
+        }
+    }
+
+    // get methods for the cache counters
+    public long getHits() { return hits.get(); }
+    public long getMisses() { return misses.get(); }
+    public long getEvictions() { return evictions.get(); }
+    public long getInvalidations() { return invalidations.get(); }
+    public int getSize() { return cache.size(); }
+
+    /**
+     * @return a one line summary of the cache counters
+     */
+    public String getStats() {
+        return "PublicKeyStore size=" + getSize() + " hits=" + getHits() + " misses=" + getMisses()
+                + " evictions=" + getEvictions() + " invalidations=" + getInvalidations();
+    }
+
+    /**
+     * A cached key along with the key file's modification time and when it was last used
+     */
+    private static class CachedKey {
+
+        private final PublicKey key;
+        private final long lastModified;
+        private volatile long checkedAt;
+        private volatile long lastAccess;
+
+        private CachedKey(PublicKey key, long lastModified, long now) {
+            this.key = key;
+            this.lastModified = lastModified;
+            this.checkedAt = now;
+            this.lastAccess = now;
+        }
+    }
+}
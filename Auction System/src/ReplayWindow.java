@@ -0,0 +1,55 @@
+/**
+ * @Author Lewis Linaker
+ * @Description ReplayWindow class used to reject replayed requests. It remembers the highest
+ * sequence number seen and which of the previous 64 sequence numbers have been used, so
+ * requests which arrive slightly out of order are still accepted but none is accepted twice.
+ */
+public class ReplayWindow {
+
+    // The number of sequence numbers behind the highest one which are still accepted
+    public final static int WINDOW_SIZE = 64;
+
+    // Private variables used to track the sequence numbers which have been seen
+    private long highest;
+    private long seen;
+
+    /**
+     * Method used to check a sequence number and record it as used
+     *
+     * @param sequence
+     * @return true if the sequence number has not been used before or false if it has
+     */
+    public synchronized boolean accept(long sequence) {
+
+        // Sequence numbers start at 1
+        if (sequence <= 0) {
+            return false;
+        }
+
+        // Moves the window forward if this is the highest sequence number so far
+        if (sequence > highest) {
+            long shift = sequence - highest;
+            seen = shift >= WINDOW_SIZE ? 0 : seen << shift;
+            seen |= 1;
+            highest = sequence;
+            return true;
+        }
+
+        // Rejects sequence numbers which have fallen out of the back of the window
+        long offset = highest - sequence;
+
+        if (offset >= WINDOW_SIZE) {
+            return false;
+        }
+
+        // Rejects sequence numbers which have already been used
+        long bit = 1L << offset;
+
+        if ((seen & bit) != 0) {
+            return false;
+        }
+
+        seen |= bit;
+        return true;
+    }
+}
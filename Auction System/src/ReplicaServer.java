@@ -1,16 +1,28 @@
 import org.jgroups.Address;
 import org.jgroups.JChannel;
+import org.jgroups.MergeView;
+import org.jgroups.Message;
 import org.jgroups.ReceiverAdapter;
 import org.jgroups.View;
+import org.jgroups.blocks.MethodCall;
+import org.jgroups.blocks.RequestOptions;
+import org.jgroups.blocks.Response;
+import org.jgroups.blocks.ResponseMode;
 import org.jgroups.blocks.RpcDispatcher;
 import org.jgroups.blocks.mux.MuxRpcDispatcher;
-import org.jgroups.util.Util;
+import org.jgroups.protocols.TP;
+import org.jgroups.util.Rsp;
+import org.jgroups.util.RspList;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
@@ -20,71 +32,183 @@ import java.util.Random;
  */
 public class ReplicaServer extends ReceiverAdapter {
 
+    // The most auctions sent in one chunk of a delta state transfer, and how long to wait for a chunk
+    private final static int CHUNK_SIZE = Integer.getInteger("auction.state.chunkSize", 1000);
+    private final static long CHUNK_TIMEOUT = 5000;
+
+    // How many times a replica fetches a donor's whole state when it still differs after catching up
+    private final static int MAX_CATCH_UP_ATTEMPTS = 3;
+
+    // The directory each replica keeps its auctions in
+    private final static String DATA_DIRECTORY = "Data";
+
+    // The most messages handled at once by a replica's thread pools when they run on virtual
+    // threads (-Dauction.replica.maxConcurrentRequests)
+    private final static int MAX_CONCURRENT_REQUESTS = Integer.getInteger("auction.replica.maxConcurrentRequests", 1000);
+
     // private variables used by the ReplicaServer
     private JChannel channel;
     private RpcDispatcher dispatcher;
-    HashMap<Integer,Auction> state = new HashMap<>();
-    int counter;
+    private ReplicaStorage storage;
+    private AuctionExpiry expiry;
+    private AuctionArchiver archiver;
+    AuctionStore store = new AuctionStore();
     String replicaID;
 
     /**
-     * Main Class which calls an instance of the replica
+     * Private variables used to heal a partition: the version when the view last lost
+     * replicas, and how many it had before, and whether the next state received replaces
+     * the auctions held rather than being merged with them
+     */
+    private long partitionedAt = -1;
+    private int replicasBeforePartition;
+    private int replicasInView;
+    private volatile boolean replaceState;
+
+    /**
+     * Private variables used to hold back the ordered operations delivered while the replica
+     * catches up, which is from when it starts until it has its state. Operations delivered
+     * before the replica's catch up marker are already in the changes the donor sends back
+     * for the marker; those after it are held until the changes are applied.
+     */
+    private final Object catchUpLock = new Object();
+    private List<Delivery> heldBack = new ArrayList<>();
+    private long markerToken;
+    private boolean markerSeen;
+
+    /**
+     * Main Class which calls an instance of the replica. The replica's name can be given as
+     * the first argument, so that it finds its auctions on disk again when restarted, and
+     * the shard it holds as the second.
      * @param args
      * @throws Exception
      */
-    public static void main(String[] args) throws Exception { new ReplicaServer(); }
+    public static void main(String[] args) throws Exception {
+        new ReplicaServer(args.length > 0 ? args[0] : null, args.length > 1 ? Integer.parseInt(args[1]) : 0);
+    }
 
     /**
      * ReplicaServer class used to stored a replica of the JChannels which are used
      * within the server
+     *
+     * @param name the name of the replica, or null for a new random name
+     * @param shard the shard the replica holds the auctions of
      */
-    public ReplicaServer() throws Exception {
+    public ReplicaServer(String name, int shard) throws Exception {
+
+        if (shard < 0 || shard >= ShardMap.SHARDS) {
+            throw new IllegalArgumentException("Shard " + shard + " does not exist, there are " + ShardMap.SHARDS + " shards");
+        }
 
         // variables used by the replicaServer
+        Random rnd = new Random();
+        replicaID = name != null ? name : "Replica_" +  rnd.nextInt(10000);
+        storage = new ReplicaStorage(new File(DATA_DIRECTORY, replicaID), store);
+        expiry = new AuctionExpiry(replicaID, store, this::proposeExpiry);
+        archiver = new AuctionArchiver(replicaID, store, this::proposeArchive);
         channel = new JChannel("toa.xml");
         channel.setReceiver(this);
-        Random rnd = new Random();
-        replicaID = "Replica_" +  rnd.nextInt(10000);
         channel.setName(replicaID);
-        channel.connect("AuctionServer");
+        useVirtualThreads();
+        channel.connect(ShardMap.clusterName(shard));
+
+        // Operations are applied in order on the delivering thread, unless they are held back
+        // while the replica catches up
+        dispatcher = new MuxRpcDispatcher((short)1,channel,this,this,this) {
+            @Override
+            public void handle(Message request, Response response) throws Exception {
+
+                if (!holdBack(request, response)) {
+                    applyDelivered(request, response);
+                }
+            }
+        };
+        dispatcher.asyncDispatching(true);
         View view = channel.getView();
-        List<Address> addresses = view.getMembers();
+        List<Address> addresses = ClusterMembers.replicas(view);
+
+        // Try's to get the state of an channel from another replica. A replica which already
+        // holds auctions only fetches the changes since its version.
+        Address donor = null;
 
-        // Try's to get the state of an channel
         for(Address address : addresses) {
 
-            try {
-                channel.getState(address,5000);
-            } catch (Exception e) {
-                System.err.println("Cannot get state from: " + address.toString());
+            if(address.equals(channel.getAddress())) {
                 continue;
             }
 
-            if(address == channel.getAddress()){
-                System.out.println("First ReplicaServer");
-            } else {
-                System.out.println("Got state from "  +address.toString());
-                System.out.println(getAuctionList());
+            if (!catchUp(address, false)) {
+                continue;
             }
 
+            System.out.println("Got state from "  +address.toString());
+            System.out.println(getAuctionList());
+            donor = address;
+
             break;
         }
 
-        dispatcher = new MuxRpcDispatcher((short)1,channel,this,this,this);
+        endCatchUp();
+
+        if (donor != null) {
+            checkCaughtUp(donor);
+        }
+
+        if(addresses.size() == 1){
+            System.out.println("First ReplicaServer");
+        }
+
+        // Starts closing auctions at their end time, once every auction this replica holds is known
+        expiry.scheduleAll();
+        expiry.start();
+        expiry.setCoordinator(isCoordinator(channel.getView()));
+
+        // Starts moving closed auctions to the archive after the grace period, if turned on
+        if (AuctionArchiver.isEnabled()) {
+            store.setChangeListener(archiver);
+            archiver.scheduleAll();
+            archiver.start();
+            archiver.setCoordinator(isCoordinator(channel.getView()));
+        }
+
         p("Started successfully!");
     }
 
+    /**
+     * Runs the messages the replica is sent, apart from the ordered operations which are
+     * applied on the delivering thread, on virtual threads if -Dauction.threads=virtual. The
+     * number handled at once is limited by a ConcurrencyGuard, as virtual threads have no pool
+     * size to hold back a flood of reads.
+     */
+    private void useVirtualThreads() {
+
+        if (!RequestThreads.isVirtual()) {
+            return;
+        }
+
+        ConcurrencyGuard guard = new ConcurrencyGuard(replicaID + " requests", MAX_CONCURRENT_REQUESTS, 0);
+        TP transport = channel.getProtocolStack().getTransport();
+        transport.setDefaultThreadPool(guard.guard(RequestThreads.newVirtualExecutor()));
+        transport.setOOBThreadPool(guard.guard(RequestThreads.newVirtualExecutor()));
+        System.out.println(replicaID + " is handling requests on virtual threads");
+    }
+
     /**
      * Adds an auction item to the current auction listings
      *
      * @param auction
-     * @return true
+     * @return true, or false if another auction already has its ID
      */
     public boolean addAuction(Auction auction){
 
-        counter = auction.getAuctionID();
         p("Trying to add auction");
-        state.put(auction.getAuctionID(), auction);
+
+        if (!store.addAuction(auction)) {
+            p("Auction " + auction.getItemDescription() + " turned down, ID " + auction.getAuctionID() + " is already in use");
+            return false;
+        }
+
+        expiry.schedule(auction);
         p("Auction "+ auction.getItemDescription() + " successfully added with ID " + auction.getAuctionID() + " By " + auction.getOwnerID());
 
         return true;
@@ -96,17 +220,38 @@ public class ReplicaServer extends ReceiverAdapter {
      * @param auctionID
      * @param value
      * @param bidderID
+     * @param timestamp
      * @return auctionBid or No Such Auction Exits
      */
-    public String bid (int auctionID,double value, String bidderID) {
-
-        if(state.containsKey(auctionID)) {
+    public String bid (int auctionID,double value, String bidderID, long timestamp) { return store.bid(auctionID, value, bidderID, timestamp); }
 
-            return state.get(auctionID).bid(value, bidderID);
-        } else {
+    /**
+     * Method to allow a batch of bids to be placed in order, in a single call. The
+     * timestamp is chosen by the front end so that every replica records the same time.
+     *
+     * @param auctionIDs
+     * @param values
+     * @param bidderIDs
+     * @param timestamp
+     * @return a response for each bid, in the same order as the bids
+     */
+    public String[] bidBatch(int[] auctionIDs, double[] values, String[] bidderIDs, long timestamp) {
+        return store.bidBatch(auctionIDs, values, bidderIDs, timestamp);
+    }
 
-            return "No such auction exists";
-        }
+    /**
+     * Method to allow a proxy bid to be left on an auction. The increment is chosen by the
+     * front end so that every replica raises the bid by the same amount.
+     *
+     * @param auctionID
+     * @param maximum
+     * @param increment
+     * @param bidderID
+     * @param timestamp
+     * @return auctionProxyBid or No Such Auction Exits
+     */
+    public String proxyBid(int auctionID, double maximum, double increment, String bidderID, long timestamp) {
+        return store.proxyBid(auctionID, maximum, increment, bidderID, timestamp);
     }
 
     /**
@@ -116,52 +261,471 @@ public class ReplicaServer extends ReceiverAdapter {
      * @param auctionID
      * @return auction Closed or No Such Auction Exists
      */
-    public String closeAuction(String clientID, int auctionID) {
+    public String closeAuction(String clientID, int auctionID) { return store.closeAuction(clientID, auctionID); }
 
-        if(state.containsKey(auctionID)) {
-            return state.get(auctionID).closeAuction(clientID);
-        } else {
-            return "No such auction exists";
-        }
+    /**
+     * Method to close the auctions whose end time has passed, proposed by the coordinator's
+     * AuctionExpiry
+     *
+     * @param auctionIDs
+     * @param now the time chosen by the coordinator
+     * @return a response for each auction
+     */
+    public String[] expireAuctions(int[] auctionIDs, long now) { return store.expireAuctions(auctionIDs, now); }
+
+    /**
+     * Method used by the AuctionExpiry to send an expiry to every member of the shard as a TOA
+     * anycast, so it is in order with the other operations. No response is waited for, as the expiry checks
+     * again later that the auctions were closed.
+     *
+     * @param auctionIDs
+     * @param now
+     * @throws Exception
+     */
+    private void proposeExpiry(int[] auctionIDs, long now) throws Exception {
+        dispatcher.callRemoteMethods(channel.getView().getMembers(), "expireAuctions", new Object[]{auctionIDs, now},
+                new Class<?>[]{int[].class, long.class}, ClusterMembers.ordered(new RequestOptions(ResponseMode.GET_NONE, 0)));
     }
 
+    /**
+     * Method to move closed auctions to the archive, proposed by an AuctionArchiver
+     *
+     * @param auctionIDs
+     * @return a response for each auction
+     */
+    public String[] archiveAuctions(int[] auctionIDs) { return store.archiveAuctions(auctionIDs); }
+
+    /**
+     * Method to bring back the changes made on one side of a healed partition
+     *
+     * @param auctions
+     * @return a response for each auction
+     */
+    public String[] mergeAuctions(Auction[] auctions) { return store.mergeAuctions(auctions); }
+
+    /**
+     * Method used by the AuctionArchiver to send an archiving to every member of the shard as
+     * a TOA anycast, so it is in order with the other operations
+     *
+     * @param auctionIDs
+     * @throws Exception
+     */
+    private void proposeArchive(int[] auctionIDs) throws Exception {
+        dispatcher.callRemoteMethods(channel.getView().getMembers(), "archiveAuctions", new Object[]{auctionIDs},
+                new Class<?>[]{int[].class}, ClusterMembers.ordered(new RequestOptions(ResponseMode.GET_NONE, 0)));
+    }
+
+    /**
+     * @param view
+     * @return true if this replica is the first replica in the view, which proposes expiries
+     */
+    private boolean isCoordinator(View view) {
+
+        List<Address> replicas = ClusterMembers.replicas(view);
+
+        return !replicas.isEmpty() && replicas.get(0).equals(channel.getAddress());
+    }
+
+    /**
+     * Method to lease a block of auction IDs to a front end
+     *
+     * @param size
+     * @param floor the highest auction ID the front end knows of
+     * @return the first ID of the block
+     */
+    public int leaseIdBlock(int size, int floor) { return store.leaseIdBlock(size, floor); }
+
     /**
      * @return counter
      */
-    public int getIdCounter() { return counter; }
+    public int getIdCounter() { return store.getIdCounter(); }
 
     /**
      * Method used to print out the auction list when requested
      * @return
      */
-    public String getAuctionList(){
+    public String getAuctionList(){ return store.getAuctionList(); }
 
-        String response =  String.format ("%-15s %-20s %-10s %-10s %-15s %-20s %n",
-                "Auction ID","Item Name","Closed","Won","Highest Bid","Highest Bidder");
-        for (int i : state.keySet()) {
-
-            Auction auction = state.get(i);
-            String line = String.format("%-15s %-20s %-10s %-10s %-15s %-20s %n",
-                    auction.getAuctionID(),auction.getItemDescription(),auction.isAuctionClosed(),auction.isWon(),auction.getCurrentBid(),auction.getCurrentWinner());
-            response += line;
-        }
+    /**
+     * Method used to get a page of the auction list, in order of auction ID
+     *
+     * @param afterAuctionID the cursor of the previous page, or AuctionPage.FIRST_PAGE
+     * @param pageSize
+     * @param openOnly only lists auctions which are not closed
+     * @param ownerID only lists auctions owned by this user, or all auctions if null
+     * @return page
+     */
+    public AuctionPage getAuctionPage(int afterAuctionID, int pageSize, boolean openOnly, String ownerID) {
+        return store.getAuctionPage(afterAuctionID, pageSize, openOnly, ownerID);
+    }
 
-        return response;
+    /**
+     * Method to get a page of the bid history of an auction
+     *
+     * @param auctionID
+     * @param fromSequence
+     * @param maxRecords
+     * @return records or null if there is no such auction
+     */
+    public List<BidRecord> getBidHistory(int auctionID, long fromSequence, int maxRecords) {
+        return store.getBidHistory(auctionID, fromSequence, maxRecords);
     }
 
     /**
      * Method to get the state of an auction
      *
      * @param auctionID
-     * @return state.get(auctionID) or null
+     * @return the auction or null
+     */
+    public Auction getAuction(int auctionID ){ return store.getAuction(auctionID); }
+
+    /**
+     * Method to get the auctions changed since a version, used by a rejoining replica
+     *
+     * @param sinceVersion
+     * @param afterAuctionID
+     * @param maxAuctions
+     * @return chunk
+     */
+    public StateChunk getChangesSince(long sinceVersion, int afterAuctionID, int maxAuctions) {
+        return store.getChangesSince(sinceVersion, afterAuctionID, maxAuctions);
+    }
+
+    /**
+     * Method used by a replica which is catching up to mark its place among the ordered
+     * operations. The donor answers with every auction changed since the version, as of the
+     * marker, and every other member ignores it.
+     *
+     * @param token the marker of the replica catching up
+     * @param donor
+     * @param sinceVersion
+     * @return the changes, or null if this replica is not the donor
+     */
+    public StateChunk catchUpMarker(long token, Address donor, long sinceVersion) {
+        return donor.equals(channel.getAddress()) ? store.getChangesSince(sinceVersion) : null;
+    }
+
+    /**
+     * Method used to bring the store up to date with another replica. The bulk of the state is
+     * fetched first: the whole state for an empty store or with replace, and otherwise the
+     * auctions changed since this replica's version, one chunk at a time. The replica then
+     * sends a marker in order with the operations and applies the changes the donor made up
+     * to the marker, after which the store holds exactly the donor's state at the marker and
+     * takes its version. Operations must already be held back with holdBack.
+     *
+     * @param donor
+     * @param replace whether the donor's auctions replace this replica's, after a partition
+     * @return true if the store caught up
+     */
+    private boolean catchUp(Address donor, boolean replace) {
+
+        long sinceVersion = store.getVersion();
+        int received = 0;
+
+        try {
+            long markFrom;
+
+            if (replace || sinceVersion == 0) {
+                try {
+                    replaceState = replace;
+                    channel.getState(donor, 5000);
+                } finally {
+                    replaceState = false;
+                }
+
+                markFrom = store.getVersion();
+            } else {
+                int cursor = AuctionPage.FIRST_PAGE;
+                StateChunk chunk;
+                markFrom = -1;
+
+                do {
+                    chunk = dispatcher.callRemoteMethod(donor, "getChangesSince",
+                            new Object[]{sinceVersion, cursor, CHUNK_SIZE},
+                            new Class<?>[]{long.class, int.class, int.class},
+                            new RequestOptions(ResponseMode.GET_FIRST, CHUNK_TIMEOUT));
+
+                    markFrom = markFrom < 0 ? chunk.getVersion() : markFrom;
+                    received += applyChunk(donor, chunk);
+                    cursor = chunk.getNextCursor();
+                } while (chunk.hasMore());
+            }
+
+            received += applyChunk(donor, mark(donor, markFrom));
+        } catch (Exception e) {
+            System.err.println("Cannot get changes from: " + donor.toString());
+            e.printStackTrace();
+            dropHeldBack();
+            return false;
+        }
+
+        p("Caught up from version " + sinceVersion + " to " + store.getVersion() + ", " + received + " auctions changed");
+        snapshot();
+
+        return true;
+    }
+
+    /**
+     * Applies a chunk from the donor, fetching the final copy of the auctions it has
+     * archived which this replica does not hold closed
+     *
+     * @return the number of auctions changed
      */
-    public Auction getAuction(int auctionID ){
+    private int applyChunk(Address donor, StateChunk chunk) throws Exception {
 
-        if(state.containsKey(auctionID)) {
+        for (int auctionID : store.applyChunk(chunk)) {
+            Auction finalCopy = dispatcher.callRemoteMethod(donor, "getAuction",
+                    new Object[]{auctionID}, new Class<?>[]{int.class},
+                    new RequestOptions(ResponseMode.GET_FIRST, CHUNK_TIMEOUT));
+            store.applyArchived(auctionID, finalCopy);
+        }
 
-            return state.get(auctionID);
-        } else
-            return null;
+        return chunk.getAuctions().size() + chunk.getArchived().length;
+    }
+
+    /**
+     * Sends this replica's catch up marker to every member, in order with the operations,
+     * and waits for it to be delivered here too
+     *
+     * @return the donor's changes since the version, as of the marker
+     * @throws Exception if the donor does not answer
+     */
+    private StateChunk mark(Address donor, long sinceVersion) throws Exception {
+
+        long token;
+
+        synchronized (catchUpLock) {
+            token = markerToken = new Random().nextLong();
+            markerSeen = false;
+        }
+
+        RspList<StateChunk> rspList = dispatcher.callRemoteMethods(channel.getView().getMembers(), "catchUpMarker",
+                new Object[]{token, donor, sinceVersion}, new Class<?>[]{long.class, Address.class, long.class},
+                ClusterMembers.ordered(new RequestOptions(ResponseMode.GET_ALL, CHUNK_TIMEOUT).setRspFilter(new ClusterMembers.AnswersFrom(donor))));
+
+        Rsp<StateChunk> rsp = rspList.get(donor);
+
+        if (rsp == null || !rsp.wasReceived() || rsp.hasException() || rsp.getValue() == null) {
+            throw new IllegalStateException("No changes from " + donor + " for the catch up marker");
+        }
+
+        long deadline = System.currentTimeMillis() + CHUNK_TIMEOUT;
+
+        synchronized (catchUpLock) {
+            while (!markerSeen) {
+                long wait = deadline - System.currentTimeMillis();
+
+                if (wait <= 0) {
+                    throw new IllegalStateException("The catch up marker was not delivered");
+                }
+
+                catchUpLock.wait(wait);
+            }
+        }
+
+        return rsp.getValue();
+    }
+
+    /**
+     * @return the number of operations the replica has applied
+     */
+    public long getVersion() { return store.getVersion(); }
+
+    /**
+     * Checks that the replica holds the donor's state once it has caught up, by reading both
+     * versions at the same place among the ordered operations. If they differ the donor's
+     * whole state is fetched again, a few times at most.
+     *
+     * @param donor
+     */
+    private void checkCaughtUp(Address donor) {
+
+        for (int attempt = 1; !versionsAgree(donor); attempt++) {
+
+            if (attempt > MAX_CATCH_UP_ATTEMPTS) {
+                System.err.println(replicaID + " could not catch up with " + donor);
+                return;
+            }
+
+            System.err.println(replicaID + " does not match " + donor + " after catching up, fetching its whole state");
+            startCatchUp();
+            catchUp(donor, true);
+            endCatchUp();
+        }
+    }
+
+    /**
+     * @return true if this replica and the donor have applied as many operations as each
+     * other at the place an ordered getVersion is delivered
+     */
+    private boolean versionsAgree(Address donor) {
+
+        try {
+            RspList<Long> rspList = dispatcher.callRemoteMethods(channel.getView().getMembers(), "getVersion",
+                    new Object[]{}, new Class<?>[]{},
+                    ClusterMembers.ordered(new RequestOptions(ResponseMode.GET_ALL, CHUNK_TIMEOUT)
+                            .setRspFilter(new ClusterMembers.AnswersFrom(donor, channel.getAddress()))));
+            Rsp<Long> own = rspList.get(channel.getAddress());
+            Rsp<Long> donors = rspList.get(donor);
+
+            return own != null && donors != null && own.wasReceived() && donors.wasReceived()
+                    && !own.hasException() && !donors.hasException() && own.getValue().equals(donors.getValue());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Called on the delivering thread for every message to the dispatcher. While the replica
+     * catches up, ordered operations before its marker are turned down, as the donor's changes
+     * already hold them, and those after it are held back.
+     *
+     * @param request
+     * @param response
+     * @return true if the message was turned down or held back
+     */
+    private boolean holdBack(Message request, Response response) {
+
+        // Only the totally ordered operations are held back, not reads
+        if (!ClusterMembers.isOrdered(request)) {
+            return false;
+        }
+
+        synchronized (catchUpLock) {
+
+            if (heldBack == null) {
+                return false;
+            }
+
+            if (isMarker(request, markerToken)) {
+                markerSeen = true;
+                catchUpLock.notifyAll();
+                reply(response, null);
+            } else if (markerSeen) {
+                heldBack.add(new Delivery(request, response));
+            } else {
+                reply(response, new IllegalStateException(replicaID + " is catching up"));
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * @return true if the message is this replica's catch up marker
+     */
+    private boolean isMarker(Message request, long token) {
+
+        try {
+            Object call = request.getObject();
+
+            return call instanceof MethodCall && "catchUpMarker".equals(((MethodCall) call).getName())
+                    && ((Long) ((MethodCall) call).getArgs()[0]) == token;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Turns down the operations held back after a marker whose donor did not answer, as the
+     * next donor's changes will hold them
+     */
+    private void dropHeldBack() {
+
+        synchronized (catchUpLock) {
+
+            for (Delivery delivery : heldBack) {
+                reply(delivery.response, new IllegalStateException(replicaID + " is catching up"));
+            }
+
+            heldBack.clear();
+            markerSeen = false;
+            markerToken = 0;
+        }
+    }
+
+    /**
+     * Applies the operations held back while catching up, in the order they were delivered,
+     * then goes back to applying operations as they are delivered
+     */
+    private void endCatchUp() {
+
+        while (true) {
+            List<Delivery> batch;
+
+            synchronized (catchUpLock) {
+                if (heldBack.isEmpty()) {
+                    heldBack = null;
+                    markerSeen = false;
+                    markerToken = 0;
+                    return;
+                }
+
+                batch = new ArrayList<>(heldBack);
+                heldBack.clear();
+            }
+
+            for (Delivery delivery : batch) {
+                applyDelivered(delivery.request, delivery.response);
+            }
+        }
+    }
+
+    /**
+     * Starts holding back operations, before catching up while the replica is running
+     */
+    private void startCatchUp() {
+
+        synchronized (catchUpLock) {
+            if (heldBack == null) {
+                heldBack = new ArrayList<>();
+            }
+        }
+    }
+
+    /**
+     * Applies an ordered operation, sending the reply only once the operation is durable in
+     * the log, so many operations share one fsync
+     */
+    private void applyDelivered(Message request, Response response) {
+
+        Object result;
+
+        try {
+            result = dispatcher.handle(request);
+        } catch (Throwable t) {
+            storage.getLog().takeLastAppended();
+            reply(response, t);
+            return;
+        }
+
+        long record = storage.getLog().takeLastAppended();
+
+        if (response != null) {
+            storage.getLog().whenDurable(record, () -> response.send(result, false));
+        }
+    }
+
+    private static void reply(Response response, Object result) {
+
+        if (response != null) {
+            response.send(result, result instanceof Throwable);
+        }
+    }
+
+    /**
+     * An ordered operation held back while the replica catches up
+     */
+    private static class Delivery {
+
+        final Message request;
+        final Response response;
+
+        Delivery(Message request, Response response) {
+            this.request = request;
+            this.response = response;
+        }
     }
 
     /**
@@ -173,9 +737,9 @@ public class ReplicaServer extends ReceiverAdapter {
     @Override
     public void getState(OutputStream output) throws Exception {
 
-        synchronized (state) {
-            Util.objectToStream(state, new DataOutputStream(output));
-        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+        store.writeState(out);
+        out.flush();
     }
 
     /**
@@ -187,13 +751,9 @@ public class ReplicaServer extends ReceiverAdapter {
     @Override
     public void setState(InputStream input) throws Exception {
 
-        HashMap<Integer,Auction> hm = (HashMap) Util.objectFromStream(new DataInputStream(input));
-
-        synchronized (state) {
-            state.clear();
-            state.putAll(hm);
-        }
+        store.readState(new DataInputStream(new BufferedInputStream(input)), replaceState);
         p("Done getting the state!");
+        snapshot();
     }
 
     /**
@@ -201,8 +761,124 @@ public class ReplicaServer extends ReceiverAdapter {
      * @param view
      */
     @Override
-    public void viewAccepted(View view) { System.out.println(view.toString()); }
+    public void viewAccepted(View view) {
+
+        System.out.println(view.toString());
+
+        // The replica which proposes expiries may have changed, once the replica has started
+        if (dispatcher != null) {
+            expiry.setCoordinator(isCoordinator(view));
+            archiver.setCoordinator(isCoordinator(view));
+        }
+
+        int replicas = ClusterMembers.replicas(view).size();
+
+        // Remembers the version when the other side of a partition was lost, to know which
+        // auctions this side may have changed on its own
+        if (!(view instanceof MergeView)) {
+            if (replicas < replicasInView && partitionedAt < 0) {
+                partitionedAt = store.getVersion();
+                replicasBeforePartition = replicasInView;
+            } else if (replicas >= replicasBeforePartition) {
+                partitionedAt = -1;
+            }
+        }
+
+        replicasInView = replicas;
+
+        // After a partition heals, every side but the primary one takes the primary side's
+        // auctions, as the versions on the two sides cannot be compared
+        if (view instanceof MergeView && dispatcher != null) {
+
+            View primary = ClusterMembers.primarySubgroup((MergeView) view);
+            long changedSince = Math.max(0, partitionedAt);
+            partitionedAt = -1;
+
+            if (primary == null || primary.containsMember(channel.getAddress())) {
+                return;
+            }
+
+            // The first replica of each other side brings back what that side changed
+            boolean proposer = false;
+
+            for (View subgroup : ((MergeView) view).getSubgroups()) {
+                List<Address> subgroupReplicas = ClusterMembers.replicas(subgroup);
+
+                if (!subgroupReplicas.isEmpty() && subgroupReplicas.get(0).equals(channel.getAddress())) {
+                    proposer = true;
+                }
+            }
+
+            // viewAccepted must not block, so the state is fetched on another thread
+            long proposeSince = proposer ? changedSince : -1;
+            new Thread(() -> rejoinPrimary(ClusterMembers.replicas(primary), proposeSince)).start();
+        }
+    }
+
+    /**
+     * Method used after a partition heals to replace this replica's auctions with those of
+     * the primary side, then to propose this side's own changes to the whole group as a TOA
+     * anycast, so every replica merges them at the same point in the order, where
+     * each is kept only if it is newer than the primary side's copy
+     *
+     * @param donors the replicas on the primary side
+     * @param changedSince the version this side's changes are proposed from, or -1 to propose none
+     */
+    private void rejoinPrimary(List<Address> donors, long changedSince) {
+
+        List<Auction> changed = changedSince < 0 ? new ArrayList<>() : store.getChangesSince(changedSince).getAuctions();
+        Address replacedFrom = null;
+        startCatchUp();
+
+        for (Address donor : donors) {
+            if (catchUp(donor, true)) {
+                replacedFrom = donor;
+                p("Replaced state from " + donor + " after the partition healed");
+                break;
+            }
+        }
+
+        endCatchUp();
+
+        if (replacedFrom == null) {
+            return;
+        }
+
+        checkCaughtUp(replacedFrom);
+
+        try {
+            for (int i = 0; i < changed.size(); i += CHUNK_SIZE) {
+                List<Auction> batch = changed.subList(i, Math.min(changed.size(), i + CHUNK_SIZE));
+                dispatcher.callRemoteMethods(channel.getView().getMembers(), "mergeAuctions", new Object[]{batch.toArray(new Auction[0])},
+                        new Class<?>[]{Auction[].class}, ClusterMembers.ordered(new RequestOptions(ResponseMode.GET_NONE, 0)));
+            }
+
+            if (!changed.isEmpty()) {
+                p("Proposed " + changed.size() + " auctions changed while partitioned");
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        expiry.scheduleAll();
+
+        if (AuctionArchiver.isEnabled()) {
+            archiver.scheduleAll();
+        }
+    }
+
+    /**
+     * Writes a snapshot, so that auctions received from another replica rather than
+     * through the log are on disk
+     */
+    private void snapshot() {
+
+        try {
+            storage.snapshot();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
     public void p(String msg) { System.out.println("> " + replicaID + " : "  +msg); }
 }
-
@@ -0,0 +1,172 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author Lewis Linaker
+ * @Description ReplicaStorage class which keeps a replica's auctions on disk, in a directory
+ * of its own. Operations are written to a WriteAheadLog and every so often the whole store is
+ * written to a snapshot, after which the log segments it covers are deleted. On start up the
+ * newest snapshot is mapped underneath the store, without reading it, and the log replayed on
+ * top of it. Closed auctions moved out of the store are kept in an AuctionArchive in the same
+ * directory.
+ */
+public class ReplicaStorage {
+
+    // How often a snapshot is taken, if the store has changed
+    public final static long SNAPSHOT_INTERVAL = Long.getLong("auction.snapshot.intervalMs", 60000);
+
+    // Snapshots are named after the first log segment they do not cover
+    private final static String SNAPSHOT_PREFIX = "snapshot-";
+    private final static String SNAPSHOT_SUFFIX = ".dat";
+    private final static String SNAPSHOT_TEMP = "snapshot.tmp";
+
+    // Private variables used by the ReplicaStorage
+    private final File directory;
+    private final AuctionStore store;
+    private final WriteAheadLog log;
+    private final AuctionArchive archive;
+    private final ScheduledExecutorService snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ReplicaStorage-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long snapshotVersion = -1;
+
+    /**
+     * Reads back the snapshot and log held in a directory into a store, then logs every
+     * operation the store applies from then on
+     *
+     * @param directory
+     * @param store
+     * @throws IOException
+     */
+    public ReplicaStorage(File directory, AuctionStore store) throws IOException {
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+
+        this.directory = directory;
+        this.store = store;
+        this.log = new WriteAheadLog(directory);
+        this.archive = new AuctionArchive(directory);
+
+        store.setArchive(archive);
+        recover();
+        store.setOperationLog(log);
+
+        snapshotter.scheduleWithFixedDelay(() -> {
+            try {
+                if (store.getVersion() != snapshotVersion) {
+                    snapshot();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, SNAPSHOT_INTERVAL, SNAPSHOT_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Maps the newest complete snapshot, if there is one, and replays the log on top of it
+     */
+    private void recover() throws IOException {
+
+        long start = System.currentTimeMillis();
+        File[] snapshots = snapshotFiles();
+
+        for (int i = snapshots.length - 1; i >= 0; i--) {
+            try {
+                store.setSnapshot(new MappedSnapshot(snapshots[i]));
+                break;
+            } catch (IOException e) {
+                System.err.println("Cannot read snapshot " + snapshots[i] + ": " + e.getMessage());
+            }
+        }
+
+        long records = log.replay(store);
+        snapshotVersion = store.getVersion();
+
+        System.out.println("Recovered " + store.size() + " auctions and " + archive.size() + " archived at version " + store.getVersion() + " from "
+                + directory + " (" + records + " log records) in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Writes the whole store to a new snapshot, then deletes the log segments it covers. The
+     * snapshot is written to a temporary file and renamed, so a crash part way through leaves
+     * the previous snapshot in place.
+     *
+     * Older snapshots are deleted once the new one is in place. A snapshot which is still
+     * mapped may not be deletable on some systems, in which case it is tried again next time.
+     *
+     * Operations carry on while the snapshot is written. Any operation in a segment older than
+     * the one started here was applied before the snapshot began, so it is in the snapshot;
+     * operations in the new segment which are also in the snapshot are skipped on replay.
+     *
+     * @throws IOException
+     */
+    public synchronized void snapshot() throws IOException {
+
+        int segment = log.rotate();
+        long version = store.getVersion();
+        File temp = new File(directory, SNAPSHOT_TEMP);
+        File snapshot = new File(directory, SNAPSHOT_PREFIX + segment + SNAPSHOT_SUFFIX);
+
+        MappedSnapshot.write(temp, store);
+        Files.move(temp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.deleteSegmentsBefore(segment);
+        snapshotVersion = version;
+
+        for (File old : snapshotFiles()) {
+            if (!old.equals(snapshot)) {
+                old.delete();
+            }
+        }
+    }
+
+    /**
+     * @return the snapshots in the directory, oldest first
+     */
+    private File[] snapshotFiles() {
+
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX));
+
+        if (files == null) {
+            return new File[0];
+        }
+
+        Arrays.sort(files, Comparator.comparingInt(file -> Integer.parseInt(
+                file.getName().substring(SNAPSHOT_PREFIX.length(), file.getName().length() - SNAPSHOT_SUFFIX.length()))));
+
+        return files;
+    }
+
+    /**
+     * @return the archive closed auctions are moved to
+     */
+    public AuctionArchive getArchive() { return archive; }
+
+    /**
+     * @return the log operations are written to
+     */
+    public WriteAheadLog getLog() { return log; }
+
+    /**
+     * Takes a last snapshot and closes the log
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+
+        snapshotter.shutdown();
+        snapshot();
+        log.close();
+        archive.close();
+    }
+}
@@ -0,0 +1,94 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @Author Lewis Linaker
+ * @Description RequestThreads class which makes the executors requests are handled on. By
+ * default these are pools of platform threads; with -Dauction.threads=virtual each task is run
+ * on a virtual thread of its own, so a task which blocks on a key file, a signature or a group
+ * call does not hold up a platform thread.
+ *
+ * Virtual threads need Java 21. They are looked up by reflection so that the code still
+ * builds and runs on older versions, where the platform pool is used instead.
+ */
+public class RequestThreads {
+
+    // Whether virtual threads were asked for
+    public final static boolean VIRTUAL = "virtual".equalsIgnoreCase(System.getProperty("auction.threads", "platform"));
+
+    // The factory method for virtual thread executors, or null if the JVM has none
+    private final static Method VIRTUAL_EXECUTOR = virtualExecutorFactory();
+
+    private RequestThreads() { }
+
+    /**
+     * @return Executors.newVirtualThreadPerTaskExecutor, or null if it does not exist
+     */
+    private static Method virtualExecutorFactory() {
+
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            if (VIRTUAL) {
+                System.err.println("Virtual threads need Java 21, running " + System.getProperty("java.version") + " with platform threads");
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the JVM can run virtual threads
+     */
+    public static boolean virtualThreadsAvailable() { return VIRTUAL_EXECUTOR != null; }
+
+    /**
+     * @return true if requests are run on virtual threads
+     */
+    public static boolean isVirtual() { return VIRTUAL && virtualThreadsAvailable(); }
+
+    /**
+     * Makes an executor in the mode set with -Dauction.threads
+     *
+     * @param name the name of the platform threads
+     * @param platformThreads the number of platform threads, when virtual threads are not used
+     * @return executor
+     */
+    public static ExecutorService newExecutor(String name, int platformThreads) {
+        return isVirtual() ? newVirtualExecutor() : newPlatformExecutor(name, platformThreads);
+    }
+
+    /**
+     * @return an executor which runs each task on a new virtual thread
+     * @throws UnsupportedOperationException if the JVM has no virtual threads
+     */
+    public static ExecutorService newVirtualExecutor() {
+
+        if (VIRTUAL_EXECUTOR == null) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21");
+        }
+
+        try {
+            return (ExecutorService) VIRTUAL_EXECUTOR.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot make a virtual thread executor", e);
+        }
+    }
+
+    /**
+     * @param name
+     * @param threads
+     * @return a fixed pool of daemon platform threads
+     */
+    public static ExecutorService newPlatformExecutor(String name, int threads) {
+
+        AtomicInteger count = new AtomicInteger();
+
+        return Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
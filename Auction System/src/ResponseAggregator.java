@@ -0,0 +1,200 @@
+import org.jgroups.Address;
+import org.jgroups.blocks.RspFilter;
+import org.jgroups.util.Rsp;
+import org.jgroups.util.RspList;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author Lewis Linaker
+ * @Description ResponseAggregator class which decides when enough replicas have answered a
+ * write and works out the response given by the most replicas. A write is sent with a filter
+ * from newFilter, which ends the call as soon as the policy is met rather than waiting for every
+ * replica, and the responses are then counted with majority.
+ *
+ * The policy is set with -Dauction.write.policy (ALL, MAJORITY or FIRST_N, default MAJORITY)
+ * and -Dauction.write.firstN. The call also waits for the front end's own read replica, which
+ * answers locally, so that a client reads its own writes.
+ */
+public class ResponseAggregator {
+
+    /**
+     * When a write has had enough responses
+     */
+    public enum Policy {
+        // Every replica in the view
+        ALL,
+        // As soon as a majority of the replicas agree on a response
+        MAJORITY,
+        // As soon as FIRST_N replicas have answered
+        FIRST_N
+    }
+
+    // The policy used for writes, and the number of replicas waited for with FIRST_N
+    public final static Policy POLICY = Policy.valueOf(System.getProperty("auction.write.policy", Policy.MAJORITY.name()));
+    public final static int FIRST_N = Integer.getInteger("auction.write.firstN", 1);
+
+    // Counters used to report how often the replicas disagreed or were not waited for
+    private final AtomicLong aggregations = new AtomicLong();
+    private final AtomicLong disagreements = new AtomicLong();
+    private final AtomicLong stragglers = new AtomicLong();
+    private final AtomicLong earlyReturns = new AtomicLong();
+
+    /**
+     * @param replicas the number of replicas the write is sent to
+     * @param self the address of the front end, whose read replica is also waited for
+     * @return a filter which ends the call once the policy is met
+     */
+    public RspFilter newFilter(int replicas, Address self) { return new QuorumFilter(replicas, self); }
+
+    /**
+     * Works out the response given by the most replicas, and counts any replicas which
+     * disagreed or did not answer
+     *
+     * @param responseList
+     * @param index the position of the response when each replica answered with an array
+     * of responses, or -1 when each replica answered with a single response
+     * @return majorityResponse
+     */
+    public String majority(RspList<Object> responseList, int index) {
+
+        HashMap<String, Integer> majority = new HashMap<>();
+
+        for (Object key : responseList.keySet()) {
+            Address address = (Address) key;
+            Rsp<Object> rsp = responseList.get(address);
+
+            // Only the replicas vote, not the read replicas of the front ends
+            if (ClusterMembers.isFrontEnd(address) || !rsp.wasReceived()) {
+                continue;
+            }
+
+            String response;
+
+            if (index < 0) {
+                response = (String) rsp.getValue();
+            } else if (rsp.getValue() instanceof String[]) {
+                response = ((String[]) rsp.getValue())[index];
+            } else {
+                continue;
+            }
+
+            majority.merge(response, 1, Integer::sum);
+        }
+
+        if (index <= 0) {
+            aggregations.incrementAndGet();
+            stragglers.addAndGet(stragglers(responseList));
+        }
+
+        if (majority.size() > 1) {
+            disagreements.incrementAndGet();
+        }
+
+        String majorityResponse = "";
+        int maxShowUps = 0;
+
+        for (String s : majority.keySet()) {
+            if (majority.get(s) > maxShowUps) {
+                maxShowUps = majority.get(s);
+                majorityResponse = s;
+            }
+        }
+
+        return majorityResponse;
+    }
+
+    /**
+     * @param responseList
+     * @return the number of replicas which had not answered when the call ended
+     */
+    private int stragglers(RspList<Object> responseList) {
+
+        int count = 0;
+
+        for (Object address : responseList.keySet()) {
+            if (!ClusterMembers.isFrontEnd((Address) address) && !responseList.get(address).wasReceived()) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @return a summary of the aggregation metrics
+     */
+    public String getStats() {
+        return "policy=" + POLICY + " writes=" + aggregations.get() + " earlyReturns=" + earlyReturns.get()
+                + " disagreements=" + disagreements.get() + " stragglers=" + stragglers.get();
+    }
+
+    /**
+     * Counts the responses to a single call as they arrive
+     */
+    private class QuorumFilter implements RspFilter {
+
+        private final int replicas;
+        private final Address self;
+        private final HashMap<Object, Integer> votes = new HashMap<>();
+        private int received;
+        private int mostVotes;
+        private boolean selfReceived;
+        private boolean returnedEarly;
+
+        QuorumFilter(int replicas, Address self) {
+            this.replicas = replicas;
+            this.self = self;
+        }
+
+        @Override
+        public synchronized boolean isAcceptable(Object response, Address sender) {
+
+            if (sender.equals(self)) {
+                selfReceived = true;
+            } else if (!ClusterMembers.isFrontEnd(sender)) {
+                received++;
+
+                // Arrays are compared by their contents, so a batch only agrees if every response does
+                Object vote = response instanceof Object[] ? Arrays.asList((Object[]) response) : response;
+                mostVotes = Math.max(mostVotes, votes.merge(vote, 1, Integer::sum));
+            }
+
+            return true;
+        }
+
+        @Override
+        public synchronized boolean needMoreResponses() {
+
+            if (!selfReceived) {
+                return true;
+            }
+
+            if (received >= replicas) {
+                return false;
+            }
+
+            boolean met;
+
+            switch (POLICY) {
+                case MAJORITY:
+                    met = mostVotes > replicas / 2;
+                    break;
+                case FIRST_N:
+                    met = received >= Math.min(FIRST_N, replicas);
+                    break;
+                default:
+                    met = false;
+            }
+
+            if (met && !returnedEarly) {
+                returnedEarly = true;
+                earlyReturns.incrementAndGet();
+            }
+
+            return !met;
+        }
+    }
+}
@@ -1,12 +1,12 @@
 import javax.crypto.*;
 import java.io.IOException;
 import java.math.BigInteger;
-import java.rmi.Naming;
 import java.rmi.RemoteException;
 import java.security.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -19,10 +19,12 @@ public class SellerClient {
 
     // Private variables used by the seller client
     AuctionInterface serverInterface;
+    FrontEndBalancer balancer;
     SecretKey sessionKey;
     PublicKey serverPublicKey;
     PrivateKey myPrivateKey;
     private SecureRandom rnd;
+    private AtomicLong sequence = new AtomicLong();
 
     protected String ID;
 
@@ -57,9 +59,10 @@ public class SellerClient {
 
         // Used to call inputDetected when a user inputs something into the
         // client program
-        System.out.println("1. Create an Auction:  add_auction (name, Start Price, Reserve Price)");
-        System.out.println("2. List Auctions: list_auctions");
+        System.out.println("1. Create an Auction:  add_auction (name, Start Price, Reserve Price) [minutes]");
+        System.out.println("2. List Auctions: list_auctions [open] [mine]");
         System.out.println("3. End an auction: end_auction (auction ID)");
+        System.out.println("4. Bid history of an auction: bid_history (auction ID)");
 
 
         while (scanner.hasNextLine()) {
@@ -87,11 +90,23 @@ public class SellerClient {
 
             // Allows the user to add an auction
             case "add_auction":
-                if (input.size() < 3 || input.size() > 4) {
+                if (input.size() < 3 || input.size() > 5) {
                     System.err.println("Wrong Format");
                     break;
                 }
 
+                // The auction ends on its own after the given number of minutes, if given
+                long durationMillis = 0;
+
+                if (input.size() > 4) {
+                    if (!isDouble(input.get(4)) || Double.parseDouble(input.get(4)) <= 0) {
+                        System.err.println(input.get(4) + " Minutes must be a number higher than 0");
+                        break;
+                    }
+
+                    durationMillis = (long) (Double.parseDouble(input.get(4)) * 60000);
+                }
+
                 // Methods to check if the inputs are a number
                 if (!isDouble(input.get(2)))
                     System.err.println(input.get(2) + "Start Price needs to be a number");
@@ -120,7 +135,7 @@ public class SellerClient {
                             }
 
                             // Prints out a server response
-                            String response = addAuction(input.get(1), Double.parseDouble(input.get(2)), Double.parseDouble(input.get(3)));
+                            String response = addAuction(input.get(1), Double.parseDouble(input.get(2)), Double.parseDouble(input.get(3)), durationMillis);
                             System.out.println(response);
 
                         } catch (NumberFormatException nfe) {
@@ -131,7 +146,7 @@ public class SellerClient {
                     } else {
                         // If a reserve is not set, set it to the min price
                         try {
-                            String response = addAuction(input.get(1), Double.parseDouble(input.get(2)), Double.parseDouble(input.get(2)));
+                            String response = addAuction(input.get(1), Double.parseDouble(input.get(2)), Double.parseDouble(input.get(2)), durationMillis);
                             System.out.println(response);
                         } catch (NumberFormatException nfe) {
                             System.out.println("Wrong Format");
@@ -167,13 +182,27 @@ public class SellerClient {
                 }
 
             // Lists all of the current auctions
+            // "open" only lists auctions which are still open and "mine" only lists this user's auctions
             case "list_auctions":
+                ClientListings.printAuctions(balancer, () -> serverInterface, input.contains("open"), input.contains("mine") ? ID : null);
+                break;
 
-                try {
-                    System.out.println(serverInterface.getAuctions());
-                } catch (RemoteException re) {
-                    re.printStackTrace();
+            // Lists the bid history of an auction a page at a time
+            case "bid_history":
+
+                // Checks the correct number of values is being passed
+                if (input.size() != 2) {
+                    System.err.println("Wrong Format");
+                    break;
+                }
+
+                // Checks if the AuctionID is a number
+                if (!isInt(input.get(1))) {
+                    System.err.println(input.get(1) + "AuctionID must be a number");
+                    break;
                 }
+
+                ClientListings.printBidHistory(balancer, () -> serverInterface, Integer.parseInt(input.get(1)));
                 break;
 
             // Message to display when a command doesn't exist
@@ -189,21 +218,28 @@ public class SellerClient {
      * @param itemDescription
      * @param startPrice
      * @param reservePrice
+     * @param durationMillis how long the auction runs for, or 0 until it is ended
      * @return response
      */
-    public String addAuction(String itemDescription, double startPrice, double reservePrice) {
+    public String addAuction(String itemDescription, double startPrice, double reservePrice, long durationMillis) {
 
         String response = "No response";
 
         try {
 
             // Creates an auction with the itemDescription, the start price, the reserve price
-            // and registers the creator of the auction as the auction owner
-            Auction auction = new Auction(itemDescription, startPrice, reservePrice, ID);
-            Cipher cipher = Cipher.getInstance(sessionKey.getAlgorithm());
-            cipher.init(Cipher.ENCRYPT_MODE, sessionKey);
-            SealedObject sealedAuction = new SealedObject(auction, cipher);
-            response = serverInterface.createAuction(ID, sealedAuction);
+            // and registers the creator of the auction as the auction owner. It is sealed again
+            // if it has to be sent to another front end, under the new session key
+            response = balancer.call(() -> {
+                Auction auction = new Auction(itemDescription, startPrice, reservePrice, ID);
+
+                if (durationMillis > 0) {
+                    auction.setEndTime(System.currentTimeMillis() + durationMillis);
+                }
+
+                SealedObject sealedAuction = SessionCipher.seal(auction, sessionKey);
+                return serverInterface.createAuction(ID, sealedAuction);
+            });
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -212,7 +248,8 @@ public class SellerClient {
     }
 
     /**
-     * Method used to allow a user to cancel an auction
+     * Method used to allow a user to cancel an auction. Once the handshake is complete
+     * the request is authenticated with the session key, otherwise it is signed.
      *
      * @param auctionId
      * @return response
@@ -223,10 +260,21 @@ public class SellerClient {
 
         try {
 
-            Signature signature = Signature.getInstance("SHA1withRSA");
-            signature.initSign(myPrivateKey);
-            SignedObject signedId = new SignedObject(ID, myPrivateKey, signature);
-            response = "Trying to cancel auction with ID " + auctionId + serverInterface.closeAuction(signedId, auctionId);
+            response = "Trying to cancel auction with ID " + auctionId + balancer.call(() -> {
+
+                // Sends the request with a MAC under the session key and the next sequence number
+                if (sessionKey != null) {
+                    long nextSequence = sequence.incrementAndGet();
+                    byte[] mac = SessionMac.compute(sessionKey, ID, nextSequence, SessionMac.CLOSE_AUCTION, auctionId, 0);
+
+                    return serverInterface.closeAuctionWithMac(ID, nextSequence, auctionId, mac);
+                }
+
+                Signature signature = CryptoPool.signature(CryptoPool.SIGNATURE_ALGORITHM);
+                signature.initSign(myPrivateKey);
+                SignedObject signedId = new SignedObject(ID, myPrivateKey, signature);
+                return serverInterface.closeAuction(signedId, auctionId);
+            });
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -253,10 +301,15 @@ public class SellerClient {
         System.out.println("Loaded your PrivateKey");
         serverPublicKey = GenerateKeys.getPublicKey(GenerateKeys.SERVER_KEY);
         System.out.println("Loaded servers PublicKey");
-        serverInterface = (AuctionInterface) Naming.lookup("rmi://localhost/AuctionServer");
-        System.out.println("Connected To The AuctionServer");
         rnd = new SecureRandom();
-        handshake();
+
+        // Connects to one of the front ends and makes a handshake with it, and with any
+        // front end the client moves to if it cannot be reached
+        balancer = new FrontEndBalancer(ID, server -> {
+            serverInterface = server;
+            handshake();
+        });
+        balancer.connect();
     }
 
     /**
@@ -269,11 +322,17 @@ public class SellerClient {
         System.out.println("Challenge for server " + challenge);
 
         try {
-            Cipher challengeEncryptCipher = Cipher.getInstance(serverPublicKey.getAlgorithm());
+            Cipher challengeEncryptCipher = CryptoPool.cipher(serverPublicKey.getAlgorithm());
             challengeEncryptCipher.init(Cipher.ENCRYPT_MODE, serverPublicKey);
             SealedObject sealedChallengeForServer = new SealedObject(challenge, challengeEncryptCipher);
-            SealedObject serverAnswer = serverInterface.challengeServer(ID, sealedChallengeForServer);
-            Cipher decryptCipher = Cipher.getInstance(myPrivateKey.getAlgorithm());
+            SealedObject serverAnswer = serverInterface.challengeServer(ID, sealedChallengeForServer, SessionCipher.SUPPORTED);
+
+            if (serverAnswer == null) {
+                System.err.println("AuctionServer turned down the handshake");
+                return;
+            }
+
+            Cipher decryptCipher = CryptoPool.cipher(myPrivateKey.getAlgorithm());
             decryptCipher.init(Cipher.DECRYPT_MODE, myPrivateKey);
             ServerChallenge serverChallenge = (ServerChallenge) serverAnswer.getObject(decryptCipher);
             System.out.print("AuctionServer answered: " + serverChallenge.getAnswer() + ", ");
@@ -283,11 +342,23 @@ public class SellerClient {
             } else
                 return;
 
+            // The cipher list was sent in the clear, so a session with a cipher this client
+            // did not offer means it was changed on the way
+            if (!SessionCipher.isSupported(serverChallenge.getCipher())) {
+                System.err.println("AuctionServer chose " + serverChallenge.getCipher() + ", which was not offered");
+                return;
+            }
+
             sessionKey = serverChallenge.getSessionKey();
-            Cipher answerEncryptCipher = Cipher.getInstance(sessionKey.getAlgorithm());
-            answerEncryptCipher.init(Cipher.ENCRYPT_MODE, sessionKey);
-            SealedObject sealedAnswer = new SealedObject(serverChallenge.getClientChallenge(), answerEncryptCipher);
-            serverInterface.answerChallenge(ID, sealedAnswer);
+            SealedObject sealedAnswer = SessionCipher.seal(serverChallenge.getClientChallenge(), sessionKey);
+
+            // Only keeps the session key if the server accepted the answer, and starts the
+            // session's sequence numbers again
+            if (serverInterface.answerChallenge(ID, sealedAnswer)) {
+                sequence.set(0);
+            } else {
+                sessionKey = null;
+            }
 
         } catch (IOException io) {
             io.printStackTrace();
@@ -304,6 +375,8 @@ public class SellerClient {
             cnf.printStackTrace();
         } catch (IllegalBlockSizeException ibs) {
             ibs.printStackTrace();
+        } catch (GeneralSecurityException gse) {
+            gse.printStackTrace();
         }
     }
 
@@ -1,4 +1,3 @@
-import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import java.io.Serializable;
 import java.math.BigInteger;
@@ -7,36 +6,38 @@ import java.security.SecureRandom;
 
 public class ServerChallenge implements Serializable {
 
+    private final static long serialVersionUID = 1L;
+
     // Private Variables used to generate challenge answers and the
     // challenge for the client
     private String answer;
     private String clientChallenge;
+    private String cipher;
     private SecretKey sessionKey;
 
     /**
-     * Method used to generate a session key
+     * Method used to generate a session key for the cipher agreed in the handshake
      *
      * @param answer
+     * @param cipher
      */
-    public ServerChallenge(String answer) {
+    public ServerChallenge(String answer, String cipher) {
 
         this.answer = answer;
+        this.cipher = cipher;
         SecureRandom rnd = new SecureRandom();
         this.clientChallenge =  new BigInteger(64,rnd).toString(32);
-        KeyGenerator keyGen = null;
 
         try {
-            keyGen = KeyGenerator.getInstance("DES");
+            sessionKey = SessionCipher.newSessionKey(cipher);
         } catch (NoSuchAlgorithmException nsa) {
             nsa.printStackTrace();
         }
-
-        keyGen.init(56);
-        sessionKey= keyGen.generateKey();
     }
 
     // get methods for the private variables
     public String getAnswer() { return answer; }
     public String getClientChallenge() { return clientChallenge; }
+    public String getCipher() { return cipher; }
     public SecretKey getSessionKey() { return sessionKey; }
-}
\ No newline at end of file
+}
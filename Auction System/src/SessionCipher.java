@@ -0,0 +1,145 @@
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SealedObject;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.Serializable;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * @Author Lewis Linaker
+ * @Description SessionCipher class used to create session keys and to seal and unseal objects
+ * with them. Sessions use AES-GCM, which is hardware accelerated and authenticates what it
+ * encrypts. The ciphers a client offers in the handshake are not authenticated, so there is no
+ * fallback to a weaker cipher which someone between the client and the server could force by
+ * changing the offer; a client which offers no supported cipher is turned away, and a client
+ * checks that the session it is given uses a cipher it offered. DES is only kept so that
+ * SessionCipherBenchmark can compare against it.
+ */
+public class SessionCipher {
+
+    // The ciphers which can be used for a session, in order of preference, and DES, which
+    // is only used by the benchmark
+    public final static String AES_GCM = "AES/GCM/NoPadding";
+    public final static String DES = "DES";
+    public final static String[] SUPPORTED = {AES_GCM};
+
+    private SessionCipher() { }
+
+    /**
+     * Method used to pick the cipher for a session from the ciphers a client offers
+     *
+     * @param offered
+     * @return cipher, or null if the client offers none which are supported
+     */
+    public static String negotiate(String[] offered) {
+
+        if (offered == null) {
+            return null;
+        }
+
+        for (String supported : SUPPORTED) {
+            for (String cipher : offered) {
+                if (supported.equals(cipher)) {
+                    return supported;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Method used by a client to check the cipher of the session the server gave it. The
+     * server's answer is only trusted once it has answered the client's challenge, so this
+     * catches an offer which was changed on the way to the server.
+     *
+     * @param cipher
+     * @return true if the cipher is one the client offers
+     */
+    public static boolean isSupported(String cipher) {
+
+        for (String supported : SUPPORTED) {
+            if (supported.equals(cipher)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Method used to generate a session key for a cipher
+     *
+     * @param cipher
+     * @return sessionKey
+     * @throws NoSuchAlgorithmException
+     */
+    public static SecretKey newSessionKey(String cipher) throws NoSuchAlgorithmException {
+
+        KeyGenerator keyGen;
+
+        if (AES_GCM.equals(cipher)) {
+            keyGen = KeyGenerator.getInstance("AES");
+            keyGen.init(256);
+        } else {
+            keyGen = KeyGenerator.getInstance("DES");
+            keyGen.init(56);
+        }
+
+        return keyGen.generateKey();
+    }
+
+    /**
+     * Method used to get the cipher a session key is used with
+     *
+     * @param sessionKey
+     * @return cipher
+     */
+    public static String cipherFor(SecretKey sessionKey) {
+        return "AES".equals(sessionKey.getAlgorithm()) ? AES_GCM : sessionKey.getAlgorithm();
+    }
+
+    /**
+     * Method used to seal an object with a session key. With AES-GCM every seal gets
+     * a fresh random IV, which is stored in the sealed object.
+     *
+     * @param object
+     * @param sessionKey
+     * @return sealedObject
+     * @throws GeneralSecurityException
+     * @throws IOException
+     */
+    public static SealedObject seal(Serializable object, SecretKey sessionKey) throws GeneralSecurityException, IOException {
+
+        Cipher cipher = CryptoPool.cipher(cipherFor(sessionKey));
+        cipher.init(Cipher.ENCRYPT_MODE, sessionKey);
+
+        return new SealedObject(object, cipher);
+    }
+
+    /**
+     * Method used to unseal an object which was sealed with a session key
+     *
+     * @param sealedObject
+     * @param sessionKey
+     * @return object
+     * @throws GeneralSecurityException
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public static Object unseal(SealedObject sealedObject, SecretKey sessionKey) throws GeneralSecurityException, IOException, ClassNotFoundException {
+
+        // The IV of an AES-GCM seal is only held inside the sealed object, so the sealed
+        // object has to set up the cipher itself
+        if (AES_GCM.equals(cipherFor(sessionKey))) {
+            return sealedObject.getObject(sessionKey);
+        }
+
+        Cipher cipher = CryptoPool.cipher(cipherFor(sessionKey));
+        cipher.init(Cipher.DECRYPT_MODE, sessionKey);
+
+        return sealedObject.getObject(cipher);
+    }
+}
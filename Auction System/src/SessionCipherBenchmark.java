@@ -0,0 +1,94 @@
+import javax.crypto.SealedObject;
+import javax.crypto.SecretKey;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * @Author Lewis Linaker
+ * @Description SessionCipherBenchmark class which measures how many auctions a second can be
+ * sealed and unsealed with a session key, as SellerClient and AuctionImpl.createAuction do,
+ * under DES, the cipher used before, and AES-GCM, the cipher used now. The auction is given a
+ * full bid history so that it is the size of a busy auction. Each cipher is warmed up before
+ * it is timed.
+ *
+ * Usage: java SessionCipherBenchmark [iterations] [bids]
+ */
+public class SessionCipherBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int bids = args.length > 1 ? Integer.parseInt(args[1]) : BidHistory.DEFAULT_RETENTION;
+
+        Auction auction = new Auction("A well used bicycle with new tyres", 10, 50, "seller");
+        auction.setAuctionID(1);
+
+        for (int i = 1; i <= bids; i++) {
+            auction.bid(10 + i, "bidder" + (i % 7), System.currentTimeMillis());
+        }
+
+        System.out.println(iterations + " seals and unseals of an auction with " + bids + " bids");
+        System.out.println(String.format("%-22s %-15s %-15s %s", "Cipher", "Seals/s", "Unseals/s", "Sealed bytes"));
+
+        run("DES (before)", SessionCipher.DES, auction, iterations);
+        run("AES-GCM (after)", SessionCipher.AES_GCM, auction, iterations);
+    }
+
+    /**
+     * Seals and unseals the auction with a new session key for a cipher
+     */
+    private static void run(String name, String cipher, Auction auction, int iterations) throws Exception {
+
+        SecretKey sessionKey = SessionCipher.newSessionKey(cipher);
+
+        // Warms up the cipher and the serialization of the auction
+        time(auction, sessionKey, Math.max(1, iterations / 10));
+
+        double[] seconds = time(auction, sessionKey, iterations);
+
+        System.out.println(String.format("%-22s %-15.0f %-15.0f %d", name, iterations / seconds[0], iterations / seconds[1],
+                sizeOf(SessionCipher.seal(auction, sessionKey))));
+    }
+
+    /**
+     * @return the seconds taken to seal the auction iterations times, and to unseal it as many times
+     */
+    private static double[] time(Auction auction, SecretKey sessionKey, int iterations) throws Exception {
+
+        SealedObject sealed = null;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < iterations; i++) {
+            sealed = SessionCipher.seal(auction, sessionKey);
+        }
+
+        long sealing = System.nanoTime() - start;
+        start = System.nanoTime();
+
+        for (int i = 0; i < iterations; i++) {
+            Auction unsealed = (Auction) SessionCipher.unseal(sealed, sessionKey);
+
+            if (unsealed.getAuctionID() != auction.getAuctionID()) {
+                throw new IllegalStateException("The auction did not unseal");
+            }
+        }
+
+        long unsealing = System.nanoTime() - start;
+
+        return new double[]{sealing / 1e9, unsealing / 1e9};
+    }
+
+    /**
+     * @return the size of the sealed object once serialized, as it is sent over RMI
+     */
+    private static int sizeOf(SealedObject sealed) throws Exception {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(sealed);
+        }
+
+        return bytes.size();
+    }
+}
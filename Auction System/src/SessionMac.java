@@ -0,0 +1,83 @@
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+/**
+ * @Author Lewis Linaker
+ * @Description SessionMac class used to authenticate requests with the session key agreed
+ * during the challenge handshake. Once a client has completed the handshake it can send
+ * bids and close requests with an HMAC instead of an RSA signature, which is far cheaper
+ * to check. Each request carries a sequence number so that it cannot be replayed.
+ */
+public class SessionMac {
+
+    // The MAC algorithm and the operations which can be authenticated with it
+    public final static String ALGORITHM = "HmacSHA256";
+    public final static String BID = "bid";
+    public final static String PROXY_BID = "proxyBid";
+    public final static String CLOSE_AUCTION = "closeAuction";
+
+    private SessionMac() { }
+
+    /**
+     * Method used to compute the MAC of a request
+     *
+     * @param sessionKey
+     * @param userID
+     * @param sequence
+     * @param operation
+     * @param auctionID
+     * @param amount
+     * @return mac
+     * @throws GeneralSecurityException
+     */
+    public static byte[] compute(SecretKey sessionKey, String userID, long sequence, String operation,
+                                 int auctionID, double amount) throws GeneralSecurityException {
+
+        Mac mac = CryptoPool.mac(ALGORITHM);
+        mac.init(new SecretKeySpec(sessionKey.getEncoded(), ALGORITHM));
+
+        // Every field is written with its length or at a fixed size so that two different
+        // requests can never produce the same bytes
+        byte[] user = userID.getBytes(StandardCharsets.UTF_8);
+        byte[] op = operation.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + user.length + 4 + op.length + 8 + 4 + 8);
+        buffer.putInt(user.length).put(user);
+        buffer.putInt(op.length).put(op);
+        buffer.putLong(sequence).putInt(auctionID).putDouble(amount);
+
+        return mac.doFinal(buffer.array());
+    }
+
+    /**
+     * Method used to check the MAC sent with a request in constant time
+     *
+     * @param sessionKey
+     * @param mac
+     * @param userID
+     * @param sequence
+     * @param operation
+     * @param auctionID
+     * @param amount
+     * @return true if the MAC is correct or false if it isn't
+     */
+    public static boolean verify(SecretKey sessionKey, byte[] mac, String userID, long sequence, String operation,
+                                 int auctionID, double amount) {
+
+        if (sessionKey == null || mac == null || userID == null) {
+            return false;
+        }
+
+        try {
+            return MessageDigest.isEqual(mac, compute(sessionKey, userID, sequence, operation, auctionID, amount));
+        } catch (GeneralSecurityException gse) {
+            gse.printStackTrace();
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,267 @@
+import javax.crypto.SecretKey;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author Lewis Linaker
+ * @Description SessionRegistry class which keeps track of the challenge handshakes in progress
+ * and the sessions of the users who have completed one. Both are held in concurrent maps, as
+ * RMI calls arrive on many threads at once. A background sweep removes challenges which were
+ * never answered, sessions which have been idle too long and sessions which have reached their
+ * maximum lifetime, so that the maps do not grow without bound.
+ */
+public class SessionRegistry {
+
+    // Default timeouts, which can be changed with -Dauction.session.* properties
+    public final static long DEFAULT_CHALLENGE_TIMEOUT_MILLIS = Long.getLong("auction.session.challengeTimeout", 60_000L);
+    public final static long DEFAULT_IDLE_TIMEOUT_MILLIS = Long.getLong("auction.session.idleTimeout", 30 * 60_000L);
+    public final static long DEFAULT_MAX_LIFETIME_MILLIS = Long.getLong("auction.session.maxLifetime", 12 * 60 * 60_000L);
+
+    // Private variables used to hold the sessions and handshakes
+    private final ConcurrentHashMap<String, Session> sessions;
+    private final ConcurrentHashMap<String, PendingChallenge> pending;
+    private final long challengeTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long maxLifetimeMillis;
+    private final ScheduledExecutorService sweeper;
+
+    // Private variables used for the session metrics
+    private final AtomicLong handshakesStarted;
+    private final AtomicLong handshakesCompleted;
+    private final AtomicLong sessionsExpired;
+    private long lastRateSampleAt;
+    private long lastRateSampleCount;
+    private volatile double handshakesPerSecond;
+
+    /**
+     * Creates a session registry with the default timeouts
+     */
+    public SessionRegistry() { this(DEFAULT_CHALLENGE_TIMEOUT_MILLIS, DEFAULT_IDLE_TIMEOUT_MILLIS, DEFAULT_MAX_LIFETIME_MILLIS); }
+
+    /**
+     * @param challengeTimeoutMillis
+     * @param idleTimeoutMillis
+     * @param maxLifetimeMillis
+     *
+     * Creates a session registry and starts the background sweep, which runs once a second
+     */
+    public SessionRegistry(long challengeTimeoutMillis, long idleTimeoutMillis, long maxLifetimeMillis) {
+
+        this.challengeTimeoutMillis = challengeTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        sessions = new ConcurrentHashMap<>();
+        pending = new ConcurrentHashMap<>();
+        handshakesStarted = new AtomicLong();
+        handshakesCompleted = new AtomicLong();
+        sessionsExpired = new AtomicLong();
+        lastRateSampleAt = System.currentTimeMillis();
+
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SessionRegistry-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Method used to record a challenge sent to a user. Any session the user already has
+     * is kept until the new handshake completes.
+     *
+     * @param id
+     * @param challenge
+     */
+    public void startHandshake(String id, ServerChallenge challenge) {
+
+        pending.put(id, new PendingChallenge(challenge, System.currentTimeMillis()));
+        handshakesStarted.incrementAndGet();
+    }
+
+    /**
+     * Method used to get the challenge a user has to answer
+     *
+     * @param id
+     * @return challenge or null if there is none or it has expired
+     */
+    public ServerChallenge getPendingChallenge(String id) {
+
+        PendingChallenge challenge = pending.get(id);
+
+        if (challenge == null) {
+            return null;
+        }
+
+        if (System.currentTimeMillis() - challenge.createdAt > challengeTimeoutMillis) {
+            pending.remove(id, challenge);
+            return null;
+        }
+
+        return challenge.challenge;
+    }
+
+    /**
+     * Method used to start a session for a user who has answered their challenge
+     *
+     * @param id
+     * @param challenge
+     * @return session
+     */
+    public Session completeHandshake(String id, ServerChallenge challenge) {
+
+        Session session = new Session(challenge.getSessionKey(), System.currentTimeMillis());
+        sessions.put(id, session);
+        pending.computeIfPresent(id, (key, waiting) -> waiting.challenge == challenge ? null : waiting);
+        handshakesCompleted.incrementAndGet();
+
+        return session;
+    }
+
+    /**
+     * Method used to get the session of a user and mark it as used
+     *
+     * @param id
+     * @return session or null if the user has no session or it has expired
+     */
+    public Session getSession(String id) {
+
+        Session session = sessions.get(id);
+
+        if (session == null) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (session.isExpired(now, idleTimeoutMillis, maxLifetimeMillis)) {
+            if (sessions.remove(id, session)) {
+                sessionsExpired.incrementAndGet();
+            }
+            return null;
+        }
+
+        session.lastAccess = now;
+
+        return session;
+    }
+
+    /**
+     * @param id
+     * @return true if the user has completed the handshake and the session has not expired
+     */
+    public boolean isAuthenticated(String id) { return getSession(id) != null; }
+
+    /**
+     * Method used to end a user's session
+     *
+     * @param id
+     */
+    public void endSession(String id) { sessions.remove(id); }
+
+    /**
+     * @return the IDs of the users with a session
+     */
+    public Set<String> getSessionIDs() { return sessions.keySet(); }
+
+    /**
+     * Removes expired challenges and sessions, and samples the handshake rate
+     */
+    private void sweep() {
+
+        try {
+
+            long now = System.currentTimeMillis();
+
+            pending.values().removeIf(challenge -> now - challenge.createdAt > challengeTimeoutMillis);
+
+            for (Map.Entry<String, Session> entry : sessions.entrySet()) {
+                if (entry.getValue().isExpired(now, idleTimeoutMillis, maxLifetimeMillis)
+                        && sessions.remove(entry.getKey(), entry.getValue())) {
+                    sessionsExpired.incrementAndGet();
+                }
+            }
+
+            // Works out the number of handshakes completed per second since the last sweep
+            long completed = handshakesCompleted.get();
+
+            if (now > lastRateSampleAt) {
+                handshakesPerSecond = (completed - lastRateSampleCount) * 1000.0 / (now - lastRateSampleAt);
+            }
+
+            lastRateSampleAt = now;
+            lastRateSampleCount = completed;
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stops the background sweep
+     */
+    public void shutdown() { sweeper.shutdownNow(); }
+
+    // get methods for the session metrics
+    public int getActiveSessions() { return sessions.size(); }
+    public int getPendingHandshakes() { return pending.size(); }
+    public long getHandshakesStarted() { return handshakesStarted.get(); }
+    public long getHandshakesCompleted() { return handshakesCompleted.get(); }
+    public long getSessionsExpired() { return sessionsExpired.get(); }
+    public double getHandshakesPerSecond() { return handshakesPerSecond; }
+
+    /**
+     * @return a one line summary of the session metrics
+     */
+    public String getStats() {
+        return "SessionRegistry active=" + getActiveSessions() + " pending=" + getPendingHandshakes()
+                + " handshakes=" + getHandshakesCompleted() + "/" + getHandshakesStarted()
+                + " handshakesPerSecond=" + String.format("%.1f", getHandshakesPerSecond())
+                + " expired=" + getSessionsExpired();
+    }
+
+    /**
+     * Session class which holds the session key of a user who has completed the
+     * handshake, and the window of sequence numbers they have used
+     */
+    public static class Session {
+
+        private final SecretKey sessionKey;
+        private final ReplayWindow replayWindow;
+        private final long createdAt;
+        private volatile long lastAccess;
+
+        private Session(SecretKey sessionKey, long now) {
+            this.sessionKey = sessionKey;
+            this.replayWindow = new ReplayWindow();
+            this.createdAt = now;
+            this.lastAccess = now;
+        }
+
+        private boolean isExpired(long now, long idleTimeoutMillis, long maxLifetimeMillis) {
+            return now - lastAccess > idleTimeoutMillis || now - createdAt > maxLifetimeMillis;
+        }
+
+        // get methods for the session
+        public SecretKey getSessionKey() { return sessionKey; }
+        public ReplayWindow getReplayWindow() { return replayWindow; }
+    }
+
+    /**
+     * A challenge sent to a user along with when it was sent
+     */
+    private static class PendingChallenge {
+
+        private final ServerChallenge challenge;
+        private final long createdAt;
+
+        private PendingChallenge(ServerChallenge challenge, long createdAt) {
+            this.challenge = challenge;
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * @Author Lewis Linaker
+ * @Description ShardMap class which says which shard owns an auction. Each shard is a group of
+ * ReplicaServers of its own, in a JGroups cluster of its own, holding only the auctions hashed
+ * to it, so writes to different shards are ordered and replicated independently.
+ *
+ * The number of shards is set with -Dauction.shards and must be the same for every front end
+ * and replica. With a single shard the cluster keeps its original name.
+ */
+public class ShardMap {
+
+    // The number of shards the auctions are split between
+    public final static int SHARDS = Math.max(1, Integer.getInteger("auction.shards", 1));
+
+    // The cluster every shard's name starts with
+    public final static String CLUSTER = "AuctionServer";
+
+    private ShardMap() { }
+
+    /**
+     * @param auctionID
+     * @return the shard which owns the auction
+     */
+    public static int shardOf(int auctionID) {
+
+        // Mixes the bits of the ID so that neighbouring IDs are spread over the shards
+        int h = auctionID * 0x9E3779B9;
+        h ^= h >>> 16;
+
+        return Math.floorMod(h, SHARDS);
+    }
+
+    /**
+     * @param shard
+     * @return the name of the JGroups cluster of the shard
+     */
+    public static String clusterName(int shard) { return SHARDS == 1 ? CLUSTER : CLUSTER + "-" + shard; }
+
+    /**
+     * The number of replicas a shard is meant to have, set for every shard with
+     * -Dauction.replicas or for one shard with -Dauction.shard.<n>.replicas. The front end
+     * warns when a write is sent to fewer than a majority of them. 0 means no check.
+     *
+     * @param shard
+     * @return replication factor
+     */
+    public static int replicationFactor(int shard) {
+        return Integer.getInteger("auction.shard." + shard + ".replicas", Integer.getInteger("auction.replicas", 0));
+    }
+}
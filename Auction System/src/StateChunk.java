@@ -0,0 +1,113 @@
+import org.jgroups.util.Streamable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @Author Lewis Linaker
+ * @Description StateChunk class which holds one chunk of a delta state transfer. It contains
+ * the auctions changed since the version a rejoining replica already has, in order of their ID,
+ * along with the version of the replica which sent it. Archived auctions are not sent, only the
+ * IDs of every auction in the chunk's range which the sender has archived, so that the rejoining
+ * replica can archive them too.
+ */
+public class StateChunk implements Externalizable, Streamable {
+
+    private final static long serialVersionUID = 1L;
+
+    // Private variables used to describe a chunk of auctions
+    private List<Auction> auctions;
+    private int[] archived;
+    private int nextCursor;
+    private boolean more;
+    private long version;
+    private int leasedUpTo;
+
+    /**
+     * Creates an empty chunk, which is only used to read a chunk back with readFrom
+     */
+    public StateChunk() { this(new ArrayList<>(), new int[0], AuctionPage.FIRST_PAGE, false, 0, 0); }
+
+    /**
+     * @param auctions
+     * @param archived the IDs of the archived auctions after the previous chunk's cursor, up
+     * to this chunk's cursor or, in the last chunk, with any higher ID
+     * @param nextCursor the ID of the last auction looked at
+     * @param more whether there may be more changed auctions after the cursor
+     * @param version the version of the store the chunk was taken from
+     * @param leasedUpTo the last auction ID the store has leased to a front end
+     */
+    public StateChunk(List<Auction> auctions, int[] archived, int nextCursor, boolean more, long version, int leasedUpTo) {
+
+        this.auctions = auctions;
+        this.archived = archived;
+        this.nextCursor = nextCursor;
+        this.more = more;
+        this.version = version;
+        this.leasedUpTo = leasedUpTo;
+    }
+
+    // get methods for the private variables
+    public List<Auction> getAuctions() { return auctions; }
+    public int[] getArchived() { return archived; }
+    public int getNextCursor() { return nextCursor; }
+    public boolean hasMore() { return more; }
+    public long getVersion() { return version; }
+    public int getLeasedUpTo() { return leasedUpTo; }
+
+    @Override
+    public void writeTo(DataOutput out) throws IOException {
+
+        out.writeInt(nextCursor);
+        out.writeBoolean(more);
+        out.writeLong(version);
+        out.writeInt(leasedUpTo);
+        out.writeInt(auctions.size());
+
+        for (Auction auction : auctions) {
+            auction.writeTo(out);
+        }
+
+        out.writeInt(archived.length);
+
+        for (int auctionID : archived) {
+            out.writeInt(auctionID);
+        }
+    }
+
+    @Override
+    public void readFrom(DataInput in) throws IOException {
+
+        nextCursor = in.readInt();
+        more = in.readBoolean();
+        version = in.readLong();
+        leasedUpTo = in.readInt();
+        int size = in.readInt();
+        auctions = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            Auction auction = new Auction();
+            auction.readFrom(in);
+            auctions.add(auction);
+        }
+
+        archived = new int[in.readInt()];
+
+        for (int i = 0; i < archived.length; i++) {
+            archived[i] = in.readInt();
+        }
+    }
+
+    // Java serialization uses the same compact format
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException { writeTo(out); }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException { readFrom(in); }
+}
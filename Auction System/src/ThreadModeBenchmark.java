@@ -0,0 +1,94 @@
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.SignedObject;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author Lewis Linaker
+ * @Description ThreadModeBenchmark class which compares how many requests a second platform
+ * threads and virtual threads handle when each request blocks, as a front end's requests do
+ * on key files, signatures and group calls. Each request checks a signed bid then waits for
+ * blockMs, standing in for the round trip to the replicas. The platform pool has the given
+ * number of threads; virtual threads start one thread per request, limited by a
+ * ConcurrencyGuard to the same number of requests as there are clients.
+ *
+ * Virtual threads need Java 21; on older versions only the platform pool is measured.
+ *
+ * Usage: java ThreadModeBenchmark [requests] [clients] [blockMs] [platformThreads]
+ */
+public class ThreadModeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        long blockMillis = args.length > 2 ? Long.parseLong(args[2]) : 20;
+        int platformThreads = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keys = generator.generateKeyPair();
+        SignedObject bid = new SignedObject(new Object[]{"bidder", 1, 10.0}, keys.getPrivate(),
+                CryptoPool.signature(CryptoPool.SIGNATURE_ALGORITHM));
+
+        System.out.println(requests + " requests from " + clients + " clients, each blocking " + blockMillis + "ms");
+        System.out.println(String.format("%-30s %-15s %s", "Mode", "Requests/s", "Avg latency (ms)"));
+
+        run("platform (" + platformThreads + " threads)", RequestThreads.newPlatformExecutor("Benchmark", platformThreads),
+                null, requests, clients, blockMillis, bid, keys);
+
+        if (RequestThreads.virtualThreadsAvailable()) {
+            run("virtual", RequestThreads.newVirtualExecutor(), new ConcurrencyGuard("Benchmark", clients, 0),
+                    requests, clients, blockMillis, bid, keys);
+        } else {
+            System.out.println(String.format("%-30s %s", "virtual", "needs Java 21, running " + System.getProperty("java.version")));
+        }
+    }
+
+    /**
+     * Sends every request to an executor, with no more than clients waiting for a reply at
+     * once, as that many clients each waiting for their reply before sending again would
+     */
+    private static void run(String mode, ExecutorService executor, ConcurrencyGuard guard, int requests, int clients,
+                            long blockMillis, SignedObject bid, KeyPair keys) throws Exception {
+
+        Semaphore outstanding = new Semaphore(clients);
+        AtomicLong totalLatency = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(requests);
+        Executor target = guard == null ? executor : guard.guard(executor);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < requests; i++) {
+
+            outstanding.acquire();
+            long sent = System.nanoTime();
+
+            target.execute(() -> {
+                try {
+                    Signature signature = CryptoPool.signature(CryptoPool.SIGNATURE_ALGORITHM);
+                    bid.verify(keys.getPublic(), signature);
+                    Thread.sleep(blockMillis);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+
+                totalLatency.addAndGet(System.nanoTime() - sent);
+                outstanding.release();
+                done.countDown();
+            });
+        }
+
+        done.await();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        System.out.println(String.format("%-30s %-15.0f %.2f", mode, requests / seconds, totalLatency.get() / 1e6 / requests));
+    }
+}
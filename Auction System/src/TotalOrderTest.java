@@ -0,0 +1,141 @@
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * @Author Lewis Linaker
+ * @Description TotalOrderTest class which starts a shard's replicas and two front ends in one
+ * process, then has both front ends bid on the same auction at once from several threads each,
+ * every thread with its own amounts, so that their bids race each other. Replicas which apply the bids in
+ * different orders turn down different bids, so once every bid has been answered each replica
+ * and each front end's read replica must hold the same highest bid, winner, bid history and
+ * version. The replicas' data is written under Data and removed at the end.
+ *
+ * Run with -Djava.net.preferIPv4Stack=true, and -Djgroups.bind_addr=127.0.0.1 with no network.
+ *
+ * Usage: java TotalOrderTest [bidsPerThread] [threadsPerFrontEnd] [replicas]
+ */
+public class TotalOrderTest {
+
+    private final static Class<?>[] BID_TYPES = {int.class, double.class, String.class, long.class};
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+
+        int bids = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int replicaCount = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        String prefix = "TotalOrderTest-" + System.currentTimeMillis() + "-";
+
+        ReplicaServer[] replicas = new ReplicaServer[replicaCount];
+
+        for (int i = 0; i < replicaCount; i++) {
+            replicas[i] = new ReplicaServer(prefix + i, 0);
+        }
+
+        FrontEndShard[] frontEnds = {
+                new FrontEndShard(0, new ConcurrencyGuard("TotalOrderTest-a", 1000, 0)),
+                new FrontEndShard(0, new ConcurrencyGuard("TotalOrderTest-b", 1000, 0))
+        };
+
+        Auction auction = new Auction("Contested item", 0, 0, "seller");
+        auction.setAuctionID(1);
+        frontEnds[0].write("addAuction", new Object[]{auction}, new Class<?>[]{Auction.class});
+
+        CountDownLatch start = new CountDownLatch(1);
+        int senders = frontEnds.length * threads;
+        CountDownLatch done = new CountDownLatch(senders);
+
+        for (int s = 0; s < senders; s++) {
+            FrontEndShard frontEnd = frontEnds[s % frontEnds.length];
+            int offset = s;
+            String bidderID = "bidder" + s;
+
+            // Every sender bids amounts no other sender bids, going up in step with the others
+            new Thread(() -> {
+                try {
+                    start.await();
+
+                    for (int i = 1; i <= bids; i++) {
+                        frontEnd.write("bid", new Object[]{1, (double) (i * senders + offset), bidderID, (long) i}, BID_TYPES);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+
+                done.countDown();
+            }).start();
+        }
+
+        start.countDown();
+        done.await();
+
+        // Writes return once a majority has answered, so the rest are given time to catch up
+        Thread.sleep(2000);
+
+        AuctionStore expected = replicas[0].store;
+
+        for (int i = 1; i < replicaCount; i++) {
+            compare("replica " + i, expected, replicas[i].store);
+        }
+
+        for (int f = 0; f < frontEnds.length; f++) {
+            compare("front end " + f, expected, frontEnds[f].getReadReplica());
+        }
+
+        Auction result = expected.getAuction(1);
+        System.out.println("Highest bid " + result.getCurrentBid() + " by " + result.getCurrentWinner() + " at version " + expected.getVersion());
+        System.out.println(failures == 0 ? "All total order checks passed" : failures + " total order checks failed");
+
+        for (int i = 0; i < replicaCount; i++) {
+            delete(new File("Data", prefix + i));
+        }
+
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * Checks that a store holds the same auction and version as the first replica
+     */
+    private static void compare(String name, AuctionStore expected, AuctionStore actual) {
+
+        Auction want = expected.getAuction(1);
+        Auction got = actual.getAuction(1);
+        List<BidRecord> wantHistory = want.getBidHistory(0, Integer.MAX_VALUE);
+        List<BidRecord> gotHistory = got.getBidHistory(0, Integer.MAX_VALUE);
+        boolean sameHistory = wantHistory.size() == gotHistory.size();
+
+        for (int i = 0; sameHistory && i < wantHistory.size(); i++) {
+            sameHistory = wantHistory.get(i).getAmount() == gotHistory.get(i).getAmount()
+                    && wantHistory.get(i).getBidderID().equals(gotHistory.get(i).getBidderID());
+        }
+
+        check(name + ": same highest bid", want.getCurrentBid() == got.getCurrentBid() && String.valueOf(want.getCurrentWinner()).equals(got.getCurrentWinner()),
+                got.getCurrentBid() + " by " + got.getCurrentWinner() + " against " + want.getCurrentBid() + " by " + want.getCurrentWinner());
+        check(name + ": same bid history", sameHistory, gotHistory.size() + " bids against " + wantHistory.size());
+        check(name + ": same version", expected.getVersion() == actual.getVersion(), actual.getVersion() + " against " + expected.getVersion());
+    }
+
+    private static void check(String name, boolean passed, String detail) {
+
+        if (!passed) {
+            failures++;
+        }
+
+        System.out.println((passed ? "PASS " : "FAIL ") + name + (passed ? "" : " (" + detail + ")"));
+    }
+
+    private static void delete(File file) {
+
+        File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+}
@@ -0,0 +1,551 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * @Author Lewis Linaker
+ * @Description WriteAheadLog class which appends every operation applied by a replica's
+ * AuctionStore to a log on disk. Records are group committed: a sync thread writes every record
+ * appended since the last sync and forces them to disk with a single fsync, then tells the
+ * callers waiting on them. The log is split into segments so that segments covered by a
+ * snapshot can be deleted.
+ */
+public class WriteAheadLog implements AuctionStore.OperationLog {
+
+    // How long the sync thread waits by default for more records to batch into one fsync
+    public final static long SYNC_INTERVAL = Long.getLong("auction.wal.syncIntervalMs", 0);
+
+    // The type of each record
+    private final static byte ADD_AUCTION = 1;
+    private final static byte BID = 2;
+    private final static byte CLOSE_AUCTION = 3;
+    private final static byte LEASE_IDS = 4;
+    private final static byte PROXY_BID = 5;
+    private final static byte EXPIRE_AUCTION = 6;
+    private final static byte ARCHIVE_AUCTION = 7;
+    private final static byte MERGE_AUCTION = 8;
+
+    private final static String SEGMENT_PREFIX = "wal-";
+    private final static String SEGMENT_SUFFIX = ".log";
+
+    // Private variables used to hold the records waiting for the next sync
+    private final File directory;
+    private final long syncInterval;
+    private final Object ioLock = new Object();
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private long appended;
+    private long durable;
+    private final List<Waiter> waiters = new ArrayList<>();
+    private final ThreadLocal<Long> lastAppended = new ThreadLocal<>();
+    private FileChannel segment;
+    private int segmentNumber;
+    private volatile boolean running = true;
+    private final Thread syncer;
+
+    // Counters used to report how well records are being batched
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong syncedRecords = new AtomicLong();
+
+    /**
+     * A callback waiting for a record to be durable
+     */
+    private static class Waiter {
+
+        final long record;
+        final Runnable callback;
+
+        Waiter(long record, Runnable callback) {
+            this.record = record;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * Opens the log held in a directory, batching records for SYNC_INTERVAL
+     *
+     * @param directory
+     * @throws IOException
+     */
+    public WriteAheadLog(File directory) throws IOException { this(directory, SYNC_INTERVAL); }
+
+    /**
+     * Opens the log held in a directory. Records already in the log are not appended to, so
+     * replay should be called first; a new segment is started for new records.
+     *
+     * @param directory
+     * @param syncInterval how long to wait for more records to batch into one fsync, or 0
+     * to sync as soon as a record is appended
+     * @throws IOException
+     */
+    public WriteAheadLog(File directory, long syncInterval) throws IOException {
+
+        this.directory = directory;
+        this.syncInterval = syncInterval;
+        int[] segments = segmentNumbers();
+        segmentNumber = segments.length == 0 ? 0 : segments[segments.length - 1];
+        openNextSegment();
+
+        syncer = new Thread(this::syncLoop, "WriteAheadLog-sync");
+        syncer.setDaemon(true);
+        syncer.start();
+    }
+
+    @Override
+    public void added(long version, Auction auction) {
+
+        try {
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(record);
+            out.writeByte(ADD_AUCTION);
+            out.writeLong(version);
+            auction.writeTo(out);
+            append(record.toByteArray());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void bid(long version, int auctionID, double value, String bidderID, long timestamp) {
+
+        try {
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(record);
+            out.writeByte(BID);
+            out.writeLong(version);
+            out.writeInt(auctionID);
+            out.writeDouble(value);
+            out.writeUTF(bidderID);
+            out.writeLong(timestamp);
+            append(record.toByteArray());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void proxyBid(long version, int auctionID, double maximum, double increment, String bidderID, long timestamp) {
+
+        try {
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(record);
+            out.writeByte(PROXY_BID);
+            out.writeLong(version);
+            out.writeInt(auctionID);
+            out.writeDouble(maximum);
+            out.writeDouble(increment);
+            out.writeUTF(bidderID);
+            out.writeLong(timestamp);
+            append(record.toByteArray());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void closed(long version, String clientID, int auctionID) {
+
+        try {
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(record);
+            out.writeByte(CLOSE_AUCTION);
+            out.writeLong(version);
+            out.writeUTF(clientID);
+            out.writeInt(auctionID);
+            append(record.toByteArray());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void expired(long version, int auctionID, long now) {
+
+        try {
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(record);
+            out.writeByte(EXPIRE_AUCTION);
+            out.writeLong(version);
+            out.writeInt(auctionID);
+            out.writeLong(now);
+            append(record.toByteArray());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void archived(long version, int auctionID) {
+
+        try {
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(record);
+            out.writeByte(ARCHIVE_AUCTION);
+            out.writeLong(version);
+            out.writeInt(auctionID);
+            append(record.toByteArray());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void merged(long version, Auction auction) {
+
+        try {
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(record);
+            out.writeByte(MERGE_AUCTION);
+            out.writeLong(version);
+            auction.writeTo(out);
+            append(record.toByteArray());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void leased(long version, int leasedUpTo) {
+
+        try {
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(record);
+            out.writeByte(LEASE_IDS);
+            out.writeLong(version);
+            out.writeInt(leasedUpTo);
+            append(record.toByteArray());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Adds a record to the next batch. Each record is written with its length and checksum
+     * so that a record torn by a crash is detected on replay.
+     */
+    private synchronized void append(byte[] record) throws IOException {
+
+        CRC32 crc = new CRC32();
+        crc.update(record);
+
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(record.length);
+        out.writeInt((int) crc.getValue());
+        out.write(record);
+
+        appended++;
+        lastAppended.set(appended);
+        notifyAll();
+    }
+
+    /**
+     * Returns the last record appended by the calling thread, and forgets it, so a caller
+     * can wait for the records it caused to be durable
+     *
+     * @return the record number, or 0 if the thread has not appended anything
+     */
+    public long takeLastAppended() {
+
+        Long record = lastAppended.get();
+        lastAppended.remove();
+
+        return record == null ? 0 : record;
+    }
+
+    /**
+     * Runs a callback once a record is durable, on the sync thread, or straight away if
+     * it already is
+     *
+     * @param record
+     * @param callback
+     */
+    public void whenDurable(long record, Runnable callback) {
+
+        synchronized (this) {
+            if (durable < record) {
+                waiters.add(new Waiter(record, callback));
+                return;
+            }
+        }
+
+        callback.run();
+    }
+
+    /**
+     * The sync thread waits for records, lets more gather for the sync interval and then syncs
+     * them all at once
+     */
+    private void syncLoop() {
+
+        while (running) {
+            try {
+                synchronized (this) {
+                    while (buffer.size() == 0 && running) {
+                        wait();
+                    }
+                }
+
+                if (syncInterval > 0) {
+                    Thread.sleep(syncInterval);
+                }
+
+                sync();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Writes the records appended so far to the current segment and forces them to disk
+     *
+     * @throws IOException
+     */
+    public void sync() throws IOException {
+
+        List<Waiter> ready = new ArrayList<>();
+
+        synchronized (ioLock) {
+            byte[] batch;
+            long upTo;
+
+            synchronized (this) {
+                if (buffer.size() == 0) {
+                    return;
+                }
+
+                batch = buffer.toByteArray();
+                buffer = new ByteArrayOutputStream();
+                upTo = appended;
+            }
+
+            ByteBuffer data = ByteBuffer.wrap(batch);
+
+            while (data.hasRemaining()) {
+                segment.write(data);
+            }
+
+            segment.force(false);
+            syncs.incrementAndGet();
+
+            synchronized (this) {
+                syncedRecords.addAndGet(upTo - durable);
+                durable = upTo;
+
+                waiters.removeIf(waiter -> {
+                    if (waiter.record <= upTo) {
+                        ready.add(waiter);
+                        return true;
+                    }
+                    return false;
+                });
+            }
+        }
+
+        for (Waiter waiter : ready) {
+            waiter.callback.run();
+        }
+    }
+
+    /**
+     * Starts a new segment. Every record appended before this call is in an older segment,
+     * which can be deleted once a snapshot taken after this call is on disk.
+     *
+     * @return the number of the new segment
+     * @throws IOException
+     */
+    public int rotate() throws IOException {
+
+        synchronized (ioLock) {
+            // Records are appended under the lock on this, so none can be added between
+            // syncing the old segment and switching to the new one
+            synchronized (this) {
+                sync();
+                segment.close();
+                openNextSegment();
+                return segmentNumber;
+            }
+        }
+    }
+
+    /**
+     * Deletes the segments before a segment number
+     *
+     * @param number
+     */
+    public void deleteSegmentsBefore(int number) {
+
+        for (int n : segmentNumbers()) {
+            if (n < number && !segmentFile(n).delete()) {
+                System.err.println("Cannot delete " + segmentFile(n));
+            }
+        }
+    }
+
+    /**
+     * Replays every record in the log, oldest first, into a store. Reading a segment stops at
+     * the first record which was not completely written.
+     *
+     * @param store
+     * @return the number of records replayed
+     * @throws IOException
+     */
+    public long replay(AuctionStore store) throws IOException {
+
+        long records = 0;
+
+        for (int n : segmentNumbers()) {
+            if (n >= segmentNumber) {
+                continue;
+            }
+
+            try (InputStream file = Files.newInputStream(segmentFile(n).toPath())) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(file));
+
+                while (true) {
+                    byte[] record;
+
+                    try {
+                        int length = in.readInt();
+                        int checksum = in.readInt();
+                        record = new byte[length];
+                        in.readFully(record);
+
+                        CRC32 crc = new CRC32();
+                        crc.update(record);
+
+                        if ((int) crc.getValue() != checksum) {
+                            System.err.println("Torn record in " + segmentFile(n) + ", skipping the rest of the segment");
+                            break;
+                        }
+                    } catch (EOFException | NegativeArraySizeException e) {
+                        break;
+                    }
+
+                    apply(record, store);
+                    records++;
+                }
+            }
+        }
+
+        return records;
+    }
+
+    /**
+     * Applies one record to a store
+     */
+    private void apply(byte[] record, AuctionStore store) throws IOException {
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte type = in.readByte();
+        long version = in.readLong();
+
+        switch (type) {
+            case ADD_AUCTION:
+                Auction auction = new Auction();
+                auction.readFrom(in);
+                store.replayAddAuction(version, auction);
+                break;
+            case BID:
+                store.replayBid(version, in.readInt(), in.readDouble(), in.readUTF(), in.readLong());
+                break;
+            case PROXY_BID:
+                store.replayProxyBid(version, in.readInt(), in.readDouble(), in.readDouble(), in.readUTF(), in.readLong());
+                break;
+            case CLOSE_AUCTION:
+                store.replayCloseAuction(version, in.readUTF(), in.readInt());
+                break;
+            case EXPIRE_AUCTION:
+                store.replayExpireAuction(version, in.readInt(), in.readLong());
+                break;
+            case ARCHIVE_AUCTION:
+                store.replayArchiveAuction(version, in.readInt());
+                break;
+            case MERGE_AUCTION:
+                Auction merged = new Auction();
+                merged.readFrom(in);
+                store.replayMergeAuction(version, merged);
+                break;
+            case LEASE_IDS:
+                store.replayLeaseIdBlock(version, in.readInt());
+                break;
+            default:
+                throw new IOException("Unknown log record type " + type);
+        }
+    }
+
+    /**
+     * Syncs any remaining records and stops the sync thread
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+
+        running = false;
+        syncer.interrupt();
+        sync();
+
+        synchronized (ioLock) {
+            segment.close();
+        }
+    }
+
+    /**
+     * @return how many syncs have been made and the average number of records in each
+     */
+    public String getStats() {
+
+        long s = syncs.get();
+
+        return String.format("syncs=%d records=%d recordsPerSync=%.1f", s, syncedRecords.get(),
+                s == 0 ? 0.0 : (double) syncedRecords.get() / s);
+    }
+
+    private void openNextSegment() throws IOException {
+
+        segmentNumber++;
+        segment = FileChannel.open(segmentFile(segmentNumber).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private File segmentFile(int number) { return new File(directory, SEGMENT_PREFIX + number + SEGMENT_SUFFIX); }
+
+    /**
+     * @return the numbers of the segments in the directory, in order
+     */
+    private int[] segmentNumbers() {
+
+        String[] names = directory.list((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+
+        if (names == null) {
+            return new int[0];
+        }
+
+        int[] numbers = new int[names.length];
+
+        for (int i = 0; i < names.length; i++) {
+            numbers[i] = Integer.parseInt(names[i].substring(SEGMENT_PREFIX.length(), names[i].length() - SEGMENT_SUFFIX.length()));
+        }
+
+        Arrays.sort(numbers);
+
+        return numbers;
+    }
+}
@@ -0,0 +1,99 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * @Author Lewis Linaker
+ * @Description WriteAheadLogBenchmark class which measures how many bids a store can make
+ * durable per second with different sync intervals. Each writer places a bid and waits for it
+ * to be durable before placing the next, as a client waiting for its reply would.
+ *
+ * Usage: java WriteAheadLogBenchmark [bidsPerWriter] [writers] [syncIntervalMs...]
+ */
+public class WriteAheadLogBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        int bidsPerWriter = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int writers = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        long[] intervals = {0, 1, 2, 5, 10};
+
+        if (args.length > 2) {
+            intervals = new long[args.length - 2];
+
+            for (int i = 2; i < args.length; i++) {
+                intervals[i - 2] = Long.parseLong(args[i]);
+            }
+        }
+
+        System.out.println(String.format("%-15s %-15s %-15s %s", "Interval (ms)", "Bids/s", "Avg wait (ms)", "Log"));
+
+        for (long interval : intervals) {
+            run(interval, bidsPerWriter, writers);
+        }
+    }
+
+    /**
+     * Runs the benchmark with one sync interval, in a new temporary directory
+     */
+    private static void run(long interval, int bidsPerWriter, int writers) throws Exception {
+
+        File directory = Files.createTempDirectory("wal-benchmark").toFile();
+        WriteAheadLog log = new WriteAheadLog(directory, interval);
+        AuctionStore store = new AuctionStore();
+        store.setOperationLog(log);
+
+        for (int i = 1; i <= writers; i++) {
+            Auction auction = new Auction("Item " + i, 1, 1, "seller");
+            auction.setAuctionID(i);
+            store.addAuction(auction);
+        }
+
+        CountDownLatch done = new CountDownLatch(writers);
+        long start = System.nanoTime();
+
+        for (int w = 1; w <= writers; w++) {
+            int auctionID = w;
+
+            new Thread(() -> {
+                try {
+                    for (int i = 1; i <= bidsPerWriter; i++) {
+                        store.bid(auctionID, i + 1, "bidder" + auctionID, System.currentTimeMillis());
+
+                        CountDownLatch durable = new CountDownLatch(1);
+                        log.whenDurable(log.takeLastAppended(), durable::countDown);
+                        durable.await();
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+
+                done.countDown();
+            }).start();
+        }
+
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        long bids = (long) bidsPerWriter * writers;
+
+        System.out.println(String.format("%-15d %-15.0f %-15.3f %s", interval, bids / (elapsed / 1e9),
+                elapsed / 1e6 / bidsPerWriter, log.getStats()));
+
+        log.close();
+        delete(directory);
+    }
+
+    private static void delete(File directory) throws IOException {
+
+        File[] files = directory.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+
+        Files.delete(directory.toPath());
+    }
+}